@@ -0,0 +1,19 @@
+#!/usr/bin/env bash
+# Builds the service and the benchmarks, then runs JMH with the GC profiler
+# (allocation rate per operation) and writes the results as JSON to
+# results/<timestamp>.json. Extra arguments go to JMH, e.g. a benchmark
+# regex and -p overrides:
+#
+#   ./run.sh ChecksumBenchmark -p fileSize=1048576
+#
+# Needs a JDK 17+ and Maven on the PATH.
+set -euo pipefail
+
+cd "$(dirname "$0")"
+mvn -B -q -f ../pom.xml install -DskipTests -pl multipart-upload-service -am
+mvn -B -q package
+
+mkdir -p results
+result="results/$(date +%Y%m%d-%H%M%S).json"
+java -jar target/benchmarks.jar -prof gc -rf json -rff "$result" "$@"
+echo "Results written to benchmarks/$result"
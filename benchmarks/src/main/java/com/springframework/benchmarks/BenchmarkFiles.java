@@ -0,0 +1,69 @@
+package com.springframework.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Test data for the benchmarks. Files are written once per trial into a temp
+ * directory and deleted with it.
+ */
+public final class BenchmarkFiles {
+
+	private BenchmarkFiles() {
+	}
+
+	public static Path tempDir(String prefix) throws IOException {
+		return Files.createTempDirectory("bench-" + prefix);
+	}
+
+	/**
+	 * {@code size} bytes that either do not compress (random) or compress like a
+	 * log or CSV export (repeated text with changing numbers).
+	 */
+	public static byte[] content(int size, boolean compressible) {
+		byte[] data = new byte[size];
+		Random random = new Random(42);
+		if (!compressible) {
+			random.nextBytes(data);
+			return data;
+		}
+		int position = 0;
+		while (position < size) {
+			byte[] line = ("2024-01-01T00:00:00Z,INFO,upload-service,chunk " + random.nextInt(100_000)
+					+ " stored in " + random.nextInt(500) + " ms\n").getBytes(StandardCharsets.US_ASCII);
+			int length = Math.min(line.length, size - position);
+			System.arraycopy(line, 0, data, position, length);
+			position += length;
+		}
+		return data;
+	}
+
+	public static File write(Path dir, String name, long size, boolean compressible) throws IOException {
+		File file = dir.resolve(name).toFile();
+		byte[] block = content((int) Math.min(size, 1024 * 1024), compressible);
+		try (OutputStream out = Files.newOutputStream(file.toPath())) {
+			for (long written = 0; written < size; written += block.length) {
+				out.write(block, 0, (int) Math.min(block.length, size - written));
+			}
+		}
+		return file;
+	}
+
+	public static void delete(Path dir) throws IOException {
+		if (dir == null) {
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(dir)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+}
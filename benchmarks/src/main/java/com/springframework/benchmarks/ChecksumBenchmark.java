@@ -0,0 +1,172 @@
+package com.springframework.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChecksumAlgorithm.Hasher;
+import com.springframework.protocol.ChunkManifest;
+import com.springframework.protocol.TreeHash;
+
+/**
+ * Whole-file SHA-256 as {@code /complete} computes it. {@code legacyStream} is
+ * the original {@code calculateChecksum}: a 4 KB stream buffer and
+ * {@code String.format} per byte. {@code channelHeap} is what the
+ * finalization service does for {@code sha-256}; {@code treeParallel} is
+ * {@code sha-256-tree} on the fork/join pool. {@code manifest} is the path it
+ * takes when the client sends a chunk manifest, which only hashes the chunk
+ * digests. {@code crc32c} is the per-chunk checksum uploads can use instead
+ * of SHA-256.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChecksumBenchmark {
+
+	private static final int CHANNEL_BUFFER_SIZE = 256 * 1024;
+
+	@Param({ "1048576", "67108864" })
+	public long fileSize;
+
+	@Param({ "5242880" })
+	public int chunkSize;
+
+	private Path dir;
+	private File file;
+	private byte[][] chunkDigests;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = BenchmarkFiles.tempDir("checksum");
+		file = BenchmarkFiles.write(dir, "file.bin", fileSize, false);
+		int chunks = (int) ((fileSize + chunkSize - 1) / chunkSize);
+		chunkDigests = new byte[chunks][];
+		for (int i = 0; i < chunks; i++) {
+			chunkDigests[i] = MessageDigest.getInstance("SHA-256").digest(new byte[] { (byte) i });
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		BenchmarkFiles.delete(dir);
+	}
+
+	@Benchmark
+	public String legacyStream() throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		try (InputStream in = new FileInputStream(file)) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	@Benchmark
+	public String channelHeap() throws Exception {
+		return channel(ByteBuffer.allocate(CHANNEL_BUFFER_SIZE));
+	}
+
+	@Benchmark
+	public String channelDirect() throws Exception {
+		return channel(ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE));
+	}
+
+	@Benchmark
+	public String mapped() throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long position = 0;
+			while (position < fileSize) {
+				long length = Math.min(Integer.MAX_VALUE, fileSize - position);
+				MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				digest.update(region);
+				position += length;
+			}
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	@Benchmark
+	public byte[] treeParallel() throws Exception {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return TreeHash.parallel(channel, fileSize);
+		}
+	}
+
+	@Benchmark
+	public byte[] crc32c() throws Exception {
+		return hash(ChecksumAlgorithm.CRC32C.newHasher());
+	}
+
+	@Benchmark
+	public String manifest() {
+		return ChunkManifest.compose(chunkDigests);
+	}
+
+	private byte[] hash(Hasher hasher) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long position = 0;
+			while (position < fileSize) {
+				int read = channel.read(buffer.clear(), position);
+				if (read < 0) {
+					break;
+				}
+				hasher.update(buffer.flip());
+				position += read;
+			}
+		}
+		return hasher.digest();
+	}
+
+	private String channel(ByteBuffer buffer) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long position = 0;
+			while (position < fileSize) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					break;
+				}
+				buffer.flip();
+				digest.update(buffer);
+				position += read;
+			}
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+}
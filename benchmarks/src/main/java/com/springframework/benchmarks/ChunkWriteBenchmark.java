@@ -0,0 +1,122 @@
+package com.springframework.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Storing one received chunk. The request body is an in-memory stream, so
+ * only the copy to disk and the hashing are measured. {@code legacyStreamCopy}
+ * is the original controller: a separate file per chunk written through a
+ * 4 KB stream copy, then read back to hash it. {@code positionalWrite} is what
+ * the controller does today, hashing while it writes at the chunk's offset in
+ * the preallocated part file; {@code channelTransfer} is the same without
+ * hashing, as a floor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkWriteBenchmark {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	@Param({ "65536", "1048576", "5242880" })
+	public int chunkSize;
+
+	private Path dir;
+	private byte[] body;
+	private File chunkFile;
+	private FileChannel partChannel;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = BenchmarkFiles.tempDir("write");
+		body = BenchmarkFiles.content(chunkSize, false);
+		chunkFile = dir.resolve("chunk-0").toFile();
+		File partFile = dir.resolve("upload.part").toFile();
+		try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+			raf.setLength(4L * chunkSize);
+		}
+		partChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		partChannel.close();
+		BenchmarkFiles.delete(dir);
+	}
+
+	@Benchmark
+	public byte[] legacyStreamCopy() throws Exception {
+		try (InputStream in = new ByteArrayInputStream(body); OutputStream out = new FileOutputStream(chunkFile)) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		}
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		try (InputStream in = new FileInputStream(chunkFile)) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return digest.digest();
+	}
+
+	@Benchmark
+	public long channelTransfer() throws Exception {
+		try (InputStream in = new ByteArrayInputStream(body)) {
+			return partChannel.transferFrom(Channels.newChannel(in), chunkSize, chunkSize);
+		}
+	}
+
+	@Benchmark
+	public byte[] positionalWrite() throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		long start = chunkSize;
+		long written = 0;
+		try (InputStream in = new ByteArrayInputStream(body)) {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			int read;
+			while ((read = in.read(buffer.array())) != -1) {
+				digest.update(buffer.array(), 0, read);
+				buffer.clear().limit(read);
+				while (buffer.hasRemaining()) {
+					written += partChannel.write(buffer, start + written);
+				}
+			}
+		}
+		return digest.digest();
+	}
+}
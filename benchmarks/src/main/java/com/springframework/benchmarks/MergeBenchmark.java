@@ -0,0 +1,112 @@
+package com.springframework.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Concatenating per-chunk files into the final file, as the original
+ * {@code /complete} did. The service no longer merges: chunks land at their
+ * offsets in one preallocated part file, which only has to be synced, as in
+ * {@code preallocatedSync}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+
+	@Param({ "16777216", "134217728" })
+	public long fileSize;
+
+	@Param({ "1048576", "5242880" })
+	public int chunkSize;
+
+	private Path dir;
+	private File[] chunks;
+	private File merged;
+	private File partFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = BenchmarkFiles.tempDir("merge");
+		int count = (int) ((fileSize + chunkSize - 1) / chunkSize);
+		chunks = new File[count];
+		for (int i = 0; i < count; i++) {
+			chunks[i] = BenchmarkFiles.write(dir, "chunk-" + i, Math.min(chunkSize, fileSize - (long) i * chunkSize),
+					false);
+		}
+		merged = dir.resolve("merged.bin").toFile();
+		partFile = BenchmarkFiles.write(dir, "upload.part", fileSize, false);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		BenchmarkFiles.delete(dir);
+	}
+
+	@Benchmark
+	public long legacyStreamCopy() throws Exception {
+		try (OutputStream out = new FileOutputStream(merged)) {
+			byte[] buffer = new byte[4096];
+			for (File chunk : chunks) {
+				try (InputStream in = new FileInputStream(chunk)) {
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						out.write(buffer, 0, read);
+					}
+				}
+			}
+		}
+		return merged.length();
+	}
+
+	@Benchmark
+	public long channelTransfer() throws Exception {
+		long position = 0;
+		try (FileChannel out = FileChannel.open(merged.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (File chunk : chunks) {
+				try (FileChannel in = FileChannel.open(chunk.toPath(), StandardOpenOption.READ)) {
+					long size = in.size();
+					long copied = 0;
+					while (copied < size) {
+						copied += in.transferTo(copied, size - copied, out);
+					}
+					position += size;
+				}
+			}
+		}
+		return position;
+	}
+
+	@Benchmark
+	public long preallocatedSync() throws Exception {
+		try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE)) {
+			channel.force(false);
+			return channel.size();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.springframework.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.springframework.benchmarks.BenchmarkFiles;
+import com.springframework.protocol.ChunkCodec;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+/**
+ * Serving one chunk as {@code /files/chunkWithMeta} does, into a response that
+ * discards what it is given. {@code legacyReadIntoArray} is the original
+ * {@code downloadChunkByIndex}, which read the chunk into a new array;
+ * {@code writeRegion} and {@code writeDeflated} call the
+ * {@link FileRegionWriter} methods the controller uses today. Without Tomcat
+ * there is no sendfile, so {@code writeRegion} takes its transferTo path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkServeBenchmark {
+
+	private static final long FILE_SIZE = 64L * 1024 * 1024;
+
+	@Param({ "65536", "1048576", "5242880" })
+	public int chunkSize;
+
+	@Param({ "false", "true" })
+	public boolean compressible;
+
+	private Path dir;
+	private File file;
+	private long offset;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dir = BenchmarkFiles.tempDir("serve");
+		file = BenchmarkFiles.write(dir, "served.bin", FILE_SIZE, compressible);
+		offset = FILE_SIZE / 2;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		BenchmarkFiles.delete(dir);
+	}
+
+	@Benchmark
+	public long legacyReadIntoArray() throws Exception {
+		DiscardingResponse response = new DiscardingResponse();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(offset);
+			byte[] buffer = new byte[chunkSize];
+			int bytesRead = raf.read(buffer);
+			response.setContentLength(bytesRead);
+			response.getOutputStream().write(buffer, 0, bytesRead);
+			response.getOutputStream().flush();
+		}
+		return response.written();
+	}
+
+	@Benchmark
+	public long writeRegion() throws Exception {
+		DiscardingResponse response = new DiscardingResponse();
+		FileRegionWriter.writeRegion(new MockHttpServletRequest(), response, file, offset, chunkSize);
+		return response.written();
+	}
+
+	@Benchmark
+	public long writeDeflated() throws Exception {
+		DiscardingResponse response = new DiscardingResponse();
+		return FileRegionWriter.writeEncodedRegion(response, file, offset, chunkSize, ChunkCodec.DEFLATE);
+	}
+
+	@Benchmark
+	public boolean compressibleSample() throws Exception {
+		return FileRegionWriter.compressible(file, offset, chunkSize);
+	}
+
+	/**
+	 * A response whose body goes nowhere, so only the serving code is measured.
+	 */
+	static class DiscardingResponse extends MockHttpServletResponse {
+
+		private final CountingOutputStream out = new CountingOutputStream();
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			return out;
+		}
+
+		long written() {
+			return out.count;
+		}
+	}
+
+	static class CountingOutputStream extends ServletOutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			count += len;
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener listener) {
+		}
+	}
+}
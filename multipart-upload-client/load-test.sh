@@ -0,0 +1,15 @@
+#!/usr/bin/env bash
+# Builds the service and runs the load test against it, writing the report to
+# load-test-report.json (or --report=...). Arguments are load test options,
+# e.g.
+#
+#   ./load-test.sh --uploaders=8 --file-sizes=4MB,64MB --fault-rate=0.0005
+#
+# Run without a change, then with it, and diff the two reports. Needs a JDK
+# 17+ and Maven on the PATH.
+set -euo pipefail
+
+cd "$(dirname "$0")"
+# Installs the shared protocol module too, which the client compiles against.
+mvn -B -q -f ../pom.xml install -DskipTests -pl multipart-upload-service -am
+mvn -B -q -Pload-test compile exec:java -Dexec.args="$*"
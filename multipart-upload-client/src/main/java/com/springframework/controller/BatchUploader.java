@@ -0,0 +1,230 @@
+package com.springframework.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.springframework.upload.BatchBody;
+import com.springframework.upload.RetryPolicy;
+import com.springframework.upload.ServerBusyException;
+
+/**
+ * Uploads many files at once. Small files are packed into {@code /batch}
+ * requests, so each costs a few bytes of framing instead of three round trips
+ * of its own; files of {@link #withSmallFileLimit the limit} or more go through
+ * a {@link ChunkedFileUploader} as usual. Files the server could not verify or
+ * store are sent again in a later batch, up to the retry policy's attempts.
+ */
+public class BatchUploader {
+
+	public static final long DEFAULT_SMALL_FILE_LIMIT = 1024 * 1024;
+
+	private static final Logger log = LoggerFactory.getLogger(BatchUploader.class);
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final String serverUrl;
+	private final CloseableHttpClient httpClient;
+	private ChunkedFileUploader chunkedUploader;
+	private RetryPolicy retryPolicy = RetryPolicy.defaults();
+	private long smallFileLimit = DEFAULT_SMALL_FILE_LIMIT;
+	private long maxBatchBytes = 32L * 1024 * 1024;
+	private int maxBatchFiles = 1000;
+
+	/**
+	 * Where a file ended up, or why it did not. Files sent in chunks have no
+	 * location here, as {@code /complete} reports it to the chunked uploader.
+	 */
+	public record Result(File file, String location, String error) {
+
+		public boolean stored() {
+			return error == null;
+		}
+	}
+
+	public BatchUploader(String serverUrl) {
+		this(serverUrl, ChunkedFileUploader.SHARED_CLIENT);
+	}
+
+	public BatchUploader(String serverUrl, CloseableHttpClient httpClient) {
+		this.serverUrl = serverUrl;
+		this.httpClient = httpClient;
+		this.chunkedUploader = new ChunkedFileUploader(serverUrl, httpClient);
+	}
+
+	/**
+	 * Uploader for the files too big to batch.
+	 */
+	public BatchUploader withChunkedUploader(ChunkedFileUploader chunkedUploader) {
+		this.chunkedUploader = chunkedUploader;
+		return this;
+	}
+
+	public BatchUploader withRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+
+	/**
+	 * Files smaller than this are batched. The server refuses files above its
+	 * {@code upload.batch.max-file-size}, 8 MiB by default.
+	 */
+	public BatchUploader withSmallFileLimit(long smallFileLimit) {
+		this.smallFileLimit = smallFileLimit;
+		return this;
+	}
+
+	/**
+	 * Caps on one request: a batch is closed once either would be exceeded.
+	 */
+	public BatchUploader withBatchLimits(long maxBatchBytes, int maxBatchFiles) {
+		if (maxBatchBytes < 1 || maxBatchFiles < 1) {
+			throw new IllegalArgumentException("batch limits must be positive");
+		}
+		this.maxBatchBytes = maxBatchBytes;
+		this.maxBatchFiles = maxBatchFiles;
+		return this;
+	}
+
+	/**
+	 * Uploads every file under its own name and returns a result for each, in
+	 * the order given. A failed file does not stop the others.
+	 */
+	public List<Result> upload(List<File> files, String bucketName) throws InterruptedException {
+		Map<File, Result> results = new LinkedHashMap<>();
+		List<File> small = new ArrayList<>();
+		for (File file : files) {
+			results.put(file, null);
+			if (file.length() < smallFileLimit) {
+				small.add(file);
+			}
+		}
+
+		uploadSmall(small, bucketName, results);
+
+		for (File file : files) {
+			if (results.get(file) != null) {
+				continue;
+			}
+			try {
+				chunkedUploader.upload(file, bucketName);
+				results.put(file, new Result(file, null, null));
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				results.put(file, new Result(file, null, e.getMessage()));
+			}
+		}
+		return new ArrayList<>(results.values());
+	}
+
+	private void uploadSmall(List<File> pending, String bucketName, Map<File, Result> results)
+			throws InterruptedException {
+		for (int attempt = 1; !pending.isEmpty(); attempt++) {
+			List<File> retry = new ArrayList<>();
+			Exception lastFailure = null;
+			for (List<File> batch : batches(pending)) {
+				try {
+					retry.addAll(sendBatch(batch, bucketName, results));
+				} catch (IOException e) {
+					log.warn("⚠️ Batch of {} files failed (attempt {}): {}", batch.size(), attempt, e.getMessage());
+					lastFailure = e;
+					batch.forEach(file -> results.put(file, new Result(file, null, e.getMessage())));
+					retry.addAll(batch);
+				}
+			}
+			if (retry.isEmpty() || attempt >= retryPolicy.maxAttempts()) {
+				return;
+			}
+			Thread.sleep(retryPolicy.delayMillis(attempt, lastFailure));
+			pending = retry;
+		}
+	}
+
+	/**
+	 * Splits files into batches within the byte and file caps, keeping their order.
+	 */
+	private List<List<File>> batches(List<File> files) {
+		List<List<File>> batches = new ArrayList<>();
+		List<File> current = new ArrayList<>();
+		long bytes = 0;
+		for (File file : files) {
+			if (!current.isEmpty() && (current.size() >= maxBatchFiles || bytes + file.length() > maxBatchBytes)) {
+				batches.add(current);
+				current = new ArrayList<>();
+				bytes = 0;
+			}
+			current.add(file);
+			bytes += file.length();
+		}
+		if (!current.isEmpty()) {
+			batches.add(current);
+		}
+		return batches;
+	}
+
+	/**
+	 * Sends one batch and records a result for every file the server reported
+	 * on. Returns the files worth sending again: those whose checksum did not
+	 * match or that could not be stored, and any the server never got to.
+	 */
+	private List<File> sendBatch(List<File> batch, String bucketName, Map<File, Result> results)
+			throws IOException {
+		HttpPost post;
+		try {
+			post = new HttpPost(new URIBuilder(serverUrl + "/batch").addParameter("bucketName", bucketName).build());
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid server URL: " + serverUrl, e);
+		}
+		post.setEntity(new BatchBody(batch));
+
+		try (CloseableHttpResponse response = httpClient.execute(post)) {
+			int status = response.getStatusLine().getStatusCode();
+			String responseBody = EntityUtils.toString(response.getEntity());
+			if (ServerBusyException.isBusy(status)) {
+				Header retryAfter = response.getFirstHeader("Retry-After");
+				throw new ServerBusyException(status, retryAfter != null ? retryAfter.getValue() : null);
+			}
+			if (status != 200 && status != 400) {
+				throw new IOException("Batch upload failed: " + status + " - " + responseBody);
+			}
+			JsonNode body = MAPPER.readTree(responseBody);
+			JsonNode files = body.path("files");
+
+			List<File> retry = new ArrayList<>();
+			int stored = 0;
+			for (int i = 0; i < batch.size(); i++) {
+				File file = batch.get(i);
+				JsonNode result = files.path(i);
+				String fileStatus = result.path("status").asText("");
+				if (fileStatus.equals("STORED")) {
+					results.put(file, new Result(file, result.path("location").asText(), null));
+					stored++;
+					continue;
+				}
+				String message = result.isMissingNode() ? body.path("error").asText("Not received")
+						: result.path("message").asText(fileStatus);
+				results.put(file, new Result(file, null, message));
+				if (!fileStatus.equals("REJECTED")) {
+					retry.add(file);
+				}
+			}
+			log.info("📦 Batch of {} files: {} stored, {} to retry", batch.size(), stored, retry.size());
+			return retry;
+		}
+	}
+}
@@ -1,97 +1,851 @@
 package com.springframework.controller;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChunkCodec;
+import com.springframework.protocol.ChunkManifest;
+import com.springframework.protocol.TreeHash;
+import com.springframework.upload.BlockSignature;
+import com.springframework.upload.ChunkBody;
+import com.springframework.upload.ChunkSizer;
+import com.springframework.upload.CompressionStats;
+import com.springframework.upload.DeltaBody;
+import com.springframework.upload.FileChunkSource;
+import com.springframework.upload.RetryPolicy;
+import com.springframework.upload.ServerBusyException;
+import com.springframework.upload.TransferMetrics;
+import com.springframework.upload.UploadProgressListener;
+import com.springframework.upload.UploadProgressListener.UploadProgress;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 
 public class ChunkedFileUploader {
 
-	private static final int CHUNK_SIZE = 5 * 1024 * 1024;
-	private static final int MAX_RETRIES = 3;
+	private static final Logger log = LoggerFactory.getLogger(ChunkedFileUploader.class);
+	private static final int LOOKUP_BATCH_SIZE = 1000;
+	private static final long JOB_POLL_MIN_MILLIS = 50;
+	private static final long JOB_POLL_MAX_MILLIS = 2_000;
+	/**
+	 * Files at least this large are checksummed as a tree when the server
+	 * supports it, so both ends can hash them on every core.
+	 */
+	private static final long TREE_HASH_MIN_SIZE = 16L * TreeHash.LEAF_SIZE;
+
+	/**
+	 * Keep-alive connections shared by every uploader, so chunks reuse sockets
+	 * instead of paying a TCP handshake each.
+	 */
+	static final CloseableHttpClient SHARED_CLIENT = createPooledClient(64, 16);
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
 	private final String serverUrl;
+	private final CloseableHttpClient httpClient;
+	private int parallelism = 1;
+	private boolean deduplication;
+	private boolean deltaSync;
+	private ChecksumAlgorithm chunkChecksum = ChecksumAlgorithm.SHA_256;
+	private boolean rawChunks;
+	private ChunkCodec compression = ChunkCodec.DEFLATE;
+	private final CompressionStats compressionStats = new CompressionStats();
+	private final ChunkSizer chunkSizer;
+	private int chunkSize = -1;
+	private int relayBuffers = -1;
+	private TransferMetrics metrics = new TransferMetrics(Metrics.globalRegistry, "upload");
+	private RetryPolicy retryPolicy = RetryPolicy.defaults();
+	private UploadProgressListener progressListener = progress -> {
+	};
 
 	public ChunkedFileUploader(String serverUrl) {
+		this(serverUrl, SHARED_CLIENT);
+	}
+
+	public ChunkedFileUploader(String serverUrl, CloseableHttpClient httpClient) {
 		this.serverUrl = serverUrl;
+		this.httpClient = httpClient;
+		this.chunkSizer = ChunkSizer.shared(serverUrl);
+	}
+
+	public static CloseableHttpClient createPooledClient(int maxTotal, int maxPerRoute) {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxTotal);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		connectionManager.setValidateAfterInactivity(2_000);
+		return HttpClients.custom().setConnectionManager(connectionManager).build();
+	}
+
+	/**
+	 * Number of chunks in flight at once. 1 sends chunks strictly in order.
+	 */
+	public ChunkedFileUploader withParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public ChunkedFileUploader withRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+
+	/**
+	 * Hashes chunks before sending and asks the server which it already stores,
+	 * so repeated content is referenced rather than uploaded again. Costs an
+	 * extra local read of the chunks that are sent.
+	 */
+	public ChunkedFileUploader withDeduplication(boolean deduplication) {
+		this.deduplication = deduplication;
+		return this;
+	}
+
+	/**
+	 * Uploads new versions of files the bucket already holds as a delta against
+	 * the stored version: the server's block signature is fetched, and only the
+	 * bytes that match no stored block at any offset are sent. Costs a full read
+	 * of the file before anything is known to be saved; files the server does
+	 * not have yet are uploaded in chunks as usual.
+	 */
+	public ChunkedFileUploader withDeltaSync(boolean deltaSync) {
+		this.deltaSync = deltaSync;
+		return this;
+	}
+
+	/**
+	 * Checksum to ask for on each chunk. CRC32C costs a fraction of SHA-256 on
+	 * both ends but is not cryptographic, so the server then verifies the file
+	 * against its whole-file digest instead of the chunk manifest.
+	 * Deduplication needs SHA-256 chunk hashes and asks for them regardless.
+	 */
+	public ChunkedFileUploader withChunkChecksum(ChecksumAlgorithm chunkChecksum) {
+		this.chunkChecksum = chunkChecksum;
+		return this;
+	}
+
+	/**
+	 * Sends each chunk as the raw body of a {@code PUT} instead of a multipart
+	 * form, which the server writes straight to its place in the file without
+	 * parsing or spooling it. The chunk checksum cannot follow the body, so the
+	 * server returns the digest of what it wrote and it is compared here.
+	 */
+	public ChunkedFileUploader withRawChunks(boolean rawChunks) {
+		this.rawChunks = rawChunks;
+		return this;
+	}
+
+	/**
+	 * Asks for this chunk size instead of adapting it to measured throughput and
+	 * failures. The server may grant a different size within its limits.
+	 */
+	public ChunkedFileUploader withChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+		return this;
 	}
 
-	public void upload(File file, String bucketName) throws Exception {
+	/**
+	 * Chunks a {@link #upload(InputStream, String, long, String) relayed}
+	 * upload holds in memory at once, being sent or waiting to be. Reading the
+	 * stream stops while all are taken. Defaults to one more than the
+	 * parallelism, so the next chunk is read while the others are sent.
+	 */
+	public ChunkedFileUploader withRelayBuffers(int relayBuffers) {
+		if (relayBuffers < 1) {
+			throw new IllegalArgumentException("relayBuffers must be at least 1");
+		}
+		this.relayBuffers = relayBuffers;
+		return this;
+	}
+
+	/**
+	 * Preferred coding for chunks that compress; {@link ChunkCodec#IDENTITY}
+	 * turns compression off. The server may only accept another coding, in
+	 * which case that one is used.
+	 */
+	public ChunkedFileUploader withCompression(ChunkCodec compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	/**
+	 * Where to publish per-chunk latency, retry and byte meters. Defaults to
+	 * Micrometer's global registry, which Spring Boot's registries join.
+	 */
+	public ChunkedFileUploader withMeterRegistry(MeterRegistry registry) {
+		this.metrics = new TransferMetrics(registry, "upload");
+		return this;
+	}
+
+	/**
+	 * Bytes compression saved across every upload made by this uploader.
+	 */
+	public CompressionStats compressionStats() {
+		return compressionStats;
+	}
+
+	public ChunkedFileUploader withProgressListener(UploadProgressListener progressListener) {
+		this.progressListener = progressListener;
+		return this;
+	}
+
+	/**
+	 * Uploads the file under a new uploadId and returns that id, which can be
+	 * passed to {@link #resume} if the upload is interrupted.
+	 */
+	public String upload(File file, String bucketName) throws Exception {
 		String uploadId = UUID.randomUUID().toString();
-		int totalChunks = (int) Math.ceil((double) file.length() / CHUNK_SIZE);
-		String fileChecksum = calculateChecksum(file);
+		upload(file, bucketName, uploadId, false);
+		return uploadId;
+	}
 
-		byte[] fileBytes = FileUtils.readFileToByteArray(file);
-		for (int chunkIndex = 0; chunkIndex < totalChunks; chunkIndex++) {
-			boolean uploaded = false;
-			int attempt = 0;
+	/**
+	 * Continues an interrupted upload, sending only the chunks the server reports
+	 * as missing. Falls back to a full upload if the server does not know the id.
+	 */
+	public void resume(File file, String bucketName, String uploadId) throws Exception {
+		upload(file, bucketName, uploadId, true);
+	}
 
-			while (!uploaded && attempt < MAX_RETRIES) {
-				attempt++;
+	/**
+	 * Uploads {@code fileSize} bytes read from {@code in} as {@code fileName},
+	 * for relaying a file that is still arriving. Chunks are cut from the stream
+	 * and sent while the next ones are read, with at most
+	 * {@link #withRelayBuffers} of them in memory, and the file's SHA-256 is
+	 * taken on the same pass; nothing is written to disk. Returns the uploadId.
+	 * The stream is not closed.
+	 *
+	 * @throws EOFException if the stream ends before {@code fileSize} bytes
+	 */
+	public String upload(InputStream in, String fileName, long fileSize, String bucketName) throws Exception {
+		String uploadId = UUID.randomUUID().toString();
+		log.info("Relaying {} as {}", fileName, uploadId);
+		int requested = chunkSize > 0 ? chunkSize : chunkSizer.next();
+		UploadState state = initUpload(uploadId, fileName, fileSize, bucketName, requested);
+		int totalChunks = (int) ((fileSize + state.chunkSize() - 1) / state.chunkSize());
+		int buffers = relayBuffers > 0 ? relayBuffers : parallelism + 1;
+		BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(buffers);
+		int allocated = 0;
+		MessageDigest fileDigest = MessageDigest.getInstance("SHA-256");
+		byte[][] digests = new byte[totalChunks][];
+		ProgressTracker tracker = new ProgressTracker(totalChunks, fileSize);
 
-				int start = chunkIndex * CHUNK_SIZE;
-				int end = Math.min(start + CHUNK_SIZE, fileBytes.length);
-				byte[] chunkData = new byte[end - start];
-				System.arraycopy(fileBytes, start, chunkData, 0, end - start);
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "chunk-relay-" + uploadId.substring(0, 8));
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int chunkIndex = 0; chunkIndex < totalChunks; chunkIndex++) {
+				byte[] buffer = free.poll();
+				if (buffer == null && allocated < buffers) {
+					buffer = new byte[state.chunkSize()];
+					allocated++;
+				}
+				while (buffer == null) {
+					buffer = free.poll(100, TimeUnit.MILLISECONDS);
+					throwIfFailed(futures);
+				}
+				throwIfFailed(futures);
 
-				File chunkFile = File.createTempFile("chunk-" + chunkIndex, ".tmp");
-				FileUtils.writeByteArrayToFile(chunkFile, chunkData);
-				String chunkChecksum = calculateChecksum(chunkFile);
+				int length = (int) Math.min(state.chunkSize(), fileSize - (long) chunkIndex * state.chunkSize());
+				if (in.readNBytes(buffer, 0, length) < length) {
+					throw new EOFException("Stream for " + fileName + " ended before " + fileSize + " bytes");
+				}
+				fileDigest.update(buffer, 0, length);
+				ChunkCodec chunkCodec = state.codec() != ChunkCodec.IDENTITY
+						&& ChunkCodec.worthCompressing(buffer, Math.min(ChunkCodec.SAMPLE_SIZE, length)) ? state.codec()
+								: ChunkCodec.IDENTITY;
 
-				uploaded = uploadChunk(uploadId, chunkIndex, chunkFile, chunkChecksum);
-				chunkFile.delete();
+				int index = chunkIndex;
+				byte[] data = buffer;
+				futures.add(executor.submit(() -> {
+					try {
+						digests[index] = sendWithRetry(uploadId, index, length, () -> new ChunkBody(data, length,
+								fileName + ".part" + index, chunkCodec, state.chunkChecksum()), tracker);
+					} finally {
+						free.add(data);
+					}
+					return null;
+				}));
+			}
+			if (in.read() != -1) {
+				throw new IOException("Stream for " + fileName + " is longer than " + fileSize + " bytes");
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof Exception cause ? cause : e;
+				}
+			}
+		} catch (Exception e) {
+			// The bytes read so far are gone, so the upload can never be resumed.
+			abandon(uploadId);
+			throw e;
+		} finally {
+			futures.forEach(f -> f.cancel(true));
+			executor.shutdownNow();
+		}
+		if (state.codec() != ChunkCodec.IDENTITY) {
+			log.info("Compression ({}): {}", state.codec().token(), compressionStats);
+		}
+
+		String manifestChecksum = state.chunkChecksum().isCryptographic() ? ChunkManifest.compose(digests) : null;
+		completeUpload(uploadId, fileName, totalChunks, HexFormat.of().formatHex(fileDigest.digest()),
+				ChecksumAlgorithm.SHA_256, manifestChecksum, bucketName);
+		return uploadId;
+	}
+
+	/**
+	 * Asks the server to drop an upload that will not be completed. Best
+	 * effort: a failure is only logged.
+	 */
+	private void abandon(String uploadId) {
+		try (CloseableHttpResponse response = httpClient.execute(new HttpDelete(serverUrl + "/" + uploadId))) {
+			EntityUtils.consume(response.getEntity());
+		} catch (IOException e) {
+			log.warn("Error abandoning upload {}: {}", uploadId, e.getMessage());
+		}
+	}
+
+	/**
+	 * Rethrows the failure of any chunk already sent, so a relay stops reading
+	 * once it cannot succeed. Finished chunks are dropped from {@code futures}.
+	 */
+	private static void throwIfFailed(List<Future<?>> futures) throws Exception {
+		for (Iterator<Future<?>> it = futures.iterator(); it.hasNext();) {
+			Future<?> future = it.next();
+			if (!future.isDone()) {
+				continue;
+			}
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof Exception cause ? cause : e;
+			}
+			it.remove();
+		}
+	}
+
+	private void upload(File file, String bucketName, String uploadId, boolean resume) throws Exception {
+		log.info("Uploading {} as {}", file.getName(), uploadId);
 
-				if (!uploaded && attempt < MAX_RETRIES) {
-					System.out.println("Retrying chunk " + chunkIndex + " (attempt " + attempt + ")");
+		// The chunk size is fixed per upload: resume, the manifest and deduplication
+		// all go by chunk index. What this upload measures sizes the next one.
+		UploadState state = resume ? fetchMissing(uploadId, file.length()) : null;
+		if (state == null) {
+			int requested = chunkSize > 0 ? chunkSize : chunkSizer.next();
+			state = initUpload(uploadId, file.getName(), file.length(), bucketName, requested);
+		}
+		ChunkCodec codec = state.codec();
+		BitSet missing = state.missing();
+		int expectedChunks = (int) ((file.length() + state.chunkSize() - 1) / state.chunkSize());
+		if (deltaSync && !resume && file.length() > 0 && missing.cardinality() == expectedChunks
+				&& uploadDelta(uploadId, file, bucketName, expectedChunks)) {
+			return;
+		}
+		ChecksumAlgorithm fileChecksum = file.length() >= TREE_HASH_MIN_SIZE
+				&& state.checksums().contains(ChecksumAlgorithm.SHA_256_TREE) ? ChecksumAlgorithm.SHA_256_TREE
+						: ChecksumAlgorithm.SHA_256;
+
+		try (FileChunkSource source = new FileChunkSource(file, state.chunkSize(), state.chunkChecksum(),
+				fileChecksum)) {
+			int totalChunks = source.totalChunks();
+			ProgressTracker tracker = new ProgressTracker(totalChunks, source.size());
+
+			// Chunks the server already has are only hashed locally, for the checksums.
+			List<Integer> toSend = new ArrayList<>();
+			for (int chunkIndex = 0; chunkIndex < totalChunks; chunkIndex++) {
+				if (missing.get(chunkIndex)) {
+					toSend.add(chunkIndex);
+					continue;
 				}
+				ChunkBody chunk = source.chunk(chunkIndex);
+				chunk.writeTo(OutputStream.nullOutputStream());
+				source.recordDigest(chunkIndex, chunk.digest());
+				tracker.chunkDone(source.length(chunkIndex));
 			}
 
-			if (!uploaded) {
-				throw new IOException("Failed to upload chunk " + chunkIndex);
+			if (deduplication && state.chunkChecksum() == ChecksumAlgorithm.SHA_256) {
+				toSend = referenceStoredChunks(uploadId, source, toSend, tracker);
 			}
+
+			if (parallelism == 1) {
+				for (int chunkIndex : toSend) {
+					uploadWithRetry(uploadId, source, chunkIndex, codec, tracker);
+				}
+			} else {
+				uploadConcurrently(uploadId, source, toSend, codec, tracker);
+			}
+			if (codec != ChunkCodec.IDENTITY) {
+				log.info("Compression ({}): {}", codec.token(), compressionStats);
+			}
+
+			// A manifest of non-cryptographic chunk checksums proves nothing about the file.
+			String manifestChecksum = state.chunkChecksum().isCryptographic() ? source.manifestChecksum() : null;
+			completeUpload(uploadId, file.getName(), totalChunks, source.fileChecksum(), fileChecksum,
+					manifestChecksum, bucketName);
 		}
+	}
 
-		completeUpload(uploadId, file.getName(), totalChunks, fileChecksum, bucketName);
+	/**
+	 * Rebuilds the upload on the server from its stored version and a delta,
+	 * then completes it. False if there is no stored version or the delta could
+	 * not be applied, in which case every chunk is sent as usual, overwriting
+	 * whatever the delta got to write.
+	 */
+	private boolean uploadDelta(String uploadId, File file, String bucketName, int totalChunks) throws Exception {
+		BlockSignature signature = fetchSignature(file.getName(), bucketName);
+		if (signature == null) {
+			return false;
+		}
+		DeltaBody delta = new DeltaBody(file, signature);
+		HttpPut put;
+		try {
+			put = new HttpPut(new URIBuilder(serverUrl + "/" + uploadId + "/delta")
+					.addParameter("bucketName", bucketName).build());
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid server URL: " + serverUrl, e);
+		}
+		put.setEntity(delta);
+
+		for (int attempt = 1; attempt <= retryPolicy.maxAttempts(); attempt++) {
+			ServerBusyException busy = null;
+			try (CloseableHttpResponse response = httpClient.execute(put)) {
+				int status = response.getStatusLine().getStatusCode();
+				String responseBody = EntityUtils.toString(response.getEntity());
+				throwIfBusy(response);
+				log.debug("Delta - {}: {}", status, responseBody);
+				if (status == 200) {
+					log.info("Delta sync: {} bytes reused, {} sent", delta.copiedBytes(), delta.literalBytes());
+					completeUpload(uploadId, file.getName(), totalChunks, HexFormat.of().formatHex(delta.fileDigest()),
+							ChecksumAlgorithm.SHA_256, null, bucketName);
+					return true;
+				}
+				if (status == 400 || status == 404) {
+					return false;
+				}
+			} catch (ServerBusyException e) {
+				busy = e;
+			} catch (IOException e) {
+				log.warn("Error sending delta: {}", e.getMessage());
+			}
+			if (attempt < retryPolicy.maxAttempts()) {
+				metrics.retried();
+				Thread.sleep(retryPolicy.delayMillis(attempt, busy));
+			}
+		}
+		log.warn("Delta upload failed, sending chunks instead");
+		return false;
+	}
+
+	/**
+	 * Signature of the stored version of the file, or null if the server has
+	 * none or does not support delta uploads.
+	 */
+	private BlockSignature fetchSignature(String fileName, String bucketName) throws IOException {
+		HttpGet get;
+		try {
+			get = new HttpGet(new URIBuilder(serverUrl + "/signature").addParameter("bucketName", bucketName)
+					.addParameter("fileName", fileName).build());
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid server URL: " + serverUrl, e);
+		}
+		try (CloseableHttpResponse response = httpClient.execute(get)) {
+			if (response.getStatusLine().getStatusCode() != 200) {
+				EntityUtils.consume(response.getEntity());
+				return null;
+			}
+			return BlockSignature.read(response.getEntity().getContent());
+		}
 	}
 
-	private boolean uploadChunk(String uploadId, int chunkIndex, File chunkFile, String chunkChecksum) {
-		try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-			HttpPost upload = new HttpPost(serverUrl + "/chunk");
+	private void uploadConcurrently(String uploadId, FileChunkSource source, List<Integer> chunks, ChunkCodec codec,
+			ProgressTracker tracker) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "chunk-upload-" + uploadId.substring(0, 8));
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int chunkIndex : chunks) {
+				futures.add(executor.submit(() -> {
+					uploadWithRetry(uploadId, source, chunkIndex, codec, tracker);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					futures.forEach(f -> f.cancel(true));
+					throw e.getCause() instanceof Exception cause ? cause : e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fills every chunk the server's chunk store already holds by reference and
+	 * returns the chunks that still have to be sent.
+	 */
+	private List<Integer> referenceStoredChunks(String uploadId, FileChunkSource source, List<Integer> chunks,
+			ProgressTracker tracker) throws Exception {
+		List<String> hashes = new ArrayList<>(chunks.size());
+		for (int chunkIndex : chunks) {
+			ChunkBody chunk = source.chunk(chunkIndex);
+			chunk.writeTo(OutputStream.nullOutputStream());
+			source.recordDigest(chunkIndex, chunk.digest());
+			hashes.add(HexFormat.of().formatHex(chunk.digest()));
+		}
+
+		Set<String> stored = new HashSet<>();
+		for (int from = 0; from < hashes.size(); from += LOOKUP_BATCH_SIZE) {
+			stored.addAll(lookupChunks(hashes.subList(from, Math.min(hashes.size(), from + LOOKUP_BATCH_SIZE))));
+		}
+
+		List<Integer> remaining = new ArrayList<>();
+		for (int i = 0; i < chunks.size(); i++) {
+			int chunkIndex = chunks.get(i);
+			if (stored.contains(hashes.get(i)) && referenceChunk(uploadId, chunkIndex, hashes.get(i))) {
+				tracker.chunkDone(source.length(chunkIndex));
+			} else {
+				remaining.add(chunkIndex);
+			}
+		}
+		log.info("Deduplicated {}/{} chunks", chunks.size() - remaining.size(), chunks.size());
+		return remaining;
+	}
+
+	private List<String> lookupChunks(List<String> hashes) throws IOException {
+		HttpPost post = new HttpPost(serverUrl + "/chunks/lookup");
+		post.setEntity(new ByteArrayEntity(MAPPER.writeValueAsBytes(hashes), ContentType.APPLICATION_JSON));
+		try (CloseableHttpResponse response = httpClient.execute(post)) {
+			String responseBody = EntityUtils.toString(response.getEntity());
+			if (response.getStatusLine().getStatusCode() != 200) {
+				// An older server without a chunk store: just send everything.
+				return List.of();
+			}
+			return List.of(MAPPER.readValue(responseBody, String[].class));
+		}
+	}
+
+	private boolean referenceChunk(String uploadId, int chunkIndex, String hash) {
+		HttpPost post = new HttpPost(serverUrl + "/" + uploadId + "/chunks/" + chunkIndex + "/ref?hash=" + hash);
+		try (CloseableHttpResponse response = httpClient.execute(post)) {
+			EntityUtils.consume(response.getEntity());
+			return response.getStatusLine().getStatusCode() == 200;
+		} catch (IOException e) {
+			log.warn("Error referencing chunk {}: {}", chunkIndex, e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * What the server agreed to for an upload, and which chunks it still needs.
+	 * {@code checksums} are the algorithms the server supports for the file.
+	 */
+	private record UploadState(BitSet missing, ChunkCodec codec, int chunkSize, ChecksumAlgorithm chunkChecksum,
+			Set<ChecksumAlgorithm> checksums) {
+	}
+
+	/**
+	 * Chunks the server is missing for this upload, or null if it has no such upload.
+	 */
+	private UploadState fetchMissing(String uploadId, long fileSize) throws IOException {
+		HttpGet get = new HttpGet(serverUrl + "/" + uploadId + "/status");
+		try (CloseableHttpResponse response = httpClient.execute(get)) {
+			String responseBody = EntityUtils.toString(response.getEntity());
+			if (response.getStatusLine().getStatusCode() == 404) {
+				return null;
+			}
+			if (response.getStatusLine().getStatusCode() != 200) {
+				throw new IOException("Failed to fetch upload status: " + responseBody);
+			}
+			JsonNode status = MAPPER.readTree(responseBody);
+			chunkSizer.serverRange(headerValue(response, ChunkSizer.MIN_HEADER),
+					headerValue(response, ChunkSizer.MAX_HEADER));
+			int chunkSize = status.path("chunkSize").asInt();
+			int totalChunks = (int) ((fileSize + chunkSize - 1) / chunkSize);
+			BitSet missing = new BitSet(totalChunks);
+			for (JsonNode range : status.path("missingRanges")) {
+				missing.set(range.get(0).asInt(), range.get(1).asInt() + 1);
+			}
+			// Uploads started without /init only know the chunks that arrived.
+			missing.set(Math.min(status.path("totalChunks").asInt(), totalChunks), totalChunks);
+			log.info("Resuming {}: {}/{} chunks to send", uploadId, missing.cardinality(), totalChunks);
+			return new UploadState(missing, negotiateCodec(response), chunkSize, grantedChunkChecksum(response),
+					ChecksumAlgorithm.parseAdvertised(headerValue(response, ChecksumAlgorithm.ADVERTISED_HEADER)));
+		}
+	}
+
+	/**
+	 * The chunk checksum the server uses for an upload; servers that do not
+	 * say use SHA-256.
+	 */
+	private static ChecksumAlgorithm grantedChunkChecksum(HttpResponse response) throws IOException {
+		String token = headerValue(response, ChecksumAlgorithm.CHUNK_HEADER);
+		if (token == null) {
+			return ChecksumAlgorithm.SHA_256;
+		}
+		ChecksumAlgorithm algorithm = ChecksumAlgorithm.forToken(token);
+		if (algorithm == null) {
+			throw new IOException("Server uses an unknown chunk checksum: " + token);
+		}
+		return algorithm;
+	}
+
+	private static String headerValue(HttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		return header != null ? header.getValue() : null;
+	}
+
+	private void uploadWithRetry(String uploadId, FileChunkSource source, int chunkIndex, ChunkCodec codec,
+			ProgressTracker tracker) throws Exception {
+		// Chunks that do not compress (media, archives) go out as they are.
+		ChunkCodec chunkCodec = codec != ChunkCodec.IDENTITY && source.compressible(chunkIndex) ? codec
+				: ChunkCodec.IDENTITY;
+		source.recordDigest(chunkIndex, sendWithRetry(uploadId, chunkIndex, source.length(chunkIndex),
+				() -> source.chunk(chunkIndex, chunkCodec), tracker));
+	}
+
+	/**
+	 * Sends one chunk, with a fresh body from {@code chunks} for every attempt,
+	 * until the server takes it or the retry policy gives up. Returns the
+	 * digest of what the server took.
+	 */
+	private byte[] sendWithRetry(String uploadId, int chunkIndex, long length, Callable<ChunkBody> chunks,
+			ProgressTracker tracker) throws Exception {
+		for (int attempt = 1; attempt <= retryPolicy.maxAttempts(); attempt++) {
+			ChunkBody chunk = chunks.call();
+			ServerBusyException busy = null;
+			try {
+				long started = System.nanoTime();
+				boolean sent = false;
+				try {
+					sent = uploadChunk(uploadId, chunkIndex, chunk);
+				} finally {
+					long elapsed = System.nanoTime() - started;
+					if (sent) {
+						metrics.chunkDone(elapsed, length, chunk.wireBytes());
+						chunkSizer.recordSuccess(chunk.wireBytes(), elapsed);
+					} else {
+						metrics.chunkFailed(elapsed);
+					}
+				}
+				if (sent) {
+					compressionStats.record(length, chunk.wireBytes());
+					tracker.chunkDone(length);
+					return chunk.digest();
+				}
+				chunkSizer.recordFailure();
+			} catch (ServerBusyException e) {
+				log.debug("Chunk {} - {}", chunkIndex, e.getMessage());
+				busy = e;
+			}
+			if (attempt < retryPolicy.maxAttempts()) {
+				metrics.retried();
+				long delay = retryPolicy.delayMillis(attempt, busy);
+				log.debug("Retrying chunk {} in {} ms (attempt {})", chunkIndex, delay, attempt);
+				Thread.sleep(delay);
+			}
+		}
+		throw new IOException("Failed to upload chunk " + chunkIndex);
+	}
+
+	/**
+	 * Declares the upload so the server can preallocate the target and write
+	 * each chunk straight to its offset. Returns the chunk coding, chunk size and
+	 * chunk checksum the server granted. Waits and tries again while the server has too
+	 * many uploads in progress.
+	 */
+	private UploadState initUpload(String uploadId, String fileName, long fileSize, String bucketName,
+			int requestedChunkSize) throws Exception {
+		for (int attempt = 1;; attempt++) {
+			HttpPost post = new HttpPost(serverUrl + "/init");
 
 			MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-			builder.addPart("file", new FileBody(chunkFile));
-			builder.addPart("uploadId", new StringBody(uploadId, ContentType.TEXT_PLAIN));
-			builder.addPart("chunkIndex", new StringBody(String.valueOf(chunkIndex), ContentType.TEXT_PLAIN));
-			builder.addPart("chunkChecksum", new StringBody(chunkChecksum, ContentType.TEXT_PLAIN));
+			builder.addTextBody("uploadId", uploadId);
+			builder.addTextBody("fileName", fileName);
+			builder.addTextBody("fileSize", String.valueOf(fileSize));
+			builder.addTextBody("chunkSize", String.valueOf(requestedChunkSize));
+			builder.addTextBody("bucketName", bucketName);
+			builder.addTextBody("checksumAlgorithm",
+					(deduplication ? ChecksumAlgorithm.SHA_256 : chunkChecksum).token());
+			post.setEntity(builder.build());
+
+			try (CloseableHttpResponse response = httpClient.execute(post)) {
+				String responseBody = EntityUtils.toString(response.getEntity());
+				throwIfBusy(response);
+				if (response.getStatusLine().getStatusCode() != 200) {
+					throw new IOException("Failed to start upload: " + responseBody);
+				}
+				chunkSizer.serverRange(headerValue(response, ChunkSizer.MIN_HEADER),
+						headerValue(response, ChunkSizer.MAX_HEADER));
+				// Servers that do not negotiate take the size as asked.
+				Header granted = response.getFirstHeader("X-Chunk-Size");
+				int chunkSize = granted != null ? Integer.parseInt(granted.getValue()) : requestedChunkSize;
+				int totalChunks = (int) ((fileSize + chunkSize - 1) / chunkSize);
+				BitSet missing = new BitSet(totalChunks);
+				missing.set(0, totalChunks);
+				ChecksumAlgorithm checksum = grantedChunkChecksum(response);
+				log.info("Chunk size: {} bytes, checksum: {}", chunkSize, checksum.token());
+				return new UploadState(missing, negotiateCodec(response), chunkSize, checksum,
+						ChecksumAlgorithm.parseAdvertised(headerValue(response, ChecksumAlgorithm.ADVERTISED_HEADER)));
+			} catch (ServerBusyException e) {
+				if (attempt >= retryPolicy.maxAttempts()) {
+					throw new IOException("Failed to start upload: " + e.getMessage(), e);
+				}
+				long delay = retryPolicy.delayMillis(attempt, e);
+				log.info("{}, retrying /init in {} ms", e.getMessage(), delay);
+				Thread.sleep(delay);
+			}
+		}
+	}
+
+	/**
+	 * Our preferred coding if the server lists it in {@code Accept-Encoding},
+	 * otherwise the first compressing coding the server lists. Servers that
+	 * list nothing only get identity.
+	 */
+	private ChunkCodec negotiateCodec(HttpResponse response) {
+		Header accepted = response.getFirstHeader("Accept-Encoding");
+		if (accepted == null || compression == ChunkCodec.IDENTITY) {
+			return ChunkCodec.IDENTITY;
+		}
+		for (String token : accepted.getValue().split(",")) {
+			if (ChunkCodec.forToken(token.split(";")[0]) == compression) {
+				return compression;
+			}
+		}
+		return ChunkCodec.negotiate(accepted.getValue());
+	}
+
+	/**
+	 * Sends one chunk; false if it should be retried.
+	 *
+	 * @throws ServerBusyException if the server asked us to back off
+	 */
+	private boolean uploadChunk(String uploadId, int chunkIndex, ChunkBody chunk) throws ServerBusyException {
+		if (rawChunks) {
+			return putChunk(uploadId, chunkIndex, chunk);
+		}
+		HttpPost upload = new HttpPost(serverUrl + "/chunk");
 
-			upload.setEntity(builder.build());
-			HttpResponse response = httpClient.execute(upload);
+		// The checksum part goes last: it is filled in from the bytes just streamed.
+		MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+		builder.addPart("file", chunk);
+		builder.addPart("uploadId", new StringBody(uploadId, ContentType.TEXT_PLAIN));
+		builder.addPart("chunkIndex", new StringBody(String.valueOf(chunkIndex), ContentType.TEXT_PLAIN));
+		if (chunk.codec() != ChunkCodec.IDENTITY) {
+			builder.addPart("chunkEncoding", new StringBody(chunk.codec().token(), ContentType.TEXT_PLAIN));
+		}
+		builder.addPart("chunkChecksum", chunk.checksumBody());
+		upload.setEntity(builder.build());
+
+		try (CloseableHttpResponse response = httpClient.execute(upload)) {
 			int status = response.getStatusLine().getStatusCode();
 			String responseBody = EntityUtils.toString(response.getEntity());
+			throwIfBusy(response);
 
-			System.out.println("Chunk " + chunkIndex + " - " + status + ": " + responseBody);
-			return status == 200;
+			if (status != 200) {
+				log.warn("Chunk {} - {}: {}", chunkIndex, status, responseBody);
+				return false;
+			}
+			return true;
+		} catch (ServerBusyException e) {
+			throw e;
+		} catch (Exception e) {
+			log.warn("Error uploading chunk {}: {}", chunkIndex, e.getMessage());
+			return false;
+		}
+	}
+
+	private boolean putChunk(String uploadId, int chunkIndex, ChunkBody chunk) throws ServerBusyException {
+		HttpPut upload = new HttpPut(serverUrl + "/" + uploadId + "/chunks/" + chunkIndex);
+		upload.setEntity(chunk.asEntity());
+
+		try (CloseableHttpResponse response = httpClient.execute(upload)) {
+			int status = response.getStatusLine().getStatusCode();
+			String responseBody = EntityUtils.toString(response.getEntity());
+			throwIfBusy(response);
+
+			if (status != 200) {
+				log.warn("Chunk {} - {}: {}", chunkIndex, status, responseBody);
+				return false;
+			}
+			Header checksum = response.getFirstHeader("X-Chunk-Checksum");
+			if (checksum == null || !HexFormat.of().formatHex(chunk.digest()).equalsIgnoreCase(checksum.getValue())) {
+				log.warn("Chunk {} was stored with a different checksum", chunkIndex);
+				return false;
+			}
+			return true;
+		} catch (ServerBusyException e) {
+			throw e;
 		} catch (Exception e) {
-			System.err.println("Error uploading chunk " + chunkIndex + ": " + e.getMessage());
+			log.warn("Error uploading chunk {}: {}", chunkIndex, e.getMessage());
 			return false;
 		}
 	}
 
-	private void completeUpload(String uploadId, String fileName, int totalChunks, String checksum, String bucket) {
-		try (CloseableHttpClient client = HttpClients.createDefault()) {
+	/**
+	 * Asks the server to finalize the upload and waits for the finalization job
+	 * by polling it, so no connection is held open while the server verifies and
+	 * stores the file.
+	 */
+	private void completeUpload(String uploadId, String fileName, int totalChunks, String checksum,
+			ChecksumAlgorithm checksumAlgorithm, String manifestChecksum, String bucket) throws Exception {
+		for (int attempt = 1;; attempt++) {
 			HttpPost post = new HttpPost(serverUrl + "/complete");
 
 			MultipartEntityBuilder builder = MultipartEntityBuilder.create();
@@ -99,32 +853,95 @@ public class ChunkedFileUploader {
 			builder.addTextBody("fileName", fileName);
 			builder.addTextBody("totalChunks", String.valueOf(totalChunks));
 			builder.addTextBody("expectedChecksum", checksum);
+			builder.addTextBody("checksumAlgorithm", checksumAlgorithm.token());
+			if (manifestChecksum != null) {
+				builder.addTextBody("manifestChecksum", manifestChecksum);
+			}
 			builder.addTextBody("bucketName", bucket);
-
 			post.setEntity(builder.build());
-			CloseableHttpResponse response = client.execute(post);
-			String responseBody = EntityUtils.toString(response.getEntity());
-			System.out
-					.println("Upload completed: " + response.getStatusLine().getStatusCode() + " - " + responseBody);
-		} catch (Exception e) {
-			System.err.println("Failed to complete upload: " + e.getMessage());
+
+			try (CloseableHttpResponse response = httpClient.execute(post)) {
+				int status = response.getStatusLine().getStatusCode();
+				String responseBody = EntityUtils.toString(response.getEntity());
+				throwIfBusy(response);
+				if (status == 200) {
+					// Servers that still finalize synchronously.
+					log.info("Upload completed: {} - {}", status, responseBody);
+					return;
+				}
+				if (status == 202) {
+					awaitJob(MAPPER.readTree(responseBody).path("jobId").asText());
+					return;
+				}
+				throw new IOException("Failed to complete upload: " + status + " - " + responseBody);
+			} catch (ServerBusyException e) {
+				if (attempt >= retryPolicy.maxAttempts()) {
+					throw new IOException("Failed to complete upload: " + e.getMessage(), e);
+				}
+				long delay = retryPolicy.delayMillis(attempt, e);
+				log.info("Server busy finalizing, retrying /complete in {} ms", delay);
+				Thread.sleep(delay);
+			}
+		}
+	}
+
+	private static void throwIfBusy(HttpResponse response) throws ServerBusyException {
+		int status = response.getStatusLine().getStatusCode();
+		if (ServerBusyException.isBusy(status)) {
+			Header retryAfter = response.getFirstHeader("Retry-After");
+			throw new ServerBusyException(status, retryAfter != null ? retryAfter.getValue() : null);
 		}
 	}
 
-	private String calculateChecksum(File file) throws Exception {
-		MessageDigest digest = MessageDigest.getInstance("SHA-256");
-		try (InputStream fis = new FileInputStream(file)) {
-			byte[] buffer = new byte[4096];
-			int bytesRead;
-			while ((bytesRead = fis.read(buffer)) != -1) {
-				digest.update(buffer, 0, bytesRead);
+	private void awaitJob(String jobId) throws Exception {
+		long delay = JOB_POLL_MIN_MILLIS;
+		String lastStage = null;
+		while (true) {
+			JsonNode job;
+			try (CloseableHttpResponse response = httpClient.execute(new HttpGet(serverUrl + "/jobs/" + jobId))) {
+				String responseBody = EntityUtils.toString(response.getEntity());
+				if (response.getStatusLine().getStatusCode() != 200) {
+					throw new IOException("Failed to fetch finalization job " + jobId + ": " + responseBody);
+				}
+				job = MAPPER.readTree(responseBody);
+			}
+			String stage = job.path("stage").asText();
+			if (!stage.equals(lastStage)) {
+				log.debug("Finalizing: {}", stage);
+				lastStage = stage;
+			}
+			switch (stage) {
+			case "COMPLETED" -> {
+				log.info("Upload completed: {}", job.path("location").asText());
+				return;
+			}
+			case "FAILED" -> throw new IOException("Failed to complete upload: " + job.path("message").asText());
+			default -> {
+				Thread.sleep(delay);
+				delay = Math.min(delay * 2, JOB_POLL_MAX_MILLIS);
+			}
 			}
 		}
+	}
+
+	private class ProgressTracker {
+
+		private final int totalChunks;
+		private final long totalBytes;
+		private final long startNanos = System.nanoTime();
+		private final AtomicInteger chunksDone = new AtomicInteger();
+		private final AtomicLong bytesSent = new AtomicLong();
+
+		ProgressTracker(int totalChunks, long totalBytes) {
+			this.totalChunks = totalChunks;
+			this.totalBytes = totalBytes;
+		}
 
-		StringBuilder hexString = new StringBuilder();
-		for (byte b : digest.digest()) {
-			hexString.append(String.format("%02x", b));
+		void chunkDone(long bytes) {
+			int done = chunksDone.incrementAndGet();
+			long sent = bytesSent.addAndGet(bytes);
+			double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+			progressListener.onProgress(new UploadProgress(done, totalChunks, sent, totalBytes, sent / seconds));
 		}
-		return hexString.toString();
 	}
 }
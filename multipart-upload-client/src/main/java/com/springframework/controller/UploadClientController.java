@@ -1,15 +1,24 @@
 package com.springframework.controller;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.FileSystemUtils;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
+import jakarta.servlet.http.HttpServletRequest;
+
 @RestController
 @RequestMapping("/client-uploader")
 public class UploadClientController {
@@ -20,7 +29,8 @@ public class UploadClientController {
     public ResponseEntity<String> uploadMultipartFileToDMS(
             @RequestParam("file") MultipartFile multipartFile,
             @RequestParam("bucketName") String bucketName,
-            @RequestParam(value = "dmsUrl", required = false) String dmsUrl
+            @RequestParam(value = "dmsUrl", required = false) String dmsUrl,
+            @RequestParam(value = "parallelism", defaultValue = "4") int parallelism
     ) {
         try {
             if (dmsUrl == null || dmsUrl.isEmpty()) {
@@ -32,7 +42,7 @@ public class UploadClientController {
             multipartFile.transferTo(tempFile);
 
             // Trigger upload using your uploader
-            ChunkedFileUploader uploader = new ChunkedFileUploader(dmsUrl);
+            ChunkedFileUploader uploader = new ChunkedFileUploader(dmsUrl).withParallelism(parallelism);
             uploader.upload(tempFile, bucketName);
 
             // Clean up	
@@ -44,5 +54,91 @@ public class UploadClientController {
                     .body("Failed to upload: " + e.getMessage());
         }
     }
+
+    /**
+     * Relays a file sent as the raw request body without receiving it first:
+     * chunks are cut from the request as they arrive and forwarded to the DMS
+     * while the next ones are read, with a few chunks buffered in memory at most.
+     * The size comes from {@code fileSize} or else {@code Content-Length}.
+     */
+    @PostMapping(value = "/upload-stream", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<String> relayStreamToDMS(
+            @RequestParam("fileName") String fileName,
+            @RequestParam("bucketName") String bucketName,
+            @RequestParam(value = "fileSize", required = false) Long fileSize,
+            @RequestParam(value = "dmsUrl", required = false) String dmsUrl,
+            @RequestParam(value = "parallelism", defaultValue = "4") int parallelism,
+            HttpServletRequest request
+    ) {
+        if (fileSize == null) {
+            fileSize = request.getContentLengthLong();
+        }
+        if (fileSize < 0) {
+            return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED)
+                    .body("Send Content-Length or fileSize to relay a stream.");
+        }
+        try (InputStream in = request.getInputStream()) {
+            if (dmsUrl == null || dmsUrl.isEmpty()) {
+                dmsUrl = defaultDmsUrl;
+            }
+
+            ChunkedFileUploader uploader = new ChunkedFileUploader(dmsUrl).withParallelism(parallelism);
+            String uploadId = uploader.upload(in, fileName, fileSize, bucketName);
+
+            return ResponseEntity.ok("File relayed to DMS as " + uploadId + ".");
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Uploads many files in one go: small ones are packed into batch requests,
+     * large ones go through the chunked upload. Answers with a line per file.
+     */
+    @PostMapping("/upload-batch")
+    public ResponseEntity<String> uploadFilesToDMS(
+            @RequestParam("files") List<MultipartFile> multipartFiles,
+            @RequestParam("bucketName") String bucketName,
+            @RequestParam(value = "dmsUrl", required = false) String dmsUrl,
+            @RequestParam(value = "parallelism", defaultValue = "4") int parallelism
+    ) {
+        Path tempDir = null;
+        try {
+            if (dmsUrl == null || dmsUrl.isEmpty()) {
+                dmsUrl = defaultDmsUrl;
+            }
+
+            // Files are sent under their own names, so keep them
+            tempDir = Files.createTempDirectory("upload-batch-");
+            List<File> files = new ArrayList<>();
+            for (MultipartFile multipartFile : multipartFiles) {
+                File file = tempDir.resolve(Path.of(multipartFile.getOriginalFilename()).getFileName()).toFile();
+                multipartFile.transferTo(file);
+                files.add(file);
+            }
+
+            BatchUploader uploader = new BatchUploader(dmsUrl)
+                    .withChunkedUploader(new ChunkedFileUploader(dmsUrl).withParallelism(parallelism));
+            List<BatchUploader.Result> results = uploader.upload(files, bucketName);
+
+            StringBuilder report = new StringBuilder();
+            boolean allStored = true;
+            for (BatchUploader.Result result : results) {
+                allStored &= result.stored();
+                report.append(result.file().getName()).append(": ")
+                        .append(result.stored() ? "uploaded" : "failed - " + result.error()).append('\n');
+            }
+            return ResponseEntity.status(allStored ? HttpStatus.OK : HttpStatus.MULTI_STATUS)
+                    .body(report.toString());
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Failed to upload: " + e.getMessage());
+        } finally {
+            if (tempDir != null) {
+                FileSystemUtils.deleteRecursively(tempDir.toFile());
+            }
+        }
+    }
 }
 
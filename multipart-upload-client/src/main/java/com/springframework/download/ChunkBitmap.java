@@ -0,0 +1,138 @@
+package com.springframework.download;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+import com.springframework.protocol.ChecksumAlgorithm;
+
+/**
+ * Sidecar record of which chunks of a download are already on disk. It holds
+ * one bit per chunk plus the file size and expected checksum, and is rewritten
+ * atomically after every chunk so a crash never leaves it half written.
+ * Version 1 sidecars predate checksum negotiation and always mean SHA-256.
+ */
+public class ChunkBitmap {
+
+	private static final int VERSION = 2;
+
+	private final File file;
+	private final long fileSize;
+	private final int chunkSize;
+	private final int totalChunks;
+	private final BitSet done;
+	private String expectedChecksum;
+	private ChecksumAlgorithm checksumAlgorithm;
+
+	private ChunkBitmap(File file, long fileSize, int chunkSize, BitSet done, String expectedChecksum,
+			ChecksumAlgorithm checksumAlgorithm) {
+		this.file = file;
+		this.fileSize = fileSize;
+		this.chunkSize = chunkSize;
+		this.totalChunks = (int) ((fileSize + chunkSize - 1) / chunkSize);
+		this.done = done;
+		this.expectedChecksum = expectedChecksum;
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	public static ChunkBitmap create(File file, long fileSize, int chunkSize) throws IOException {
+		ChunkBitmap bitmap = new ChunkBitmap(file, fileSize, chunkSize, new BitSet(), null, ChecksumAlgorithm.SHA_256);
+		bitmap.save();
+		return bitmap;
+	}
+
+	/**
+	 * Loads an existing sidecar, or returns null when there is none or it cannot be read.
+	 */
+	public static ChunkBitmap load(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			int version = in.readInt();
+			if (version != 1 && version != VERSION) {
+				return null;
+			}
+			long fileSize = in.readLong();
+			int chunkSize = in.readInt();
+			String checksum = in.readUTF();
+			ChecksumAlgorithm algorithm = version == 1 ? ChecksumAlgorithm.SHA_256
+					: ChecksumAlgorithm.forToken(in.readUTF());
+			if (algorithm == null) {
+				return null;
+			}
+			byte[] bits = new byte[in.readInt()];
+			in.readFully(bits);
+			return new ChunkBitmap(file, fileSize, chunkSize, BitSet.valueOf(bits),
+					checksum.isEmpty() ? null : checksum, algorithm);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public long fileSize() {
+		return fileSize;
+	}
+
+	public int chunkSize() {
+		return chunkSize;
+	}
+
+	public int totalChunks() {
+		return totalChunks;
+	}
+
+	public synchronized boolean isDone(int chunkIndex) {
+		return done.get(chunkIndex);
+	}
+
+	public synchronized int doneCount() {
+		return done.cardinality();
+	}
+
+	public synchronized String expectedChecksum() {
+		return expectedChecksum;
+	}
+
+	public synchronized ChecksumAlgorithm checksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	public synchronized void expectedChecksum(String checksum, ChecksumAlgorithm algorithm) throws IOException {
+		if (checksum != null && (!checksum.equals(expectedChecksum) || algorithm != checksumAlgorithm)) {
+			expectedChecksum = checksum;
+			checksumAlgorithm = algorithm;
+			save();
+		}
+	}
+
+	public synchronized void markDone(int chunkIndex) throws IOException {
+		done.set(chunkIndex);
+		save();
+	}
+
+	public void delete() {
+		file.delete();
+	}
+
+	private void save() throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+			out.writeInt(VERSION);
+			out.writeLong(fileSize);
+			out.writeInt(chunkSize);
+			out.writeUTF(expectedChecksum == null ? "" : expectedChecksum);
+			out.writeUTF(checksumAlgorithm.token());
+			byte[] bits = done.toByteArray();
+			out.writeInt(bits.length);
+			out.write(bits);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
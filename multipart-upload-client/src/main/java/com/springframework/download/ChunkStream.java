@@ -0,0 +1,193 @@
+package com.springframework.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.springframework.download.ParallelChunkDownloader.Chunk;
+
+/**
+ * A file read straight off the wire, from {@link ParallelChunkDownloader#open}.
+ * Chunks are fetched ahead by a small pool and queued in file order; the queue
+ * holds at most {@code ahead} chunks, fetched or still in flight, so chunks
+ * that arrive early wait in memory for the ones before them and fetching stops
+ * while the reader falls behind. Each chunk is released as soon as it has been
+ * read.
+ * <p>
+ * Bytes are hashed in order as they are handed out. At the end of the file the
+ * digest is compared with the checksum the server sent, and a mismatch, or no
+ * checksum at all, fails the read instead of ending the stream.
+ */
+public class ChunkStream extends InputStream {
+
+	private static final Logger log = LoggerFactory.getLogger(ChunkStream.class);
+
+	private final ParallelChunkDownloader downloader;
+	private final String bucket;
+	private final String key;
+	private final long fileSize;
+	private final int chunkSize;
+	private final int totalChunks;
+	private final int ahead;
+	private final ExecutorService executor;
+	private final ArrayDeque<Future<Chunk>> queue = new ArrayDeque<>();
+	private final MessageDigest digest;
+	private int nextToFetch;
+	private byte[] current;
+	private int position;
+	private String expectedChecksum;
+	private IOException failure;
+	private boolean verified;
+	private boolean closed;
+
+	ChunkStream(ParallelChunkDownloader downloader, String bucket, String key, Chunk first, int parallelism,
+			int ahead) {
+		this.downloader = downloader;
+		this.bucket = bucket;
+		this.key = key;
+		this.fileSize = first.fileSize();
+		this.chunkSize = first.chunkSize();
+		this.totalChunks = (int) ((fileSize + chunkSize - 1) / chunkSize);
+		this.ahead = ahead;
+		this.digest = sha256();
+		this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "chunk-stream");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.nextToFetch = 1;
+		accept(first);
+		fetchAhead();
+	}
+
+	/**
+	 * Size of the whole file, as the server reported it.
+	 */
+	public long fileSize() {
+		return fileSize;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		if (len == 0) {
+			return 0;
+		}
+		while (position == current.length) {
+			if (!advance()) {
+				return -1;
+			}
+		}
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return closed || current == null ? 0 : current.length - position;
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		queue.forEach(future -> future.cancel(true));
+		queue.clear();
+		executor.shutdownNow();
+		current = null;
+	}
+
+	/**
+	 * Moves on to the next chunk, waiting for it if it has not arrived. False at
+	 * the end of the file, once the checksum has been verified.
+	 */
+	private boolean advance() throws IOException {
+		Future<Chunk> next = queue.poll();
+		if (next == null) {
+			verify();
+			return false;
+		}
+		try {
+			accept(next.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for chunk of " + key);
+		} catch (ExecutionException e) {
+			failure = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+			close();
+			throw failure;
+		}
+		fetchAhead();
+		return true;
+	}
+
+	private void accept(Chunk chunk) {
+		current = chunk.data();
+		position = 0;
+		digest.update(current);
+		if (chunk.expectedChecksum() != null) {
+			expectedChecksum = chunk.expectedChecksum();
+		}
+	}
+
+	private void fetchAhead() {
+		while (nextToFetch < totalChunks && queue.size() < ahead) {
+			int chunkIndex = nextToFetch++;
+			queue.add(executor.submit(() -> downloader.fetchChunk(bucket, key, chunkIndex, chunkSize)));
+		}
+	}
+
+	private void verify() throws IOException {
+		if (verified) {
+			return;
+		}
+		verified = true;
+		String actualChecksum = HexFormat.of().formatHex(digest.digest());
+		log.debug("🔍 Expected Checksum: {}", expectedChecksum);
+		log.debug("🔍 Actual Checksum:   {}", actualChecksum);
+		if (expectedChecksum == null) {
+			failure = new IOException("❌ No checksum to verify " + key + " against");
+			throw failure;
+		}
+		if (!actualChecksum.equalsIgnoreCase(expectedChecksum)) {
+			failure = new IOException("❌ Checksum mismatch for " + key);
+			throw failure;
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
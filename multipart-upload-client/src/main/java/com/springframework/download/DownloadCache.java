@@ -0,0 +1,255 @@
+package com.springframework.download;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.springframework.download.ParallelChunkDownloader.Chunk;
+import com.springframework.download.ParallelChunkDownloader.Manifest;
+import com.springframework.protocol.ChecksumAlgorithm;
+
+/**
+ * Downloaded files kept in a directory across runs, each with the server's
+ * validators in a sidecar. Fetching a cached file costs one conditional
+ * request for its manifest: a 304 means the copy is current. Otherwise the
+ * manifest's chunk checksums are compared with the ones the copy was stored
+ * with, unchanged chunks are copied over from the copy and only the chunks
+ * that differ are downloaded, in parallel.
+ * <p>
+ * The returned files belong to the cache and must not be modified. A copy
+ * the server answers 304 for is returned as it is, without being read, so a
+ * local change to it goes unnoticed until the file changes on the server.
+ * Then chunks reused from a changed copy fail the whole-file check, and the
+ * file is fetched again in full.
+ */
+public class DownloadCache {
+
+	private static final Logger log = LoggerFactory.getLogger(DownloadCache.class);
+	private static final int VERSION = 1;
+
+	private final File directory;
+	private final ParallelChunkDownloader downloader;
+
+	public DownloadCache(File directory, ParallelChunkDownloader downloader) {
+		this.directory = directory;
+		this.downloader = downloader;
+	}
+
+	/**
+	 * The current version of the file, from the cache if it is still valid.
+	 */
+	public synchronized File fetch(String bucket, String key) throws Exception {
+		Files.createDirectories(directory.toPath());
+		String name = entryName(bucket, key);
+		File data = new File(directory, name);
+		File sidecar = new File(directory, name + ".meta");
+
+		Entry cached = data.isFile() ? Entry.load(sidecar) : null;
+		if (cached != null && data.length() != cached.fileSize()) {
+			cached = null;
+		}
+		Manifest manifest = cached != null
+				? downloader.fetchManifest(bucket, key, cached.chunkSize(), cached.etag(), cached.lastModified())
+				: downloader.fetchManifest(bucket, key, -1, null, 0);
+		if (manifest == null) {
+			log.info("♻️ Cached copy of {} is current.", key);
+			return data;
+		}
+
+		File partFile = new File(directory, name + ".part");
+		boolean reuse = cached != null;
+		while (true) {
+			try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+				try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+					raf.setLength(manifest.fileSize());
+				}
+				List<Integer> changed = reuse ? reuseUnchanged(data, cached, channel, manifest)
+						: allChunks(manifest);
+				fetchChanged(bucket, key, channel, manifest, changed);
+				channel.force(false);
+
+				String actualChecksum = ParallelChunkDownloader.checksum(channel, manifest.fileSize(),
+						ChecksumAlgorithm.SHA_256);
+				if (actualChecksum.equalsIgnoreCase(manifest.checksum())) {
+					break;
+				}
+				if (changed.size() == manifest.chunkChecksums().size()) {
+					throw new IOException("❌ Checksum mismatch for " + key);
+				}
+			}
+			// The cached copy no longer holds what its sidecar says.
+			log.warn("Chunks reused from the cached copy of {} did not match, fetching it in full", key);
+			reuse = false;
+		}
+
+		// A crash between the two moves leaves a copy without a sidecar, which is fetched again.
+		sidecar.delete();
+		Files.move(partFile.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		new Entry(manifest.etag(), manifest.lastModified(), manifest.fileSize(), manifest.chunkSize(),
+				manifest.chunkChecksums()).save(sidecar);
+		return data;
+	}
+
+	/**
+	 * Copies the chunks whose checksums did not change from the cached copy
+	 * and returns the indexes of the rest.
+	 */
+	private static List<Integer> reuseUnchanged(File data, Entry cached, FileChannel channel, Manifest manifest)
+			throws IOException {
+		if (cached.chunkSize() != manifest.chunkSize()) {
+			return allChunks(manifest);
+		}
+		List<Integer> changed = new ArrayList<>();
+		try (FileChannel old = FileChannel.open(data.toPath(), StandardOpenOption.READ)) {
+			for (int i = 0; i < manifest.chunkChecksums().size(); i++) {
+				if (i >= cached.chunkChecksums().size()
+						|| !cached.chunkChecksums().get(i).equalsIgnoreCase(manifest.chunkChecksums().get(i))) {
+					changed.add(i);
+					continue;
+				}
+				// Equal digests mean equal lengths too, so the chunk sits at the same offset in both.
+				long offset = (long) i * manifest.chunkSize();
+				long length = Math.min(manifest.chunkSize(), manifest.fileSize() - offset);
+				for (long copied = 0; copied < length;) {
+					copied += old.transferTo(offset + copied, length - copied, channel.position(offset + copied));
+				}
+			}
+		}
+		log.info("♻️ Reused {}/{} chunks of the cached copy.", manifest.chunkChecksums().size() - changed.size(),
+				manifest.chunkChecksums().size());
+		return changed;
+	}
+
+	private static List<Integer> allChunks(Manifest manifest) {
+		List<Integer> all = new ArrayList<>();
+		for (int i = 0; i < manifest.chunkChecksums().size(); i++) {
+			all.add(i);
+		}
+		return all;
+	}
+
+	private void fetchChanged(String bucket, String key, FileChannel channel, Manifest manifest,
+			List<Integer> chunkIndexes) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(downloader.parallelism(), runnable -> {
+			Thread thread = new Thread(runnable, "chunk-download");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int chunkIndex : chunkIndexes) {
+				futures.add(executor.submit(() -> {
+					fetchChunk(bucket, key, channel, manifest, chunkIndex);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					futures.forEach(f -> f.cancel(true));
+					throw e.getCause() instanceof Exception cause ? cause : e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Downloads one chunk and checks it against its manifest checksum, which
+	 * catches a file that changed on the server since the manifest was read.
+	 */
+	private void fetchChunk(String bucket, String key, FileChannel channel, Manifest manifest, int chunkIndex)
+			throws Exception {
+		Chunk chunk = downloader.fetchChunk(bucket, key, chunkIndex, manifest.chunkSize());
+		if (chunk.chunkSize() != manifest.chunkSize() || chunk.fileSize() != manifest.fileSize()) {
+			throw new IOException("❌ " + key + " changed while it was being downloaded");
+		}
+		String checksum = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(chunk.data()));
+		if (!checksum.equalsIgnoreCase(manifest.chunkChecksums().get(chunkIndex))) {
+			throw new IOException("❌ Checksum mismatch for chunk " + chunkIndex + " of " + key);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(chunk.data());
+		long offset = (long) chunkIndex * manifest.chunkSize();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, offset + buffer.position());
+		}
+	}
+
+	private static String entryName(String bucket, String key) throws Exception {
+		byte[] digest = MessageDigest.getInstance("SHA-256")
+				.digest((bucket + "/" + key).getBytes(StandardCharsets.UTF_8));
+		return HexFormat.of().formatHex(digest, 0, 16);
+	}
+
+	/**
+	 * What the server said about a cached copy when it was stored.
+	 */
+	private record Entry(String etag, long lastModified, long fileSize, int chunkSize, List<String> chunkChecksums) {
+
+		/**
+		 * Loads a sidecar, or returns null when there is none or it cannot be read.
+		 */
+		static Entry load(File file) {
+			if (!file.isFile()) {
+				return null;
+			}
+			try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+				if (in.readInt() != VERSION) {
+					return null;
+				}
+				String etag = in.readUTF();
+				long lastModified = in.readLong();
+				long fileSize = in.readLong();
+				int chunkSize = in.readInt();
+				List<String> chunkChecksums = new ArrayList<>();
+				for (int i = in.readInt(); i > 0; i--) {
+					chunkChecksums.add(in.readUTF());
+				}
+				return new Entry(etag.isEmpty() ? null : etag, lastModified, fileSize, chunkSize, chunkChecksums);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		void save(File file) throws IOException {
+			File tmp = new File(file.getPath() + ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+				out.writeInt(VERSION);
+				out.writeUTF(etag == null ? "" : etag);
+				out.writeLong(lastModified);
+				out.writeLong(fileSize);
+				out.writeInt(chunkSize);
+				out.writeInt(chunkChecksums.size());
+				for (String checksum : chunkChecksums) {
+					out.writeUTF(checksum);
+				}
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+}
@@ -0,0 +1,534 @@
+package com.springframework.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChunkCodec;
+import com.springframework.protocol.TreeHash;
+import com.springframework.upload.ChunkSizer;
+import com.springframework.upload.CompressionStats;
+import com.springframework.upload.RetryPolicy;
+import com.springframework.upload.ServerBusyException;
+import com.springframework.upload.TransferMetrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+/**
+ * Downloads a file from {@code /files/chunkWithMeta} with several chunks in
+ * flight. The target is preallocated once the size is known and every chunk is
+ * written at its own offset, so there are no temp chunk files and no merge.
+ * Progress lives in a {@link ChunkBitmap} sidecar next to the target.
+ * <p>
+ * {@link #open} streams a file instead, for callers that consume it as it
+ * arrives rather than wanting it on disk.
+ */
+public class ParallelChunkDownloader {
+
+	private static final Logger log = LoggerFactory.getLogger(ParallelChunkDownloader.class);
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long DEFAULT_STREAM_BUFFER = 64L * 1024 * 1024;
+
+	private final String serverUrl;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private int parallelism = 4;
+	private RetryPolicy retryPolicy = RetryPolicy.defaults();
+	private boolean compression = true;
+	private final CompressionStats compressionStats = new CompressionStats();
+	private final ChunkSizer chunkSizer;
+	private int chunkSize = -1;
+	private long streamBuffer = DEFAULT_STREAM_BUFFER;
+	private TransferMetrics metrics = new TransferMetrics(Metrics.globalRegistry, "download");
+
+	/**
+	 * @param serverUrl base URL of the file endpoints, e.g. {@code http://localhost:8080/files}
+	 */
+	public ParallelChunkDownloader(String serverUrl) {
+		this.serverUrl = serverUrl;
+		this.chunkSizer = ChunkSizer.shared(serverUrl);
+	}
+
+	public ParallelChunkDownloader withParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public ParallelChunkDownloader withRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+
+	/**
+	 * Whether to accept compressed chunks. The server only compresses chunks that shrink.
+	 */
+	public ParallelChunkDownloader withCompression(boolean compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	/**
+	 * Asks for this chunk size instead of adapting it to measured throughput and
+	 * failures. The server may serve a different size within its limits.
+	 */
+	public ParallelChunkDownloader withChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Most bytes a stream from {@link #open} holds in memory: the chunk being
+	 * read plus the chunks fetched ahead of it. At least one chunk is always
+	 * fetched ahead, whatever the cap.
+	 */
+	public ParallelChunkDownloader withStreamBuffer(long streamBuffer) {
+		if (streamBuffer < 1) {
+			throw new IllegalArgumentException("streamBuffer must be positive");
+		}
+		this.streamBuffer = streamBuffer;
+		return this;
+	}
+
+	/**
+	 * Where to publish per-chunk latency, retry and byte meters. Defaults to
+	 * Micrometer's global registry, which Spring Boot's registries join.
+	 */
+	public ParallelChunkDownloader withMeterRegistry(MeterRegistry registry) {
+		this.metrics = new TransferMetrics(registry, "download");
+		return this;
+	}
+
+	int parallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Bytes compression saved across every download made by this downloader.
+	 */
+	public CompressionStats compressionStats() {
+		return compressionStats;
+	}
+
+	public File download(String bucket, String key, File target) throws Exception {
+		File partFile = new File(target.getPath() + ".part");
+		File sidecar = new File(target.getPath() + ".chunks");
+
+		ChunkBitmap bitmap = ChunkBitmap.load(sidecar);
+		if (bitmap != null && partFile.length() == bitmap.fileSize()) {
+			log.info("⏩ Resuming: {}/{} chunks already on disk.", bitmap.doneCount(), bitmap.totalChunks());
+		} else {
+			bitmap = null;
+		}
+
+		try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+			if (bitmap == null) {
+				bitmap = probe(bucket, key, partFile, sidecar, channel);
+			}
+			fetchMissing(bucket, key, channel, bitmap);
+			channel.force(false);
+
+			String expectedChecksum = bitmap.expectedChecksum();
+			String actualChecksum = checksum(channel, bitmap.fileSize(), bitmap.checksumAlgorithm());
+			log.debug("🔍 Expected Checksum: {}", expectedChecksum);
+			log.debug("🔍 Actual Checksum:   {}", actualChecksum);
+			// The last chunk always carries it, so without one nothing vouches for the file.
+			if (expectedChecksum == null) {
+				bitmap.delete();
+				throw new IOException("❌ No checksum to verify " + key + " against");
+			}
+			if (!actualChecksum.equalsIgnoreCase(expectedChecksum)) {
+				bitmap.delete();
+				throw new IOException("❌ Checksum mismatch for " + key);
+			}
+		}
+
+		Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		bitmap.delete();
+		if (compressionStats.savedBytes() > 0) {
+			log.info("🗜️ Compression: {}", compressionStats);
+		}
+		return target;
+	}
+
+	/**
+	 * Opens the file as a stream of its bytes in order, without writing it
+	 * anywhere. Chunk 0 is fetched before this returns; the chunks after it are
+	 * fetched ahead in parallel, as far as the {@link #withStreamBuffer stream
+	 * buffer} allows, while the caller reads. The SHA-256 of what was read is
+	 * checked when the stream reaches its end, so a corrupt download fails the
+	 * final read rather than returning -1. The stream must be closed.
+	 */
+	public ChunkStream open(String bucket, String key) throws Exception {
+		Chunk first = fetchChunk(bucket, key, 0, chunkSize > 0 ? chunkSize : chunkSizer.next());
+		log.info("🟢 Streaming file: {} | Size: {}", key, first.fileSize());
+		int ahead = (int) Math.max(1, streamBuffer / first.chunkSize() - 1);
+		return new ChunkStream(this, bucket, key, first, Math.min(parallelism, ahead), ahead);
+	}
+
+	/**
+	 * One chunk held in memory, with what its response said about the file.
+	 * {@code expectedChecksum} is the file's SHA-256 if the response carried it.
+	 */
+	record Chunk(int index, byte[] data, long fileSize, int chunkSize, String expectedChecksum) {
+	}
+
+	/**
+	 * Fetches one chunk into memory, retrying per the retry policy. For chunk 0
+	 * the chunk size is the one the server grants.
+	 */
+	Chunk fetchChunk(String bucket, String key, int chunkIndex, int chunkSize) throws Exception {
+		for (int attempt = 1;; attempt++) {
+			HttpURLConnection conn = null;
+			long started = System.nanoTime();
+			try {
+				conn = openChunk(bucket, key, chunkIndex, chunkSize, ChecksumAlgorithm.SHA_256);
+				long fileSize = Long.parseLong(conn.getHeaderField("X-File-Size"));
+				chunkSizer.serverRange(conn.getHeaderField(ChunkSizer.MIN_HEADER),
+						conn.getHeaderField(ChunkSizer.MAX_HEADER));
+				String granted = conn.getHeaderField("X-Chunk-Size");
+				int servedChunkSize = chunkIndex == 0 && granted != null ? Integer.parseInt(granted) : chunkSize;
+				long offset = (long) chunkIndex * servedChunkSize;
+				byte[] data = new byte[(int) Math.max(0, Math.min(servedChunkSize, fileSize - offset))];
+
+				ChunkCodec codec = codec(conn);
+				CountingInputStream wire = new CountingInputStream(conn.getInputStream());
+				try (InputStream is = codec.decode(wire)) {
+					int filled = 0;
+					int read;
+					while ((read = is.read(data, filled, data.length - filled)) > 0) {
+						filled += read;
+					}
+					if (filled < data.length) {
+						throw new IOException("Chunk " + chunkIndex + " was " + filled + " bytes, expected " + data.length);
+					}
+					if (is.read() != -1) {
+						throw new IOException("Chunk " + chunkIndex + " is longer than " + data.length + " bytes");
+					}
+				}
+				chunkReceived(data.length, wire.getByteCount(), started);
+				// A streamed file can only be checked against a running SHA-256.
+				String expected = fileChecksumAlgorithm(conn) == ChecksumAlgorithm.SHA_256
+						? conn.getHeaderField("X-Expected-Checksum")
+						: null;
+				return new Chunk(chunkIndex, data, fileSize, servedChunkSize, expected);
+			} catch (IOException e) {
+				retryOrFail("chunk " + chunkIndex, attempt, e, started);
+			} finally {
+				if (conn != null) {
+					conn.disconnect();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The server's validators for a file: its SHA-256, which is also its
+	 * {@code ETag}, and the SHA-256 of each chunk at {@code chunkSize}.
+	 */
+	record Manifest(String etag, long lastModified, long fileSize, int chunkSize, String checksum,
+			List<String> chunkChecksums) {
+	}
+
+	/**
+	 * Fetches the manifest from {@code /files/manifest}, conditional on the
+	 * validators of a copy already held, or returns null if the server answers
+	 * 304 because that copy is current. A {@code chunkSize} below 1 lets this
+	 * downloader pick one; the server may grant another.
+	 */
+	Manifest fetchManifest(String bucket, String key, int chunkSize, String etag, long lastModified)
+			throws Exception {
+		int requested = chunkSize > 0 ? chunkSize : this.chunkSize > 0 ? this.chunkSize : chunkSizer.next();
+		String url = serverUrl + "/manifest?bucket=" + URLEncoder.encode(bucket, StandardCharsets.UTF_8) + "&key="
+				+ URLEncoder.encode(key, StandardCharsets.UTF_8) + "&chunkSize=" + requested;
+		for (int attempt = 1;; attempt++) {
+			HttpURLConnection conn = null;
+			long started = System.nanoTime();
+			try {
+				conn = (HttpURLConnection) new URL(url).openConnection();
+				if (etag != null) {
+					conn.setRequestProperty("If-None-Match", etag);
+				}
+				if (lastModified > 0) {
+					conn.setIfModifiedSince(lastModified);
+				}
+				int status = conn.getResponseCode();
+				if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+					return null;
+				}
+				if (ServerBusyException.isBusy(status)) {
+					throw new ServerBusyException(status, conn.getHeaderField("Retry-After"));
+				}
+				if (status != 200) {
+					throw new IOException("Server responded with " + status);
+				}
+				JsonNode body;
+				try (InputStream is = conn.getInputStream()) {
+					body = mapper.readTree(is);
+				}
+				List<String> chunkChecksums = new ArrayList<>();
+				body.get("chunkChecksums").forEach(node -> chunkChecksums.add(node.asText()));
+				return new Manifest(conn.getHeaderField("ETag"), conn.getHeaderFieldDate("Last-Modified", 0),
+						body.get("fileSize").asLong(), body.get("chunkSize").asInt(), body.get("checksum").asText(),
+						chunkChecksums);
+			} catch (IOException e) {
+				retryOrFail("the manifest", attempt, e, started);
+			} finally {
+				if (conn != null) {
+					conn.disconnect();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fetches chunk 0 to learn the file size and the chunk size the server
+	 * grants, then preallocates the target and records chunk 0 as done. The
+	 * chunk size is then fixed for this download, so it can be resumed.
+	 */
+	private ChunkBitmap probe(String bucket, String key, File partFile, File sidecar, FileChannel channel)
+			throws Exception {
+		for (int attempt = 1;; attempt++) {
+			HttpURLConnection conn = null;
+			long started = System.nanoTime();
+			try {
+				int requested = chunkSize > 0 ? chunkSize : chunkSizer.next();
+				conn = openChunk(bucket, key, 0, requested, ChecksumAlgorithm.SHA_256_TREE);
+				long fileSize = Long.parseLong(conn.getHeaderField("X-File-Size"));
+				chunkSizer.serverRange(conn.getHeaderField(ChunkSizer.MIN_HEADER),
+						conn.getHeaderField(ChunkSizer.MAX_HEADER));
+				// Servers that do not negotiate serve the size as asked.
+				String granted = conn.getHeaderField("X-Chunk-Size");
+				int grantedChunkSize = granted != null ? Integer.parseInt(granted) : requested;
+				log.info("🟢 Downloading file: {} | Size: {}", conn.getHeaderField("X-File-Name"), fileSize);
+
+				channel.truncate(0);
+				try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+					raf.setLength(fileSize);
+				}
+				ChunkBitmap bitmap = ChunkBitmap.create(sidecar, fileSize, grantedChunkSize);
+				writeChunk(conn, channel, 0, bitmap, started);
+				return bitmap;
+			} catch (IOException e) {
+				retryOrFail("chunk 0", attempt, e, started);
+			} finally {
+				if (conn != null) {
+					conn.disconnect();
+				}
+			}
+		}
+	}
+
+	private void fetchMissing(String bucket, String key, FileChannel channel, ChunkBitmap bitmap) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "chunk-download");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < bitmap.totalChunks(); i++) {
+				if (bitmap.isDone(i)) {
+					continue;
+				}
+				int chunkIndex = i;
+				futures.add(executor.submit(() -> {
+					fetchWithRetry(bucket, key, chunkIndex, channel, bitmap);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					futures.forEach(f -> f.cancel(true));
+					throw e.getCause() instanceof Exception cause ? cause : e;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void fetchWithRetry(String bucket, String key, int chunkIndex, FileChannel channel, ChunkBitmap bitmap)
+			throws Exception {
+		for (int attempt = 1;; attempt++) {
+			HttpURLConnection conn = null;
+			long started = System.nanoTime();
+			try {
+				conn = openChunk(bucket, key, chunkIndex, bitmap.chunkSize(), ChecksumAlgorithm.SHA_256_TREE);
+				writeChunk(conn, channel, chunkIndex, bitmap, started);
+				return;
+			} catch (IOException e) {
+				retryOrFail("chunk " + chunkIndex, attempt, e, started);
+			} finally {
+				if (conn != null) {
+					conn.disconnect();
+				}
+			}
+		}
+	}
+
+	private void retryOrFail(String what, int attempt, IOException e, long startedNanos) throws Exception {
+		metrics.chunkFailed(System.nanoTime() - startedNanos);
+		if (!(e instanceof ServerBusyException)) {
+			chunkSizer.recordFailure();
+		}
+		log.warn("⚠️ Error downloading {} (attempt {}): {}", what, attempt, e.getMessage());
+		if (attempt >= retryPolicy.maxAttempts()) {
+			throw new IOException("❌ Failed to download " + what + " after " + attempt + " attempts", e);
+		}
+		metrics.retried();
+		// A busy server says how long to back off for in Retry-After.
+		Thread.sleep(retryPolicy.delayMillis(attempt, e));
+	}
+
+	/**
+	 * Requests a chunk, with the file checksum in {@code checksumAlgorithm};
+	 * older servers ignore that and send SHA-256.
+	 */
+	private HttpURLConnection openChunk(String bucket, String key, int chunkIndex, int chunkSize,
+			ChecksumAlgorithm checksumAlgorithm) throws IOException {
+		Map<String, Object> body = new HashMap<>();
+		body.put("bucket", bucket);
+		body.put("key", key);
+		body.put("chunkIndex", chunkIndex);
+		body.put("offset", (long) chunkIndex * chunkSize);
+		body.put("length", chunkSize);
+		body.put("checksumAlgorithm", checksumAlgorithm.token());
+
+		HttpURLConnection conn = (HttpURLConnection) new URL(serverUrl + "/chunkWithMeta").openConnection();
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		conn.setRequestProperty("Content-Type", "application/json");
+		if (compression) {
+			conn.setRequestProperty("Accept-Encoding", ChunkCodec.advertised());
+		}
+
+		try (OutputStream os = conn.getOutputStream()) {
+			os.write(mapper.writeValueAsBytes(body));
+		}
+
+		if (ServerBusyException.isBusy(conn.getResponseCode())) {
+			throw new ServerBusyException(conn.getResponseCode(), conn.getHeaderField("Retry-After"));
+		}
+		if (conn.getResponseCode() != 200) {
+			throw new IOException("Server responded with " + conn.getResponseCode());
+		}
+		return conn;
+	}
+
+	/**
+	 * Streams the response body into the target at the chunk's offset and marks
+	 * it done. A coded body is decoded on the way to disk.
+	 */
+	private void writeChunk(HttpURLConnection conn, FileChannel channel, int chunkIndex, ChunkBitmap bitmap,
+			long startedNanos) throws IOException {
+		long offset = (long) chunkIndex * bitmap.chunkSize();
+		long expected = Math.min(bitmap.chunkSize(), bitmap.fileSize() - offset);
+		long written = 0;
+
+		ChunkCodec codec = codec(conn);
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		CountingInputStream wire = new CountingInputStream(conn.getInputStream());
+		try (InputStream is = codec.decode(wire)) {
+			int read;
+			while ((read = is.read(buffer.array())) != -1) {
+				if (written + read > expected) {
+					throw new IOException("Chunk " + chunkIndex + " is longer than " + expected + " bytes");
+				}
+				buffer.clear().limit(read);
+				while (buffer.hasRemaining()) {
+					written += channel.write(buffer, offset + written);
+				}
+			}
+		}
+		if (written != expected) {
+			throw new IOException("Chunk " + chunkIndex + " was " + written + " bytes, expected " + expected);
+		}
+
+		chunkReceived(written, wire.getByteCount(), startedNanos);
+		bitmap.expectedChecksum(conn.getHeaderField("X-Expected-Checksum"), fileChecksumAlgorithm(conn));
+		bitmap.markDone(chunkIndex);
+	}
+
+	private void chunkReceived(long bytes, long wireBytes, long startedNanos) {
+		long elapsed = System.nanoTime() - startedNanos;
+		compressionStats.record(bytes, wireBytes);
+		chunkSizer.recordSuccess(wireBytes, elapsed);
+		metrics.chunkDone(elapsed, bytes, wireBytes);
+	}
+
+	private static ChunkCodec codec(HttpURLConnection conn) throws IOException {
+		ChunkCodec codec = ChunkCodec.forToken(conn.getContentEncoding());
+		if (codec == null) {
+			throw new IOException("Unsupported Content-Encoding: " + conn.getContentEncoding());
+		}
+		return codec;
+	}
+
+	/**
+	 * The algorithm of the response's {@code X-Expected-Checksum}; servers that
+	 * do not say use SHA-256.
+	 */
+	private static ChecksumAlgorithm fileChecksumAlgorithm(HttpURLConnection conn) throws IOException {
+		String algorithm = conn.getHeaderField(ChecksumAlgorithm.FILE_HEADER);
+		ChecksumAlgorithm checksumAlgorithm = algorithm != null ? ChecksumAlgorithm.forToken(algorithm)
+				: ChecksumAlgorithm.SHA_256;
+		if (checksumAlgorithm == null) {
+			throw new IOException("Unsupported checksum algorithm: " + algorithm);
+		}
+		return checksumAlgorithm;
+	}
+
+	static String checksum(FileChannel channel, long size, ChecksumAlgorithm algorithm) throws Exception {
+		if (algorithm == ChecksumAlgorithm.SHA_256_TREE) {
+			return HexFormat.of().formatHex(TreeHash.parallel(channel, size));
+		}
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = 0;
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				break;
+			}
+			buffer.flip();
+			digest.update(buffer);
+			position += read;
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+}
@@ -0,0 +1,130 @@
+package com.springframework.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A TCP proxy in front of the service that resets connections at random, so
+ * clients see the failures a flaky network gives them: requests dying half
+ * sent, responses cut short, pooled connections gone stale. Each block of up
+ * to 64 KiB forwarded in either direction cuts its connection with
+ * probability {@code faultRate}.
+ */
+final class FaultInjectingProxy implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(FaultInjectingProxy.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final ServerSocket serverSocket;
+	private final int targetPort;
+	private final double faultRate;
+	private final AtomicLong faults = new AtomicLong();
+	private final ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "fault-proxy");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	FaultInjectingProxy(int targetPort, double faultRate) throws IOException {
+		this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+		this.targetPort = targetPort;
+		this.faultRate = faultRate;
+		threads.execute(this::acceptLoop);
+	}
+
+	int port() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Connections reset so far.
+	 */
+	long faults() {
+		return faults.get();
+	}
+
+	private void acceptLoop() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket client = serverSocket.accept();
+				Socket upstream = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+				client.setTcpNoDelay(true);
+				upstream.setTcpNoDelay(true);
+				AtomicInteger openDirections = new AtomicInteger(2);
+				threads.execute(() -> pump(client, upstream, openDirections));
+				threads.execute(() -> pump(upstream, client, openDirections));
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					log.warn("Proxy accept failed: {}", e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies one direction of a connection. A clean end of stream is passed on
+	 * as a half close; the sockets are closed once both directions are done,
+	 * or straight away when either fails.
+	 */
+	private void pump(Socket from, Socket to, AtomicInteger openDirections) {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try {
+			InputStream in = from.getInputStream();
+			OutputStream out = to.getOutputStream();
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				if (faultRate > 0 && ThreadLocalRandom.current().nextDouble() < faultRate) {
+					faults.incrementAndGet();
+					// Forward part of the block so the peer sees a truncated message, then reset.
+					out.write(buffer, 0, ThreadLocalRandom.current().nextInt(read + 1));
+					reset(from);
+					reset(to);
+					return;
+				}
+				out.write(buffer, 0, read);
+			}
+			to.shutdownOutput();
+			if (openDirections.decrementAndGet() == 0) {
+				closeQuietly(from);
+				closeQuietly(to);
+			}
+		} catch (IOException e) {
+			closeQuietly(from);
+			closeQuietly(to);
+		}
+	}
+
+	private static void reset(Socket socket) {
+		try {
+			socket.setSoLinger(true, 0);
+		} catch (IOException ignored) {
+		}
+		closeQuietly(socket);
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		threads.shutdownNow();
+	}
+}
@@ -0,0 +1,251 @@
+package com.springframework.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.springframework.controller.ChunkedFileUploader;
+import com.springframework.controller.DownloadController;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Starts the service on a free port and runs concurrent simulated clients
+ * against it: uploaders sending files of the configured sizes in turn through
+ * {@link ChunkedFileUploader}, and downloaders fetching the served file
+ * through {@link DownloadController}. With a fault rate set, traffic goes
+ * through a {@link FaultInjectingProxy} so the clients' retries are exercised
+ * too. The JSON report has the throughput and latency percentiles seen by the
+ * clients, the service's own per-endpoint percentiles, and its heap and GC
+ * activity over the run. Keys come out in a fixed order, so reports from two
+ * versions can be compared with a plain diff.
+ * <p>
+ * Run it with the {@code load-test} profile, which adds the H2 driver the
+ * service is started with:
+ *
+ * <pre>
+ * mvn -Pload-test compile exec:java -Dexec.args="--uploaders=8 --fault-rate=0.0005"
+ * </pre>
+ */
+public final class LoadTest {
+
+	private static final Logger log = LoggerFactory.getLogger(LoadTest.class);
+
+	static final double[] PERCENTILES = { 0.5, 0.99, 0.999 };
+	static final String OPERATION_TIMER = "loadtest.operation";
+
+	private static final String BUCKET = "load-test";
+	private static final long HEAP_SAMPLE_MILLIS = 500;
+
+	private LoadTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTestOptions options = LoadTestOptions.parse(args);
+		Path workDir = Files.createTempDirectory("load-test");
+		// The uploader and downloader publish to the global registry; this one
+		// joins it for the run and keeps percentiles of every timer.
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		registry.config().meterFilter(wholeRunPercentiles());
+		Metrics.addRegistry(registry);
+		try {
+			Map<String, Object> report = run(options, workDir, registry);
+			LoadTestReport.write(report, options.report());
+			System.out.println("Load test report written to " + options.report().getAbsolutePath());
+		} finally {
+			Metrics.removeRegistry(registry);
+			FileUtils.deleteQuietly(workDir.toFile());
+		}
+	}
+
+	private static MeterFilter wholeRunPercentiles() {
+		return new MeterFilter() {
+			@Override
+			public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+				return DistributionStatisticConfig.builder()
+						.percentiles(PERCENTILES)
+						.percentilePrecision(2)
+						.expiry(Duration.ofDays(1))
+						.bufferLength(1)
+						.build()
+						.merge(config);
+			}
+		};
+	}
+
+	private static Map<String, Object> run(LoadTestOptions options, Path workDir, SimpleMeterRegistry registry)
+			throws Exception {
+		Random random = new Random(options.seed());
+		Map<Long, File> uploadFiles = new LinkedHashMap<>();
+		for (long size : new TreeSet<>(options.fileSizes())) {
+			uploadFiles.put(size, writeRandomFile(workDir.resolve("upload-" + size + ".bin"), size, random));
+		}
+		File served = writeRandomFile(workDir.resolve("served.bin"), options.downloadSize(), random);
+
+		try (ServiceProcess service = ServiceProcess.start(options, workDir, served);
+				FaultInjectingProxy proxy = options.faultRate() > 0
+						? new FaultInjectingProxy(service.port(), options.faultRate())
+						: null) {
+			String baseUrl = "http://localhost:" + (proxy != null ? proxy.port() : service.port());
+			log.info("Service on port {}, log at {}", service.port(), service.log());
+
+			PrometheusSamples before = service.scrape();
+			AtomicLong peakHeap = new AtomicLong();
+			ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+			sampler.scheduleAtFixedRate(() -> samplePeakHeap(service, peakHeap), 0, HEAP_SAMPLE_MILLIS,
+					TimeUnit.MILLISECONDS);
+
+			long started = System.nanoTime();
+			try {
+				runClients(options, workDir, baseUrl, uploadFiles, registry);
+			} finally {
+				sampler.shutdownNow();
+				sampler.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			long elapsedNanos = System.nanoTime() - started;
+			samplePeakHeap(service, peakHeap);
+
+			PrometheusSamples after = service.scrape();
+			return LoadTestReport.build(options, elapsedNanos, registry, before, after, peakHeap.get(),
+					proxy != null ? proxy.faults() : 0);
+		}
+	}
+
+	private static void runClients(LoadTestOptions options, Path workDir, String baseUrl, Map<Long, File> uploadFiles,
+			SimpleMeterRegistry registry) throws Exception {
+		int connections = Math.max(1, options.uploaders() * options.parallelism());
+		ExecutorService clients = Executors.newFixedThreadPool(Math.max(1, options.uploaders() + options.downloaders()));
+		try (CloseableHttpClient httpClient = ChunkedFileUploader.createPooledClient(connections, connections)) {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int worker = 0; worker < options.uploaders(); worker++) {
+				int uploader = worker;
+				futures.add(clients.submit(() -> {
+					uploadLoop(options, workDir, baseUrl, uploadFiles, httpClient, registry, uploader);
+					return null;
+				}));
+			}
+			for (int worker = 0; worker < options.downloaders(); worker++) {
+				int downloader = worker;
+				futures.add(clients.submit(() -> {
+					downloadLoop(options, workDir, baseUrl, registry, downloader);
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	private static void uploadLoop(LoadTestOptions options, Path workDir, String baseUrl, Map<Long, File> uploadFiles,
+			CloseableHttpClient httpClient, SimpleMeterRegistry registry, int worker) throws IOException {
+		ChunkedFileUploader uploader = new ChunkedFileUploader(baseUrl + "/api/upload", httpClient)
+				.withParallelism(options.parallelism())
+				.withRawChunks(options.rawChunks());
+		if (options.chunkSize() > 0) {
+			uploader.withChunkSize(options.chunkSize());
+		}
+		List<Long> sizes = options.fileSizes();
+		for (int i = 0; i < options.iterations(); i++) {
+			long size = sizes.get((worker + i) % sizes.size());
+			// Every upload needs a name of its own; a hard link costs no copy.
+			Path file = workDir.resolve("up-" + worker + "-" + i + ".bin");
+			Files.createLink(file, uploadFiles.get(size).toPath());
+			try {
+				timed(registry, "upload", size, () -> uploader.upload(file.toFile(), BUCKET));
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private static void downloadLoop(LoadTestOptions options, Path workDir, String baseUrl,
+			SimpleMeterRegistry registry, int worker) {
+		for (int i = 0; i < options.iterations(); i++) {
+			File target = workDir.resolve("down-" + worker + "-" + i + ".bin").toFile();
+			try {
+				timed(registry, "download", options.downloadSize(), () -> DownloadController.downloadFile(
+						baseUrl + "/files", BUCKET, "served.bin", target, options.parallelism()));
+			} finally {
+				FileUtils.deleteQuietly(target);
+				FileUtils.deleteQuietly(new File(target.getPath() + ".part"));
+				FileUtils.deleteQuietly(new File(target.getPath() + ".chunks"));
+			}
+		}
+	}
+
+	private interface Transfer {
+		Object run() throws Exception;
+	}
+
+	/**
+	 * Runs one transfer and records it under {@code loadtest.operation}. A
+	 * transfer that fails after the client's own retries counts as a failure
+	 * and the client moves on to its next one.
+	 */
+	private static void timed(SimpleMeterRegistry registry, String type, long bytes, Transfer transfer) {
+		long start = System.nanoTime();
+		String outcome = "success";
+		try {
+			transfer.run();
+		} catch (Exception e) {
+			outcome = "failure";
+			log.warn("{} failed: {}", type, e.getMessage());
+		}
+		Timer.builder(OPERATION_TIMER)
+				.tag("type", type)
+				.tag("outcome", outcome)
+				.register(registry)
+				.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		if (outcome.equals("success")) {
+			registry.counter("loadtest.bytes", "type", type).increment(bytes);
+		}
+	}
+
+	private static void samplePeakHeap(ServiceProcess service, AtomicLong peakHeap) {
+		try {
+			long used = (long) service.scrape().sum("jvm_memory_used_bytes", s -> s.label("area").equals("heap"));
+			peakHeap.accumulateAndGet(used, Math::max);
+		} catch (IOException e) {
+			// A missed sample only makes the peak less precise.
+		}
+	}
+
+	private static File writeRandomFile(Path path, long size, Random random) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		try (OutputStream out = Files.newOutputStream(path)) {
+			for (long written = 0; written < size; written += buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+			}
+		}
+		return path.toFile();
+	}
+}
@@ -0,0 +1,142 @@
+package com.springframework.loadtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line of {@link LoadTest}. Every option is {@code --name=value};
+ * options starting with {@code --service.} are handed to the service with the
+ * prefix removed, e.g. {@code --service.admission.max-sessions=8}.
+ */
+record LoadTestOptions(
+		File serviceJar,
+		String serviceHeap,
+		int uploaders,
+		int downloaders,
+		int iterations,
+		List<Long> fileSizes,
+		long downloadSize,
+		int parallelism,
+		int chunkSize,
+		boolean rawChunks,
+		double faultRate,
+		long seed,
+		File report,
+		List<String> serviceArgs) {
+
+	static final String USAGE = """
+			Options (--name=value):
+			  service-jar    runnable service jar (../multipart-upload-service/target/multipart-upload-service-0.0.1-SNAPSHOT-exec.jar)
+			  service-heap   -Xmx of the service (512m)
+			  uploaders      concurrent uploading clients (4)
+			  downloaders    concurrent downloading clients (2)
+			  iterations     transfers per client (5)
+			  file-sizes     upload sizes, used in turn (1MB,8MB,32MB)
+			  download-size  size of the file the service serves (16MB)
+			  parallelism    chunks in flight per transfer (4)
+			  chunk-size     fixed chunk size, -1 to adapt (-1)
+			  raw-chunks     upload with PUT instead of multipart (false)
+			  fault-rate     chance of cutting a connection per forwarded 64 KiB (0)
+			  seed           seed for file contents (42)
+			  report         where to write the JSON report (load-test-report.json)
+			  service.*      passed to the service without the prefix
+			""";
+
+	static LoadTestOptions parse(String[] args) {
+		Map<String, String> values = new LinkedHashMap<>();
+		List<String> serviceArgs = new ArrayList<>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (!arg.startsWith("--") || eq < 0) {
+				throw new IllegalArgumentException("Expected --name=value but got " + arg + "\n" + USAGE);
+			}
+			String name = arg.substring(2, eq);
+			if (name.startsWith("service.")) {
+				serviceArgs.add("--" + arg.substring("--service.".length()));
+			} else {
+				values.put(name, arg.substring(eq + 1));
+			}
+		}
+
+		LoadTestOptions options = new LoadTestOptions(
+				new File(take(values, "service-jar",
+						"../multipart-upload-service/target/multipart-upload-service-0.0.1-SNAPSHOT-exec.jar")),
+				take(values, "service-heap", "512m"),
+				Integer.parseInt(take(values, "uploaders", "4")),
+				Integer.parseInt(take(values, "downloaders", "2")),
+				Integer.parseInt(take(values, "iterations", "5")),
+				parseSizes(take(values, "file-sizes", "1MB,8MB,32MB")),
+				parseSize(take(values, "download-size", "16MB")),
+				Integer.parseInt(take(values, "parallelism", "4")),
+				Integer.parseInt(take(values, "chunk-size", "-1")),
+				Boolean.parseBoolean(take(values, "raw-chunks", "false")),
+				Double.parseDouble(take(values, "fault-rate", "0")),
+				Long.parseLong(take(values, "seed", "42")),
+				new File(take(values, "report", "load-test-report.json")),
+				List.copyOf(serviceArgs));
+		if (!values.isEmpty()) {
+			throw new IllegalArgumentException("Unknown options " + values.keySet() + "\n" + USAGE);
+		}
+		if (options.fileSizes.isEmpty() && options.uploaders > 0) {
+			throw new IllegalArgumentException("file-sizes must not be empty");
+		}
+		return options;
+	}
+
+	private static String take(Map<String, String> values, String name, String defaultValue) {
+		String value = values.remove(name);
+		return value != null ? value : defaultValue;
+	}
+
+	private static List<Long> parseSizes(String value) {
+		List<Long> sizes = new ArrayList<>();
+		for (String size : value.split(",")) {
+			if (!size.isBlank()) {
+				sizes.add(parseSize(size.trim()));
+			}
+		}
+		return List.copyOf(sizes);
+	}
+
+	/**
+	 * Bytes, or a number followed by KB, MB or GB (powers of 1024).
+	 */
+	static long parseSize(String value) {
+		String upper = value.toUpperCase(Locale.ROOT);
+		long unit = 1;
+		if (upper.endsWith("KB")) {
+			unit = 1024;
+		} else if (upper.endsWith("MB")) {
+			unit = 1024 * 1024;
+		} else if (upper.endsWith("GB")) {
+			unit = 1024L * 1024 * 1024;
+		}
+		String number = unit == 1 ? upper : upper.substring(0, upper.length() - 2);
+		return Long.parseLong(number.trim()) * unit;
+	}
+
+	/**
+	 * The options as they go into the report, so runs with different settings
+	 * are easy to tell apart.
+	 */
+	Map<String, Object> describe() {
+		Map<String, Object> config = new LinkedHashMap<>();
+		config.put("serviceHeap", serviceHeap);
+		config.put("uploaders", uploaders);
+		config.put("downloaders", downloaders);
+		config.put("iterations", iterations);
+		config.put("fileSizes", fileSizes);
+		config.put("downloadSize", downloadSize);
+		config.put("parallelism", parallelism);
+		config.put("chunkSize", chunkSize);
+		config.put("rawChunks", rawChunks);
+		config.put("faultRate", faultRate);
+		config.put("seed", seed);
+		config.put("serviceArgs", serviceArgs);
+		return config;
+	}
+}
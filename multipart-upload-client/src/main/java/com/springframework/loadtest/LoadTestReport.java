@@ -0,0 +1,175 @@
+package com.springframework.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.springframework.loadtest.PrometheusSamples.Sample;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+
+/**
+ * Turns what a {@link LoadTest} run measured into the report: maps in a fixed
+ * key order, endpoints sorted, durations in milliseconds and rates rounded so
+ * that noise below what matters does not show up in a diff.
+ */
+final class LoadTestReport {
+
+	private static final double MIB = 1024 * 1024;
+
+	private LoadTestReport() {
+	}
+
+	static Map<String, Object> build(LoadTestOptions options, long elapsedNanos, MeterRegistry registry,
+			PrometheusSamples before, PrometheusSamples after, long peakHeapBytes, long faults) {
+		double seconds = elapsedNanos / 1e9;
+
+		Map<String, Object> client = new LinkedHashMap<>();
+		client.put("upload", operations(registry, "upload", seconds));
+		client.put("download", operations(registry, "download", seconds));
+		Map<String, Object> chunks = new LinkedHashMap<>();
+		chunks.put("upload", chunks(registry, "upload"));
+		chunks.put("download", chunks(registry, "download"));
+		client.put("chunks", chunks);
+
+		Map<String, Object> server = new LinkedHashMap<>();
+		server.put("endpoints", endpoints(after));
+		server.put("jvm", jvm(before, after, peakHeapBytes));
+
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("config", options.describe());
+		report.put("durationSeconds", round(seconds, 2));
+		report.put("faultsInjected", faults);
+		report.put("client", client);
+		report.put("server", server);
+		return report;
+	}
+
+	static void write(Map<String, Object> report, File file) throws IOException {
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+	}
+
+	/**
+	 * Whole transfers of one type, as the simulated clients saw them.
+	 */
+	private static Map<String, Object> operations(MeterRegistry registry, String type, double seconds) {
+		Timer success = registry.find(LoadTest.OPERATION_TIMER).tags("type", type, "outcome", "success").timer();
+		Timer failure = registry.find(LoadTest.OPERATION_TIMER).tags("type", type, "outcome", "failure").timer();
+		Counter bytes = registry.find("loadtest.bytes").tags("type", type).counter();
+		double transferred = bytes != null ? bytes.count() : 0;
+
+		Map<String, Object> operations = new LinkedHashMap<>();
+		operations.put("completed", success != null ? success.count() : 0);
+		operations.put("failed", failure != null ? failure.count() : 0);
+		operations.put("bytes", (long) transferred);
+		operations.put("throughputMiBPerSecond", round(transferred / MIB / seconds, 2));
+		operations.put("latencyMs", latency(success));
+		return operations;
+	}
+
+	/**
+	 * Single chunk requests, from the meters the uploader and downloader publish.
+	 */
+	private static Map<String, Object> chunks(MeterRegistry registry, String direction) {
+		Timer success = registry.find("transfer.chunk.latency").tags("direction", direction, "outcome", "success")
+				.timer();
+		Timer failure = registry.find("transfer.chunk.latency").tags("direction", direction, "outcome", "failure")
+				.timer();
+		Counter retries = registry.find("transfer.chunk.retries").tags("direction", direction).counter();
+
+		Map<String, Object> chunks = new LinkedHashMap<>();
+		chunks.put("succeeded", success != null ? success.count() : 0);
+		chunks.put("failed", failure != null ? failure.count() : 0);
+		chunks.put("retries", retries != null ? (long) retries.count() : 0);
+		chunks.put("latencyMs", latency(success));
+		return chunks;
+	}
+
+	private static Map<String, Object> latency(Timer timer) {
+		Map<String, Object> latency = new LinkedHashMap<>();
+		if (timer == null || timer.count() == 0) {
+			return latency;
+		}
+		HistogramSnapshot snapshot = timer.takeSnapshot();
+		for (ValueAtPercentile value : snapshot.percentileValues()) {
+			latency.put(percentileKey(value.percentile()), round(value.value(TimeUnit.MILLISECONDS), 1));
+		}
+		latency.put("max", round(snapshot.max(TimeUnit.MILLISECONDS), 1));
+		return latency;
+	}
+
+	/**
+	 * Requests per endpoint and status as the service timed them, keyed like
+	 * {@code "PUT /api/upload/{uploadId}/chunks/{chunkIndex} 200"}.
+	 */
+	private static Map<String, Object> endpoints(PrometheusSamples samples) {
+		Map<String, Map<String, Object>> endpoints = new TreeMap<>();
+		for (Sample count : samples.named("http_server_requests_seconds_count")) {
+			if (count.label("uri").startsWith("/actuator")) {
+				continue;
+			}
+			Map<String, Object> endpoint = endpoints.computeIfAbsent(endpointKey(count), key -> new LinkedHashMap<>());
+			// Series of one endpoint and status can still differ by exception.
+			endpoint.merge("count", (long) count.value(), (a, b) -> (Long) a + (Long) b);
+		}
+		for (Sample quantile : samples.named("http_server_requests_seconds", s -> !s.label("quantile").isEmpty())) {
+			Map<String, Object> endpoint = endpoints.get(endpointKey(quantile));
+			if (endpoint != null) {
+				String key = percentileKey(Double.parseDouble(quantile.label("quantile")));
+				endpoint.merge(key, round(quantile.value() * 1000, 1), (a, b) -> Math.max((Double) a, (Double) b));
+			}
+		}
+		return new LinkedHashMap<>(endpoints);
+	}
+
+	private static String endpointKey(Sample sample) {
+		return sample.label("method") + " " + sample.label("uri") + " " + sample.label("status");
+	}
+
+	/**
+	 * Heap and GC over the run, taken as the difference between the scrapes
+	 * before and after it. The pause max is Micrometer's recent maximum, not
+	 * the maximum over the whole run.
+	 */
+	private static Map<String, Object> jvm(PrometheusSamples before, PrometheusSamples after, long peakHeapBytes) {
+		Map<String, Object> jvm = new LinkedHashMap<>();
+		jvm.put("heapPeakUsedBytes", peakHeapBytes);
+		jvm.put("heapMaxBytes", (long) after.sum("jvm_memory_max_bytes", s -> s.label("area").equals("heap")));
+		jvm.put("allocatedBytes", (long) delta(before, after, "jvm_gc_memory_allocated_bytes_total"));
+		jvm.put("promotedBytes", (long) delta(before, after, "jvm_gc_memory_promoted_bytes_total"));
+		jvm.put("gcPauses", (long) delta(before, after, "jvm_gc_pause_seconds_count"));
+		jvm.put("gcPauseTotalMs", round(delta(before, after, "jvm_gc_pause_seconds_sum") * 1000, 1));
+		jvm.put("gcPauseRecentMaxMs", round(after.max("jvm_gc_pause_seconds_max") * 1000, 1));
+		return jvm;
+	}
+
+	private static double delta(PrometheusSamples before, PrometheusSamples after, String name) {
+		return after.sum(name, s -> true) - before.sum(name, s -> true);
+	}
+
+	/**
+	 * {@code 0.5} becomes {@code p50}, {@code 0.999} becomes {@code p999}.
+	 */
+	private static String percentileKey(double percentile) {
+		return "p" + BigDecimal.valueOf(percentile).movePointRight(2).stripTrailingZeros().toPlainString()
+				.replace(".", "");
+	}
+
+	private static double round(double value, int decimals) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return 0;
+		}
+		return BigDecimal.valueOf(value).setScale(decimals, RoundingMode.HALF_UP).doubleValue();
+	}
+}
@@ -0,0 +1,119 @@
+package com.springframework.loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Samples of one scrape of a Prometheus text exposition, enough of the format
+ * for what {@code /actuator/prometheus} writes: comments, optional labels with
+ * quoted (and escaped) values, and a value with an optional timestamp.
+ */
+final class PrometheusSamples {
+
+	record Sample(String name, Map<String, String> labels, double value) {
+
+		String label(String name) {
+			return labels.getOrDefault(name, "");
+		}
+	}
+
+	private final List<Sample> samples;
+
+	private PrometheusSamples(List<Sample> samples) {
+		this.samples = samples;
+	}
+
+	static PrometheusSamples parse(String text) {
+		List<Sample> samples = new ArrayList<>();
+		for (String line : text.split("\n")) {
+			line = line.strip();
+			if (!line.isEmpty() && line.charAt(0) != '#') {
+				samples.add(parseLine(line));
+			}
+		}
+		return new PrometheusSamples(samples);
+	}
+
+	private static Sample parseLine(String line) {
+		Map<String, String> labels = new LinkedHashMap<>();
+		int pos = 0;
+		while (pos < line.length() && line.charAt(pos) != '{' && line.charAt(pos) != ' ') {
+			pos++;
+		}
+		String name = line.substring(0, pos);
+		if (pos < line.length() && line.charAt(pos) == '{') {
+			pos++;
+			while (line.charAt(pos) != '}') {
+				int eq = line.indexOf('=', pos);
+				String label = line.substring(pos, eq).strip();
+				StringBuilder value = new StringBuilder();
+				pos = eq + 2; // past ="
+				while (line.charAt(pos) != '"') {
+					char c = line.charAt(pos++);
+					if (c == '\\') {
+						c = line.charAt(pos++);
+						value.append(c == 'n' ? '\n' : c);
+					} else {
+						value.append(c);
+					}
+				}
+				labels.put(label, value.toString());
+				pos++; // past the closing quote
+				if (line.charAt(pos) == ',') {
+					pos++;
+				}
+			}
+			pos++;
+		}
+		String[] rest = line.substring(pos).strip().split(" ");
+		return new Sample(name, labels, parseValue(rest[0]));
+	}
+
+	private static double parseValue(String value) {
+		return switch (value) {
+			case "+Inf" -> Double.POSITIVE_INFINITY;
+			case "-Inf" -> Double.NEGATIVE_INFINITY;
+			case "NaN" -> Double.NaN;
+			default -> Double.parseDouble(value);
+		};
+	}
+
+	List<Sample> named(String name) {
+		return named(name, sample -> true);
+	}
+
+	List<Sample> named(String name, Predicate<Sample> filter) {
+		List<Sample> matching = new ArrayList<>();
+		for (Sample sample : samples) {
+			if (sample.name().equals(name) && filter.test(sample)) {
+				matching.add(sample);
+			}
+		}
+		return matching;
+	}
+
+	/**
+	 * Sum of the matching samples, skipping NaN and negative ones such as the
+	 * {@code -1} max of an unbounded memory pool.
+	 */
+	double sum(String name, Predicate<Sample> filter) {
+		double sum = 0;
+		for (Sample sample : named(name, filter)) {
+			if (!Double.isNaN(sample.value()) && sample.value() > 0) {
+				sum += sample.value();
+			}
+		}
+		return sum;
+	}
+
+	double max(String name) {
+		double max = 0;
+		for (Sample sample : named(name)) {
+			max = Math.max(max, sample.value());
+		}
+		return max;
+	}
+}
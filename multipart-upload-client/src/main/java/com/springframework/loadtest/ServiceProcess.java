@@ -0,0 +1,151 @@
+package com.springframework.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The upload service running in a JVM of its own on a free port, backed by an
+ * in-memory H2 database and directories under the load test's work directory.
+ * The service jar does not ship a H2 driver, so the one on this classpath is
+ * added with Spring Boot's {@code PropertiesLauncher} and {@code loader.path}.
+ */
+final class ServiceProcess implements AutoCloseable {
+
+	private static final long STARTUP_TIMEOUT_MILLIS = 120_000;
+
+	private final Process process;
+	private final int port;
+	private final File log;
+
+	private ServiceProcess(Process process, int port, File log) {
+		this.process = process;
+		this.port = port;
+		this.log = log;
+	}
+
+	static ServiceProcess start(LoadTestOptions options, Path workDir, File servedFile) throws Exception {
+		if (!options.serviceJar().isFile()) {
+			throw new IllegalStateException("No service jar at " + options.serviceJar()
+					+ "; build it with mvn -f ../multipart-upload-service/pom.xml package -DskipTests");
+		}
+		int port = freePort();
+		File log = workDir.resolve("service.log").toFile();
+
+		List<String> command = new ArrayList<>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-Xmx" + options.serviceHeap());
+		command.add("-Dloader.path=" + h2Jar());
+		command.add("-cp");
+		command.add(options.serviceJar().getAbsolutePath());
+		command.add("org.springframework.boot.loader.launch.PropertiesLauncher");
+		command.add("--server.port=" + port);
+		command.add("--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+		command.add("--spring.datasource.driver-class-name=org.h2.Driver");
+		command.add("--spring.datasource.username=sa");
+		command.add("--spring.datasource.password=");
+		command.add("--spring.jpa.hibernate.ddl-auto=create-drop");
+		command.add("--upload.base-dir=" + workDir.resolve("uploads") + File.separator);
+		command.add("--upload.chunk-store.dir=" + workDir.resolve("chunk-store") + File.separator);
+		command.add("--storage.local.dir=" + workDir.resolve("storage") + File.separator);
+		command.add("--download.base-path=" + servedFile.getAbsolutePath());
+		// Percentiles over the whole run rather than the default two minute window.
+		command.add("--management.metrics.distribution.percentiles.http.server.requests=0.5,0.99,0.999");
+		command.add("--management.metrics.distribution.expiry.http.server.requests=1d");
+		command.add("--management.metrics.distribution.buffer-length.http.server.requests=1");
+		command.addAll(options.serviceArgs());
+
+		Process process = new ProcessBuilder(command)
+				.redirectErrorStream(true)
+				.redirectOutput(log)
+				.start();
+		ServiceProcess service = new ServiceProcess(process, port, log);
+		try {
+			service.awaitReady();
+		} catch (Exception e) {
+			service.close();
+			throw e;
+		}
+		return service;
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static String h2Jar() throws Exception {
+		Class<?> driver;
+		try {
+			driver = Class.forName("org.h2.Driver");
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("H2 is not on the classpath; run with the load-test profile", e);
+		}
+		return Path.of(driver.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+	}
+
+	private void awaitReady() throws Exception {
+		long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+		while (System.currentTimeMillis() < deadline) {
+			if (!process.isAlive()) {
+				throw new IllegalStateException("Service exited with " + process.exitValue() + ", see " + log);
+			}
+			try {
+				get("/actuator/health");
+				return;
+			} catch (IOException notYet) {
+				Thread.sleep(250);
+			}
+		}
+		throw new IllegalStateException("Service did not start within " + STARTUP_TIMEOUT_MILLIS + " ms, see " + log);
+	}
+
+	int port() {
+		return port;
+	}
+
+	File log() {
+		return log;
+	}
+
+	/**
+	 * The service's meters in Prometheus text format.
+	 */
+	PrometheusSamples scrape() throws IOException {
+		return PrometheusSamples.parse(get("/actuator/prometheus"));
+	}
+
+	private String get(String path) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+		conn.setConnectTimeout(1_000);
+		conn.setReadTimeout(10_000);
+		try {
+			if (conn.getResponseCode() != 200) {
+				throw new IOException(path + " returned " + conn.getResponseCode());
+			}
+			try (InputStream in = conn.getInputStream()) {
+				return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			}
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		process.destroy();
+		if (!process.waitFor(30, TimeUnit.SECONDS)) {
+			process.destroyForcibly();
+		}
+	}
+}
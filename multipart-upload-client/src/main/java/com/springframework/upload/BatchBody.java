@@ -0,0 +1,122 @@
+package com.springframework.upload;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Request body for {@code /batch}: many small files in one stream. Each file
+ * goes out as its name ({@code writeUTF}), its size (8 bytes), its content and
+ * the SHA-256 of that content, and an empty name ends the batch. Files are
+ * read straight into the request and hashed on the way, so the checksum
+ * follows each file instead of costing a read up front.
+ */
+public class BatchBody extends AbstractHttpEntity {
+
+	public static final String MEDIA_TYPE = "application/x-upload-batch";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final List<File> files;
+	private final long[] sizes;
+	private final long contentLength;
+
+	/**
+	 * @param files sent under their own names, which must not be empty
+	 */
+	public BatchBody(List<File> files) {
+		this.files = List.copyOf(files);
+		// Sizes are fixed here so the Content-Length holds even if a file changes.
+		this.sizes = new long[files.size()];
+		long length = 2;
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = this.files.get(i).length();
+			length += 2 + utfLength(this.files.get(i).getName()) + 8 + sizes[i] + 32;
+		}
+		this.contentLength = length;
+		setContentType(MEDIA_TYPE);
+	}
+
+	public List<File> files() {
+		return files;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		for (int i = 0; i < sizes.length; i++) {
+			File file = files.get(i);
+			long size = sizes[i];
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				data.writeUTF(file.getName());
+				data.writeLong(size);
+				MessageDigest digest = sha256();
+				long position = 0;
+				while (position < size) {
+					buffer.clear().limit((int) Math.min(BUFFER_SIZE, size - position));
+					int read = channel.read(buffer, position);
+					if (read < 0) {
+						throw new IOException(file + " shrank while it was being sent");
+					}
+					digest.update(buffer.array(), 0, read);
+					data.write(buffer.array(), 0, read);
+					position += read;
+				}
+				data.write(digest.digest());
+			}
+		}
+		data.writeUTF("");
+		data.flush();
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		return PipedContent.open("batch-content", this::writeTo);
+	}
+
+	@Override
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+	/**
+	 * Bytes {@code writeUTF} takes for the string, without its length prefix.
+	 */
+	private static int utfLength(String value) {
+		int length = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			length += c >= 0x0001 && c <= 0x007f ? 1 : c <= 0x07ff ? 2 : 3;
+		}
+		return length;
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
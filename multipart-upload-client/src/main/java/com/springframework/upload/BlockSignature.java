@@ -0,0 +1,83 @@
+package com.springframework.upload;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Block signature of the version of a file the server stores, as returned by
+ * {@code /signature}: the block size, the stored size, and for every whole
+ * block its {@link RollingChecksum} and the first {@value #STRONG_LENGTH}
+ * bytes of its SHA-256. Blocks are looked up by their weak checksum first, so
+ * the strong hash only has to be computed where that already matches.
+ */
+public final class BlockSignature {
+
+	public static final int STRONG_LENGTH = 16;
+
+	private final int blockSize;
+	private final long fileSize;
+	private final byte[] strong;
+	private final Map<Integer, int[]> blocksByWeak = new HashMap<>();
+
+	private BlockSignature(int blockSize, long fileSize, int[] weak, byte[] strong) {
+		this.blockSize = blockSize;
+		this.fileSize = fileSize;
+		this.strong = strong;
+		for (int block = 0; block < weak.length; block++) {
+			int[] blocks = blocksByWeak.get(weak[block]);
+			if (blocks == null) {
+				blocksByWeak.put(weak[block], new int[] { block });
+			} else {
+				int[] grown = Arrays.copyOf(blocks, blocks.length + 1);
+				grown[blocks.length] = block;
+				blocksByWeak.put(weak[block], grown);
+			}
+		}
+	}
+
+	public static BlockSignature read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		int blockSize = data.readInt();
+		long fileSize = data.readLong();
+		if (blockSize <= 0 || fileSize < 0) {
+			throw new IOException("Malformed signature");
+		}
+		int blockCount = (int) (fileSize / blockSize);
+		int[] weak = new int[blockCount];
+		byte[] strong = new byte[blockCount * STRONG_LENGTH];
+		for (int block = 0; block < blockCount; block++) {
+			weak[block] = data.readInt();
+			data.readFully(strong, block * STRONG_LENGTH, STRONG_LENGTH);
+		}
+		return new BlockSignature(blockSize, fileSize, weak, strong);
+	}
+
+	public int blockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Size of the stored version.
+	 */
+	public long fileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Blocks with this weak checksum, or null if there are none.
+	 */
+	int[] candidates(int weak) {
+		return blocksByWeak.get(weak);
+	}
+
+	/**
+	 * Whether the block's strong hash is the start of {@code sha256}.
+	 */
+	boolean strongMatches(int block, byte[] sha256) {
+		return Arrays.equals(strong, block * STRONG_LENGTH, (block + 1) * STRONG_LENGTH, sha256, 0, STRONG_LENGTH);
+	}
+}
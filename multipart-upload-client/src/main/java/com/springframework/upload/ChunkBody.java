@@ -0,0 +1,263 @@
+package com.springframework.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChecksumAlgorithm.Hasher;
+import com.springframework.protocol.ChunkCodec;
+
+/**
+ * Multipart body for one chunk. The bytes are read from the source file with
+ * positional reads straight into the request stream and hashed on the way out,
+ * so neither the chunk nor a temp copy of it ever exists. A chunk cut from a
+ * stream being relayed is sent from memory instead. With a compressing
+ * {@link ChunkCodec} the bytes are hashed before they are coded. The chunk
+ * checksum is in the upload's negotiated {@link ChecksumAlgorithm}.
+ */
+public class ChunkBody extends AbstractContentBody {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final byte[] data;
+	private final long offset;
+	private final long length;
+	private final String fileName;
+	private final SequentialDigest fileDigest;
+	private final ChunkCodec codec;
+	private final ChecksumAlgorithm checksumAlgorithm;
+	private Hasher chunkDigest;
+	private byte[] lastDigest;
+	private long lastWireBytes;
+
+	public ChunkBody(FileChannel channel, long offset, long length, String fileName, SequentialDigest fileDigest)
+			throws NoSuchAlgorithmException {
+		this(channel, offset, length, fileName, fileDigest, ChunkCodec.IDENTITY);
+	}
+
+	public ChunkBody(FileChannel channel, long offset, long length, String fileName, SequentialDigest fileDigest,
+			ChunkCodec codec) throws NoSuchAlgorithmException {
+		this(channel, offset, length, fileName, fileDigest, codec, ChecksumAlgorithm.SHA_256);
+	}
+
+	/**
+	 * @param fileDigest fed with the chunk's bytes as they go out, or null
+	 */
+	public ChunkBody(FileChannel channel, long offset, long length, String fileName, SequentialDigest fileDigest,
+			ChunkCodec codec, ChecksumAlgorithm checksumAlgorithm) {
+		super(ContentType.APPLICATION_OCTET_STREAM);
+		this.channel = channel;
+		this.data = null;
+		this.offset = offset;
+		this.length = length;
+		this.fileName = fileName;
+		this.fileDigest = fileDigest;
+		this.codec = codec;
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	/**
+	 * A chunk held in memory, {@code data[0, length)}. It does not feed a
+	 * whole-file digest; whoever filled {@code data} hashes the file.
+	 */
+	public ChunkBody(byte[] data, int length, String fileName, ChunkCodec codec, ChecksumAlgorithm checksumAlgorithm) {
+		super(ContentType.APPLICATION_OCTET_STREAM);
+		this.channel = null;
+		this.data = data;
+		this.offset = 0;
+		this.length = length;
+		this.fileName = fileName;
+		this.fileDigest = null;
+		this.codec = codec;
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	public ChunkCodec codec() {
+		return codec;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		chunkDigest = checksumAlgorithm.newHasher();
+		lastDigest = null;
+
+		CountingOutputStream counting = new CountingOutputStream(out);
+		try (OutputStream encoded = codec.encode(counting)) {
+			copyRegion(encoded, chunkDigest, fileDigest);
+		}
+		lastWireBytes = counting.getByteCount();
+		lastDigest = chunkDigest.digest();
+	}
+
+	/**
+	 * The coded chunk as {@link #writeTo} sends it, without touching the digests
+	 * or the byte count of the last send.
+	 */
+	public InputStream openStream() throws IOException {
+		return PipedContent.open("chunk-content", out -> {
+			try (OutputStream encoded = codec.encode(out)) {
+				copyRegion(encoded, null, null);
+			}
+		});
+	}
+
+	/**
+	 * @param chunkDigest fed with the chunk's bytes, or null
+	 * @param fileDigest fed with the chunk's bytes, or null
+	 */
+	private void copyRegion(OutputStream out, Hasher chunkDigest, SequentialDigest fileDigest) throws IOException {
+		if (data != null) {
+			for (int position = 0; position < length; position += BUFFER_SIZE) {
+				int n = (int) Math.min(BUFFER_SIZE, length - position);
+				if (chunkDigest != null) {
+					chunkDigest.update(data, position, n);
+				}
+				out.write(data, position, n);
+			}
+			return;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = offset;
+		long end = offset + length;
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Source file shrank while reading chunk at " + position);
+			}
+			buffer.flip();
+			if (fileDigest != null) {
+				fileDigest.update(position, buffer);
+			}
+			if (chunkDigest != null) {
+				chunkDigest.update(buffer.array(), 0, read);
+			}
+			out.write(buffer.array(), 0, read);
+			position += read;
+		}
+	}
+
+	/**
+	 * Bytes that went out in the last complete {@link #writeTo} call, after coding.
+	 */
+	public long wireBytes() {
+		return lastWireBytes;
+	}
+
+	/**
+	 * Digest of the bytes sent by the last complete {@link #writeTo} call.
+	 */
+	public byte[] digest() {
+		if (lastDigest == null) {
+			throw new IllegalStateException("Chunk has not been written yet");
+		}
+		return lastDigest;
+	}
+
+	/**
+	 * This chunk as a whole request body, for sending it without multipart
+	 * framing. A compressing codec is announced in {@code Content-Encoding}.
+	 */
+	public HttpEntity asEntity() {
+		AbstractHttpEntity entity = new AbstractHttpEntity() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				ChunkBody.this.writeTo(out);
+			}
+
+			@Override
+			public InputStream getContent() throws IOException {
+				return openStream();
+			}
+
+			@Override
+			public long getContentLength() {
+				return ChunkBody.this.getContentLength();
+			}
+
+			@Override
+			public boolean isRepeatable() {
+				return true;
+			}
+
+			@Override
+			public boolean isStreaming() {
+				return false;
+			}
+		};
+		entity.setContentType(ContentType.APPLICATION_OCTET_STREAM.getMimeType());
+		entity.setChunked(getContentLength() < 0);
+		if (codec != ChunkCodec.IDENTITY) {
+			entity.setContentEncoding(codec.token());
+		}
+		return entity;
+	}
+
+	/**
+	 * A text part that carries this chunk's hex digest. It has to be added after
+	 * this body so it is written once the chunk bytes have gone out.
+	 */
+	public AbstractContentBody checksumBody() {
+		return new AbstractContentBody(ContentType.TEXT_PLAIN) {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				out.write(HexFormat.of().formatHex(digest()).getBytes(StandardCharsets.US_ASCII));
+			}
+
+			@Override
+			public String getFilename() {
+				return null;
+			}
+
+			@Override
+			public String getCharset() {
+				return StandardCharsets.US_ASCII.name();
+			}
+
+			@Override
+			public String getTransferEncoding() {
+				return "7bit";
+			}
+
+			@Override
+			public long getContentLength() {
+				return 2L * checksumAlgorithm.digestLength();
+			}
+		};
+	}
+
+	@Override
+	public String getFilename() {
+		return fileName;
+	}
+
+	@Override
+	public String getCharset() {
+		return null;
+	}
+
+	@Override
+	public String getTransferEncoding() {
+		return "binary";
+	}
+
+	@Override
+	public long getContentLength() {
+		// A coded chunk's size is only known once it is written.
+		return codec == ChunkCodec.IDENTITY ? length : -1;
+	}
+}
@@ -0,0 +1,100 @@
+package com.springframework.upload;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks a chunk size from what recent transfers achieved. Chunks are sized so
+ * one request takes about {@code targetMillis} at the measured per-request
+ * throughput: a fast link gets big chunks and pays less per-request overhead,
+ * a slow one small chunks. Failures shrink the size so a retry resends less.
+ * Sizes are powers of two, so they stay stable while throughput jitters, and
+ * are kept within the range the server last advertised.
+ */
+public class ChunkSizer {
+
+	public static final int DEFAULT_CHUNK_SIZE = 5 * 1024 * 1024;
+	public static final String MIN_HEADER = "X-Chunk-Size-Min";
+	public static final String MAX_HEADER = "X-Chunk-Size-Max";
+	private static final int MIN_CHUNK_SIZE = 64 * 1024;
+	private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+	private static final double SMOOTHING = 0.2;
+
+	private static final Map<String, ChunkSizer> SHARED = new ConcurrentHashMap<>();
+
+	private final long targetMillis;
+	private double bytesPerSecond = -1;
+	private double errorRate;
+	private long serverMin = 1;
+	private long serverMax = Integer.MAX_VALUE;
+
+	public ChunkSizer() {
+		this(2_000);
+	}
+
+	public ChunkSizer(long targetMillis) {
+		this.targetMillis = targetMillis;
+	}
+
+	/**
+	 * The sizer every transfer to {@code endpoint} shares, so what one measures
+	 * sizes the next however short-lived the uploader or downloader that made it.
+	 */
+	public static ChunkSizer shared(String endpoint) {
+		return SHARED.computeIfAbsent(endpoint, e -> new ChunkSizer());
+	}
+
+	/**
+	 * Takes the range the server advertised in {@link #MIN_HEADER} and
+	 * {@link #MAX_HEADER}; a missing or malformed bound leaves that one as it was.
+	 */
+	public synchronized void serverRange(String min, String max) {
+		long parsedMin = parse(min, serverMin);
+		long parsedMax = parse(max, serverMax);
+		if (parsedMin > 0 && parsedMin <= parsedMax) {
+			serverMin = parsedMin;
+			serverMax = parsedMax;
+		}
+	}
+
+	private static long parse(String value, long fallback) {
+		try {
+			return value != null ? Long.parseLong(value.trim()) : fallback;
+		} catch (NumberFormatException e) {
+			return fallback;
+		}
+	}
+
+	public synchronized void recordSuccess(long bytes, long nanos) {
+		if (nanos > 0) {
+			double sample = bytes * 1e9 / nanos;
+			bytesPerSecond = bytesPerSecond < 0 ? sample : bytesPerSecond + SMOOTHING * (sample - bytesPerSecond);
+		}
+		errorRate -= SMOOTHING * errorRate;
+	}
+
+	public synchronized void recordFailure() {
+		errorRate += SMOOTHING * (1 - errorRate);
+	}
+
+	/**
+	 * The size to ask for next, within {@code [min, max]}.
+	 */
+	public synchronized int next(long min, long max) {
+		if (bytesPerSecond < 0 && errorRate == 0) {
+			return (int) Math.max(min, Math.min(max, DEFAULT_CHUNK_SIZE));
+		}
+		double size = bytesPerSecond < 0 ? DEFAULT_CHUNK_SIZE : bytesPerSecond * targetMillis / 1000;
+		// At 25% failures the size halves; it never drops below an eighth.
+		size *= Math.max(0.125, 1 - 2 * errorRate);
+		long bounded = Long.highestOneBit(Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, (long) size)));
+		return (int) Math.max(min, Math.min(max, bounded));
+	}
+
+	/**
+	 * The size to ask for next, within the server's advertised range.
+	 */
+	public synchronized int next() {
+		return next(serverMin, serverMax);
+	}
+}
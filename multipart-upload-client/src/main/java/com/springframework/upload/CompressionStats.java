@@ -0,0 +1,34 @@
+package com.springframework.upload;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of chunk bytes before and after coding for one transfer direction.
+ */
+public class CompressionStats {
+
+	private final AtomicLong rawBytes = new AtomicLong();
+	private final AtomicLong wireBytes = new AtomicLong();
+
+	public void record(long raw, long wire) {
+		rawBytes.addAndGet(raw);
+		wireBytes.addAndGet(wire);
+	}
+
+	public long rawBytes() {
+		return rawBytes.get();
+	}
+
+	public long wireBytes() {
+		return wireBytes.get();
+	}
+
+	public long savedBytes() {
+		return rawBytes() - wireBytes();
+	}
+
+	@Override
+	public String toString() {
+		return "raw " + rawBytes() + " B, sent " + wireBytes() + " B, saved " + savedBytes() + " B";
+	}
+}
@@ -0,0 +1,273 @@
+package com.springframework.upload;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import com.springframework.protocol.RollingChecksum;
+
+/**
+ * Request body for {@code /{uploadId}/delta}: a file expressed against the
+ * {@link BlockSignature} of the version the server already has. The file is
+ * read once; a rolling checksum over a block-sized window looks for stored
+ * blocks at every offset, and matches are sent as block references
+ * ({@code 'C'}, first block and count, with runs of consecutive blocks
+ * merged) while everything in between goes out as literal bytes
+ * ({@code 'L'}, length and bytes). {@code 'E'} ends the delta.
+ * <p>
+ * The whole-file SHA-256 is taken on the same read, for {@code /complete}.
+ */
+public class DeltaBody extends AbstractHttpEntity {
+
+	private static final int MAX_LITERAL = 64 * 1024;
+	private static final int READ_SIZE = 1024 * 1024;
+
+	private final File file;
+	private final BlockSignature signature;
+	private byte[] lastFileDigest;
+	private long copiedBytes;
+	private long literalBytes;
+
+	public DeltaBody(File file, BlockSignature signature) {
+		this.file = file;
+		this.signature = signature;
+		setContentType(ContentType.APPLICATION_OCTET_STREAM.getMimeType());
+		setChunked(true);
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		lastFileDigest = null;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			Encoder encoder = new Encoder(channel, new DataOutputStream(out));
+			encoder.run();
+			copiedBytes = encoder.copiedBytes;
+			literalBytes = encoder.literalBytes;
+			lastFileDigest = encoder.fileDigest.digest();
+		}
+	}
+
+	/**
+	 * SHA-256 of the file as the last complete {@link #writeTo} read it.
+	 */
+	public byte[] fileDigest() {
+		if (lastFileDigest == null) {
+			throw new IllegalStateException("Delta has not been written yet");
+		}
+		return lastFileDigest;
+	}
+
+	/**
+	 * Bytes the last delta took from the stored version.
+	 */
+	public long copiedBytes() {
+		return copiedBytes;
+	}
+
+	/**
+	 * Bytes the last delta sent as they are.
+	 */
+	public long literalBytes() {
+		return literalBytes;
+	}
+
+	/**
+	 * The delta as {@link #writeTo} sends it, without touching the results of
+	 * the last send.
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		return PipedContent.open("delta-content", out -> {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				new Encoder(channel, new DataOutputStream(out)).run();
+			}
+		});
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+	/**
+	 * One pass over the file. {@code buffer[start, pos)} holds literal bytes
+	 * not yet sent and {@code buffer[pos, pos + blockSize)} is the window being
+	 * matched; the buffer is compacted and refilled as the window reaches its end.
+	 */
+	private final class Encoder {
+
+		private final FileChannel channel;
+		private final DataOutputStream out;
+		private final int blockSize = signature.blockSize();
+		private final byte[] buffer;
+		private final MessageDigest fileDigest = sha256();
+		private final MessageDigest blockDigest = sha256();
+		private long readPosition;
+		private boolean eof;
+		private int start;
+		private int pos;
+		private int limit;
+		private int copyFirst = -1;
+		private int copyCount;
+		private long copiedBytes;
+		private long literalBytes;
+
+		Encoder(FileChannel channel, DataOutputStream out) {
+			this.channel = channel;
+			this.out = out;
+			this.buffer = new byte[Math.max(READ_SIZE, 2 * (blockSize + MAX_LITERAL))];
+		}
+
+		void run() throws IOException {
+			out.writeInt(blockSize);
+			RollingChecksum rolling = null;
+			while (true) {
+				if (limit - pos < blockSize) {
+					if (eof) {
+						break;
+					}
+					fill();
+					continue;
+				}
+				if (rolling == null) {
+					rolling = new RollingChecksum(buffer, pos, blockSize);
+				}
+				int block = match(rolling.value());
+				if (block >= 0) {
+					flushLiteral();
+					addCopy(block);
+					pos += blockSize;
+					start = pos;
+					rolling = null;
+					continue;
+				}
+				if (pos + blockSize == limit && !eof) {
+					fill();
+				}
+				if (pos + blockSize == limit) {
+					break;
+				}
+				rolling.roll(buffer[pos], buffer[pos + blockSize]);
+				pos++;
+				if (pos - start >= MAX_LITERAL) {
+					flushLiteral();
+				}
+			}
+			// The tail is shorter than a block, or the last window did not match.
+			pos = limit;
+			flushLiteral();
+			flushCopy();
+			out.writeByte('E');
+			out.flush();
+		}
+
+		/**
+		 * Stored block the window at {@code pos} matches, or -1. The block after
+		 * the last one matched is tried first so runs stay together.
+		 */
+		private int match(int weak) {
+			int[] candidates = signature.candidates(weak);
+			if (candidates == null) {
+				return -1;
+			}
+			blockDigest.update(buffer, pos, blockSize);
+			byte[] strong = blockDigest.digest();
+			int next = copyFirst >= 0 ? copyFirst + copyCount : -1;
+			int found = -1;
+			for (int block : candidates) {
+				if (signature.strongMatches(block, strong)) {
+					if (block == next) {
+						return block;
+					}
+					if (found < 0) {
+						found = block;
+					}
+				}
+			}
+			return found;
+		}
+
+		private void addCopy(int block) throws IOException {
+			if (copyFirst >= 0 && block == copyFirst + copyCount) {
+				copyCount++;
+			} else {
+				flushCopy();
+				copyFirst = block;
+				copyCount = 1;
+			}
+			copiedBytes += blockSize;
+		}
+
+		private void flushCopy() throws IOException {
+			if (copyFirst >= 0) {
+				out.writeByte('C');
+				out.writeInt(copyFirst);
+				out.writeInt(copyCount);
+				copyFirst = -1;
+				copyCount = 0;
+			}
+		}
+
+		private void flushLiteral() throws IOException {
+			if (pos > start) {
+				flushCopy();
+				out.writeByte('L');
+				out.writeInt(pos - start);
+				out.write(buffer, start, pos - start);
+				literalBytes += pos - start;
+				start = pos;
+			}
+		}
+
+		/**
+		 * Moves the unsent bytes to the front of the buffer and reads on until it
+		 * is full or the file ends.
+		 */
+		private void fill() throws IOException {
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, limit - start);
+				pos -= start;
+				limit -= start;
+				start = 0;
+			}
+			while (limit < buffer.length) {
+				int read = channel.read(ByteBuffer.wrap(buffer, limit, buffer.length - limit), readPosition);
+				if (read < 0) {
+					eof = true;
+					return;
+				}
+				fileDigest.update(buffer, limit, read);
+				limit += read;
+				readPosition += read;
+			}
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
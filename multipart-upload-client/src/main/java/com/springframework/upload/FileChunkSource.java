@@ -0,0 +1,138 @@
+package com.springframework.upload;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChunkCodec;
+import com.springframework.protocol.ChunkManifest;
+import com.springframework.protocol.TreeHash;
+
+/**
+ * Cuts a file into fixed-size chunks backed by positional reads on a single
+ * channel. Memory use does not depend on the file size, and files larger than
+ * 2 GB are fine since all offsets are longs. A SHA-256 of the whole file is
+ * fed from the chunk reads; a {@link ChecksumAlgorithm#SHA_256_TREE} one is
+ * computed at the end on every core instead.
+ */
+public class FileChunkSource implements Closeable {
+
+	private final File file;
+	private final FileChannel channel;
+	private final long size;
+	private final int chunkSize;
+	private final ChecksumAlgorithm chunkAlgorithm;
+	private final ChecksumAlgorithm fileAlgorithm;
+	private final SequentialDigest fileDigest;
+	private final byte[][] chunkDigests;
+
+	public FileChunkSource(File file, int chunkSize) throws IOException, NoSuchAlgorithmException {
+		this(file, chunkSize, ChecksumAlgorithm.SHA_256, ChecksumAlgorithm.SHA_256);
+	}
+
+	/**
+	 * @param chunkAlgorithm checksum of each chunk
+	 * @param fileAlgorithm checksum of the whole file, {@code SHA_256} or {@code SHA_256_TREE}
+	 */
+	public FileChunkSource(File file, int chunkSize, ChecksumAlgorithm chunkAlgorithm,
+			ChecksumAlgorithm fileAlgorithm) throws IOException, NoSuchAlgorithmException {
+		if (fileAlgorithm != ChecksumAlgorithm.SHA_256 && fileAlgorithm != ChecksumAlgorithm.SHA_256_TREE) {
+			throw new IllegalArgumentException("Unsupported file checksum: " + fileAlgorithm.token());
+		}
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.size = channel.size();
+		this.chunkSize = chunkSize;
+		this.chunkAlgorithm = chunkAlgorithm;
+		this.fileAlgorithm = fileAlgorithm;
+		this.fileDigest = fileAlgorithm == ChecksumAlgorithm.SHA_256 ? new SequentialDigest("SHA-256") : null;
+		this.chunkDigests = new byte[totalChunks()][];
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public int totalChunks() {
+		return (int) ((size + chunkSize - 1) / chunkSize);
+	}
+
+	public long offset(int chunkIndex) {
+		return (long) chunkIndex * chunkSize;
+	}
+
+	public long length(int chunkIndex) {
+		return Math.min(chunkSize, size - offset(chunkIndex));
+	}
+
+	/**
+	 * A fresh body for the given chunk. Bodies feed the whole-file digest as they are written.
+	 */
+	public ChunkBody chunk(int chunkIndex) throws NoSuchAlgorithmException {
+		return chunk(chunkIndex, ChunkCodec.IDENTITY);
+	}
+
+	public ChunkBody chunk(int chunkIndex, ChunkCodec codec) throws NoSuchAlgorithmException {
+		return new ChunkBody(channel, offset(chunkIndex), length(chunkIndex), file.getName() + ".part" + chunkIndex,
+				fileDigest, codec, chunkAlgorithm);
+	}
+
+	/**
+	 * Whether a sample from the start of the chunk compresses well enough to send it coded.
+	 */
+	public boolean compressible(int chunkIndex) throws IOException {
+		ByteBuffer sample = ByteBuffer.allocate((int) Math.min(ChunkCodec.SAMPLE_SIZE, length(chunkIndex)));
+		while (sample.hasRemaining() && channel.read(sample, offset(chunkIndex) + sample.position()) > 0) {
+		}
+		return ChunkCodec.worthCompressing(sample.array(), sample.position());
+	}
+
+	public ChecksumAlgorithm fileChecksumAlgorithm() {
+		return fileAlgorithm;
+	}
+
+	/**
+	 * Checksum of the whole file. A SHA-256 reuses everything the chunk reads
+	 * already hashed; a tree hash reads the file again on the fork/join pool.
+	 */
+	public String fileChecksum() throws IOException {
+		if (fileDigest == null) {
+			return HexFormat.of().formatHex(TreeHash.parallel(channel, size));
+		}
+		return fileDigest.finish(channel, size);
+	}
+
+	/**
+	 * Records the digest of a chunk the server accepted, for {@link #manifestChecksum()}.
+	 */
+	public void recordDigest(int chunkIndex, byte[] digest) {
+		synchronized (chunkDigests) {
+			chunkDigests[chunkIndex] = digest;
+		}
+	}
+
+	/**
+	 * {@link ChunkManifest} over the recorded chunk digests; every chunk must have been recorded.
+	 */
+	public String manifestChecksum() {
+		synchronized (chunkDigests) {
+			for (int i = 0; i < chunkDigests.length; i++) {
+				if (chunkDigests[i] == null) {
+					throw new IllegalStateException("No digest recorded for chunk " + i);
+				}
+			}
+			return ChunkManifest.compose(chunkDigests);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
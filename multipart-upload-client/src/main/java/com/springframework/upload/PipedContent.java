@@ -0,0 +1,71 @@
+package com.springframework.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The bytes a request body writes, as a stream, for callers that read an
+ * entity instead of having it write itself: retry handlers, wrapping entities,
+ * logging. The body is written on its own thread into a small pipe, so it is
+ * no more held in memory than when it is sent. A failure while writing is
+ * thrown by the stream once the bytes before it have been read.
+ */
+final class PipedContent {
+
+	private static final int PIPE_SIZE = 64 * 1024;
+
+	@FunctionalInterface
+	interface Writer {
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	private PipedContent() {
+	}
+
+	static InputStream open(String name, Writer writer) throws IOException {
+		AtomicReference<IOException> failure = new AtomicReference<>();
+		PipedInputStream in = new PipedInputStream(PIPE_SIZE) {
+			@Override
+			public synchronized int read() throws IOException {
+				return checked(super.read());
+			}
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) throws IOException {
+				return checked(super.read(b, off, len));
+			}
+
+			private int checked(int read) throws IOException {
+				IOException e = failure.get();
+				if (read < 0 && e != null) {
+					throw e;
+				}
+				return read;
+			}
+		};
+		PipedOutputStream out = new PipedOutputStream(in);
+		Thread thread = new Thread(() -> {
+			try {
+				writer.writeTo(out);
+			} catch (IOException e) {
+				failure.set(e);
+			} catch (RuntimeException e) {
+				failure.set(new IOException(e));
+			} finally {
+				// Set before closing, so the reader sees the failure with the end of the stream.
+				try {
+					out.close();
+				} catch (IOException ignored) {
+					// The reader went away.
+				}
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+		return in;
+	}
+}
@@ -0,0 +1,51 @@
+package com.springframework.upload;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter: attempt {@code n} waits a random time
+ * up to {@code min(maxDelay, initialDelay * 2^(n-1))}.
+ */
+public class RetryPolicy {
+
+	private final int maxAttempts;
+	private final long initialDelayMillis;
+	private final long maxDelayMillis;
+
+	public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1");
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	public static RetryPolicy defaults() {
+		return new RetryPolicy(5, 200, 10_000);
+	}
+
+	public int maxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Delay before retrying after the given (1-based) failed attempt.
+	 */
+	public long backoffMillis(int failedAttempt) {
+		long ceiling = initialDelayMillis << Math.min(failedAttempt - 1, 20);
+		ceiling = Math.min(maxDelayMillis, ceiling);
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * Delay before retrying after {@code failure}: the server's
+	 * {@code Retry-After} if it sent one, otherwise {@link #backoffMillis}.
+	 */
+	public long delayMillis(int failedAttempt, Exception failure) {
+		if (failure instanceof ServerBusyException busy && busy.retryAfterMillis() >= 0) {
+			return busy.retryAfterMillis();
+		}
+		return backoffMillis(failedAttempt);
+	}
+}
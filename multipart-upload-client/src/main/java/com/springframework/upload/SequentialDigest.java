@@ -0,0 +1,109 @@
+package com.springframework.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Whole-file digest fed from chunk reads as they happen. Bytes are hashed in
+ * file order, so a retried chunk is never hashed twice. Bytes offered ahead of
+ * that order, as chunks sent in parallel are, wait in a bounded window until
+ * the gap before them is filled; whatever did not fit is caught up in
+ * {@link #finish}, which then reads only that part of the file again.
+ */
+public class SequentialDigest {
+
+	/**
+	 * Enough to hold the chunks ahead of the slowest one at the default chunk
+	 * size and a parallelism of 4.
+	 */
+	public static final long DEFAULT_WINDOW = 32L * 1024 * 1024;
+
+	private final MessageDigest digest;
+	private final long window;
+	private final TreeMap<Long, byte[]> ahead = new TreeMap<>();
+	private long aheadBytes;
+	private long position;
+
+	public SequentialDigest(String algorithm) throws NoSuchAlgorithmException {
+		this(algorithm, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * @param window most bytes held while they wait for the ones before them
+	 */
+	public SequentialDigest(String algorithm, long window) throws NoSuchAlgorithmException {
+		this.digest = MessageDigest.getInstance(algorithm);
+		this.window = window;
+	}
+
+	/**
+	 * Offers bytes read at {@code offset}. The buffer's position is not changed.
+	 */
+	public synchronized void update(long offset, ByteBuffer data) {
+		long end = offset + data.remaining();
+		if (end <= position) {
+			return;
+		}
+		if (offset > position) {
+			if (aheadBytes + data.remaining() <= window && !ahead.containsKey(offset)) {
+				byte[] copy = new byte[data.remaining()];
+				data.duplicate().get(copy);
+				ahead.put(offset, copy);
+				aheadBytes += copy.length;
+			}
+			return;
+		}
+		ByteBuffer slice = data.duplicate();
+		slice.position(slice.position() + (int) (position - offset));
+		digest.update(slice);
+		position = end;
+		drain();
+	}
+
+	/**
+	 * Hashes the held bytes the file order has reached.
+	 */
+	private void drain() {
+		Map.Entry<Long, byte[]> next;
+		while ((next = ahead.firstEntry()) != null && next.getKey() <= position) {
+			ahead.pollFirstEntry();
+			byte[] data = next.getValue();
+			aheadBytes -= data.length;
+			long end = next.getKey() + data.length;
+			if (end > position) {
+				int skip = (int) (position - next.getKey());
+				digest.update(data, skip, data.length - skip);
+				position = end;
+			}
+		}
+	}
+
+	/**
+	 * Hashes whatever part of the file was neither offered in order nor held,
+	 * reading it from {@code channel}, and returns the hex digest.
+	 */
+	public synchronized String finish(FileChannel channel, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		drain();
+		while (position < size) {
+			Long held = ahead.ceilingKey(position);
+			long gapEnd = held != null ? Math.min(held, size) : size;
+			buffer.clear().limit((int) Math.min(buffer.capacity(), gapEnd - position));
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of file at " + position);
+			}
+			buffer.flip();
+			digest.update(buffer);
+			position += read;
+			drain();
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+}
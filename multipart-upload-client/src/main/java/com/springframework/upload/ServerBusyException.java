@@ -0,0 +1,40 @@
+package com.springframework.upload;
+
+import java.io.IOException;
+
+/**
+ * The server turned a request away for now (429 or 503), optionally saying
+ * how long to wait in {@code Retry-After}.
+ */
+public class ServerBusyException extends IOException {
+
+	private final long retryAfterMillis;
+
+	public ServerBusyException(int status, String retryAfter) {
+		super("Server busy (" + status + ")" + (retryAfter != null ? ", retry after " + retryAfter + " s" : ""));
+		this.retryAfterMillis = parseRetryAfter(retryAfter);
+	}
+
+	public static boolean isBusy(int status) {
+		return status == 429 || status == 503;
+	}
+
+	/**
+	 * The server's hint in milliseconds, or -1 if it gave none.
+	 */
+	public long retryAfterMillis() {
+		return retryAfterMillis;
+	}
+
+	private static long parseRetryAfter(String retryAfter) {
+		if (retryAfter == null) {
+			return -1;
+		}
+		try {
+			return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+		} catch (NumberFormatException e) {
+			// An HTTP-date; fall back to our own backoff.
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.springframework.upload;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Per-chunk meters for one transfer direction, named like the service's so
+ * both ends can be read side by side: {@code transfer.chunk.latency} per
+ * request and outcome, {@code transfer.chunk.retries}, and
+ * {@code transfer.bytes} / {@code transfer.wire.bytes} for throughput.
+ */
+public class TransferMetrics {
+
+	private final Timer success;
+	private final Timer failure;
+	private final Counter retries;
+	private final Counter rawBytes;
+	private final Counter wireBytes;
+
+	public TransferMetrics(MeterRegistry registry, String direction) {
+		this.success = latency(registry, direction, "success");
+		this.failure = latency(registry, direction, "failure");
+		this.retries = Counter.builder("transfer.chunk.retries")
+				.description("Chunk requests that were retried")
+				.tag("direction", direction)
+				.register(registry);
+		this.rawBytes = Counter.builder("transfer.bytes")
+				.baseUnit("bytes")
+				.tag("direction", direction)
+				.register(registry);
+		this.wireBytes = Counter.builder("transfer.wire.bytes")
+				.baseUnit("bytes")
+				.tag("direction", direction)
+				.register(registry);
+	}
+
+	private static Timer latency(MeterRegistry registry, String direction, String outcome) {
+		return Timer.builder("transfer.chunk.latency")
+				.description("Time for one chunk request, from sending it to having its bytes")
+				.tag("direction", direction)
+				.tag("outcome", outcome)
+				.register(registry);
+	}
+
+	public void chunkDone(long nanos, long rawBytes, long wireBytes) {
+		success.record(nanos, TimeUnit.NANOSECONDS);
+		this.rawBytes.increment(rawBytes);
+		this.wireBytes.increment(wireBytes);
+	}
+
+	public void chunkFailed(long nanos) {
+		failure.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void retried() {
+		retries.increment();
+	}
+}
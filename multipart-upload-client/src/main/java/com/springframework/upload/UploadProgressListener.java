@@ -0,0 +1,14 @@
+package com.springframework.upload;
+
+/**
+ * Called after every chunk the server acknowledged. Calls may come from several
+ * upload threads at once.
+ */
+@FunctionalInterface
+public interface UploadProgressListener {
+
+	void onProgress(UploadProgress progress);
+
+	record UploadProgress(int chunksDone, int totalChunks, long bytesSent, long totalBytes, double bytesPerSecond) {
+	}
+}
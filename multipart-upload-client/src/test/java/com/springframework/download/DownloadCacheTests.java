@@ -0,0 +1,131 @@
+package com.springframework.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+class DownloadCacheTests {
+
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	@TempDir
+	Path tempDir;
+
+	private HttpServer server;
+	private byte[] content;
+	private final AtomicInteger chunkRequests = new AtomicInteger();
+
+	@BeforeEach
+	void startServer() throws Exception {
+		content = new byte[3 * CHUNK_SIZE + 12_345];
+		new Random(1).nextBytes(content);
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/files/manifest", exchange -> {
+			String checksum = sha256(content);
+			exchange.getResponseHeaders().add("ETag", "\"" + checksum + "\"");
+			if (("\"" + checksum + "\"").equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+			List<String> chunkChecksums = new ArrayList<>();
+			for (int offset = 0; offset < content.length; offset += CHUNK_SIZE) {
+				chunkChecksums.add(sha256(Arrays.copyOfRange(content, offset, Math.min(content.length, offset + CHUNK_SIZE))));
+			}
+			byte[] body = new ObjectMapper().writeValueAsBytes(Map.of("fileSize", content.length, "chunkSize",
+					CHUNK_SIZE, "checksum", checksum, "chunkChecksums", chunkChecksums));
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.createContext("/files/chunkWithMeta", exchange -> {
+			chunkRequests.incrementAndGet();
+			Map<?, ?> body = new ObjectMapper().readValue(exchange.getRequestBody(), Map.class);
+			int offset = ((Number) body.get("offset")).intValue();
+			int length = Math.min(CHUNK_SIZE, content.length - offset);
+			exchange.getResponseHeaders().add("X-File-Size", String.valueOf(content.length));
+			exchange.getResponseHeaders().add("X-Chunk-Size", String.valueOf(CHUNK_SIZE));
+			exchange.sendResponseHeaders(200, length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(content, offset, length);
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	void revalidatesAndRefetchesOnlyChangedChunks() throws Exception {
+		DownloadCache cache = new DownloadCache(tempDir.toFile(),
+				new ParallelChunkDownloader(serverUrl()).withChunkSize(CHUNK_SIZE));
+
+		File first = cache.fetch("bucket", "data.bin");
+		assertArrayEquals(content, Files.readAllBytes(first.toPath()));
+		assertEquals(4, chunkRequests.get());
+
+		// Current copy: one manifest request answered with 304, no chunks.
+		cache.fetch("bucket", "data.bin");
+		assertEquals(4, chunkRequests.get());
+
+		content[CHUNK_SIZE + 7] ^= 1;
+		File second = cache.fetch("bucket", "data.bin");
+		assertArrayEquals(content, Files.readAllBytes(second.toPath()));
+		assertEquals(5, chunkRequests.get());
+	}
+
+	@Test
+	void locallyModifiedCopyIsFetchedInFullWhenReusingItFails() throws Exception {
+		DownloadCache cache = new DownloadCache(tempDir.toFile(),
+				new ParallelChunkDownloader(serverUrl()).withChunkSize(CHUNK_SIZE));
+		File copy = cache.fetch("bucket", "data.bin");
+
+		// Same length, so only the chunks reused from it can tell.
+		byte[] modified = Files.readAllBytes(copy.toPath());
+		modified[5] ^= 1;
+		Files.write(copy.toPath(), modified);
+		content[CHUNK_SIZE + 7] ^= 1;
+
+		File refetched = cache.fetch("bucket", "data.bin");
+		assertArrayEquals(content, Files.readAllBytes(refetched.toPath()));
+		assertEquals(4 + 1 + 4, chunkRequests.get());
+	}
+
+	private String serverUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/files";
+	}
+
+	private static String sha256(byte[] data) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
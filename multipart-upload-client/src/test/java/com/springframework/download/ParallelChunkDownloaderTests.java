@@ -0,0 +1,149 @@
+package com.springframework.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+class ParallelChunkDownloaderTests {
+
+	private static final int CHUNK_SIZE = 5 * 1024 * 1024;
+
+	@TempDir
+	Path tempDir;
+
+	private HttpServer server;
+	private byte[] content;
+	private volatile boolean sendChecksum = true;
+
+	@BeforeEach
+	void startServer() throws Exception {
+		content = new byte[2 * CHUNK_SIZE + 12_345];
+		new Random(1).nextBytes(content);
+		String checksum = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/files/chunkWithMeta", exchange -> {
+			Map<?, ?> body = new ObjectMapper().readValue(exchange.getRequestBody(), Map.class);
+			int chunkSize = body.get("length") != null ? ((Number) body.get("length")).intValue() : CHUNK_SIZE;
+			int offset = body.get("offset") != null ? ((Number) body.get("offset")).intValue()
+					: ((Number) body.get("chunkIndex")).intValue() * chunkSize;
+			int length = Math.min(chunkSize, content.length - offset);
+
+			exchange.getResponseHeaders().add("X-File-Size", String.valueOf(content.length));
+			exchange.getResponseHeaders().add("X-Chunk-Size", String.valueOf(chunkSize));
+			exchange.getResponseHeaders().add("X-File-Name", "data.bin");
+			if (sendChecksum && offset + length >= content.length) {
+				exchange.getResponseHeaders().add("X-Expected-Checksum", checksum);
+			}
+			exchange.sendResponseHeaders(200, length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(content, offset, length);
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	void downloadsChunksInParallelIntoTarget() throws Exception {
+		File target = tempDir.resolve("data.bin").toFile();
+
+		new ParallelChunkDownloader(serverUrl()).withParallelism(3).download("bucket", "data.bin", target);
+
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+		assertFalse(new File(target.getPath() + ".chunks").exists());
+		assertFalse(new File(target.getPath() + ".part").exists());
+	}
+
+	@Test
+	void usesTheRequestedChunkSize() throws Exception {
+		File target = tempDir.resolve("data.bin").toFile();
+
+		new ParallelChunkDownloader(serverUrl()).withChunkSize(1024 * 1024).withParallelism(4)
+				.download("bucket", "data.bin", target);
+
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	void resumesFromSidecarBitmap() throws Exception {
+		File target = tempDir.resolve("data.bin").toFile();
+		File partFile = new File(target.getPath() + ".part");
+
+		// Simulate a crash after chunk 1 landed: only chunk 1 is on disk and recorded.
+		byte[] partial = new byte[content.length];
+		System.arraycopy(content, CHUNK_SIZE, partial, CHUNK_SIZE, CHUNK_SIZE);
+		Files.write(partFile.toPath(), partial);
+		ChunkBitmap.create(new File(target.getPath() + ".chunks"), content.length, CHUNK_SIZE).markDone(1);
+
+		new ParallelChunkDownloader(serverUrl()).download("bucket", "data.bin", target);
+
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+	}
+
+	@Test
+	void streamsChunksInOrderWithinTheBuffer() throws Exception {
+		ParallelChunkDownloader downloader = new ParallelChunkDownloader(serverUrl()).withChunkSize(1024 * 1024)
+				.withParallelism(4).withStreamBuffer(3 * 1024 * 1024);
+
+		try (ChunkStream stream = downloader.open("bucket", "data.bin")) {
+			assertArrayEquals(content, stream.readAllBytes());
+			assertEquals(-1, stream.read());
+		}
+	}
+
+	@Test
+	void streamFailsAtTheEndOnChecksumMismatch() throws Exception {
+		// The server's checksum was taken before this change.
+		content[CHUNK_SIZE + 1] ^= 1;
+		try (ChunkStream stream = new ParallelChunkDownloader(serverUrl()).open("bucket", "data.bin")) {
+			assertThrows(IOException.class, stream::readAllBytes);
+		}
+	}
+
+	@Test
+	void downloadFailsWhenTheServerSendsNoChecksum() throws Exception {
+		sendChecksum = false;
+		File target = tempDir.resolve("data.bin").toFile();
+
+		assertThrows(IOException.class,
+				() -> new ParallelChunkDownloader(serverUrl()).download("bucket", "data.bin", target));
+		assertFalse(target.exists());
+	}
+
+	@Test
+	void streamFailsAtTheEndWhenTheServerSendsNoChecksum() throws Exception {
+		sendChecksum = false;
+		try (ChunkStream stream = new ParallelChunkDownloader(serverUrl()).open("bucket", "data.bin")) {
+			assertThrows(IOException.class, stream::readAllBytes);
+		}
+	}
+
+	private String serverUrl() {
+		return "http://localhost:" + server.getAddress().getPort() + "/files";
+	}
+}
@@ -0,0 +1,55 @@
+package com.springframework.upload;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChunkCodec;
+
+class ChunkBodyTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void contentIsWhatWouldBeWrittenAndLeavesTheDigestAlone() throws Exception {
+		byte[] data = "id,status\n1,200\n".repeat(10_000).getBytes(StandardCharsets.US_ASCII);
+		ChunkBody chunk = new ChunkBody(data, data.length, "part", ChunkCodec.GZIP, ChecksumAlgorithm.SHA_256);
+		HttpEntity entity = chunk.asEntity();
+
+		byte[] read;
+		try (InputStream in = entity.getContent()) {
+			read = in.readAllBytes();
+		}
+		assertThrows(IllegalStateException.class, chunk::digest);
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		entity.writeTo(written);
+		assertArrayEquals(written.toByteArray(), read);
+	}
+
+	@Test
+	void batchContentIsWhatWouldBeWritten() throws Exception {
+		File a = Files.writeString(tempDir.resolve("a.txt"), "first").toFile();
+		File b = Files.writeString(tempDir.resolve("b.txt"), "second file").toFile();
+		BatchBody batch = new BatchBody(List.of(a, b));
+
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		batch.writeTo(written);
+		try (InputStream in = batch.getContent()) {
+			assertArrayEquals(written.toByteArray(), in.readAllBytes());
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.springframework.upload;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ChunkSizerTests {
+
+	@Test
+	void sizeFollowsThroughputAndShrinksOnFailures() {
+		ChunkSizer sizer = new ChunkSizer(1_000);
+		assertEquals(ChunkSizer.DEFAULT_CHUNK_SIZE, sizer.next());
+
+		// 16 MiB in one second
+		sizer.recordSuccess(16 * 1024 * 1024, 1_000_000_000L);
+		assertEquals(16 * 1024 * 1024, sizer.next());
+		assertEquals(10 * 1024 * 1024, sizer.next(1, 10 * 1024 * 1024));
+
+		sizer.recordFailure();
+		sizer.recordFailure();
+		assertTrue(sizer.next() < 16 * 1024 * 1024);
+	}
+
+	@Test
+	void serverRangeWins() {
+		ChunkSizer sizer = new ChunkSizer(1_000);
+		sizer.recordSuccess(1024, 1_000_000_000L);
+		assertEquals(64 * 1024, sizer.next());
+		assertEquals(5 * 1024 * 1024, sizer.next(5 * 1024 * 1024, 32 * 1024 * 1024));
+	}
+
+	@Test
+	void advertisedRangeBoundsTheSizeOfEveryTransferToTheEndpoint() {
+		ChunkSizer sizer = ChunkSizer.shared("http://sizer-test/api/upload");
+		assertSame(sizer, ChunkSizer.shared("http://sizer-test/api/upload"));
+
+		sizer.serverRange("65536", "1048576");
+		assertEquals(1024 * 1024, sizer.next());
+		sizer.serverRange(null, "not a number");
+		assertEquals(1024 * 1024, sizer.next());
+	}
+}
@@ -0,0 +1,83 @@
+package com.springframework.upload;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileChunkSourceTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void streamsChunksAndHashesFileInOnePass() throws Exception {
+		byte[] content = new byte[250_000];
+		new Random(42).nextBytes(content);
+		File file = Files.write(tempDir.resolve("data.bin"), content).toFile();
+
+		try (FileChunkSource source = new FileChunkSource(file, 100_000)) {
+			assertEquals(3, source.totalChunks());
+
+			for (int i = 0; i < source.totalChunks(); i++) {
+				ChunkBody chunk = source.chunk(i);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				chunk.writeTo(out);
+				// a retry must produce the same bytes without double-feeding the file digest
+				out.reset();
+				chunk.writeTo(out);
+
+				byte[] expected = Arrays.copyOfRange(content, (int) source.offset(i),
+						(int) (source.offset(i) + source.length(i)));
+				assertArrayEquals(expected, out.toByteArray());
+				assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(expected), chunk.digest());
+			}
+
+			String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+			assertEquals(expected, source.fileChecksum());
+		}
+	}
+
+	@Test
+	void catchesUpOnBytesNotSentInOrder() throws Exception {
+		byte[] content = new byte[30_000];
+		new Random(7).nextBytes(content);
+		File file = Files.write(tempDir.resolve("data.bin"), content).toFile();
+
+		try (FileChunkSource source = new FileChunkSource(file, 10_000)) {
+			source.chunk(2).writeTo(new ByteArrayOutputStream());
+			source.chunk(0).writeTo(new ByteArrayOutputStream());
+
+			String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+			assertEquals(expected, source.fileChecksum());
+		}
+	}
+
+	@Test
+	void chunksSentAheadAreHeldSoTheFileIsNotReadAgain() throws Exception {
+		byte[] content = new byte[30_000];
+		new Random(9).nextBytes(content);
+		Path path = Files.write(tempDir.resolve("data.bin"), content);
+
+		try (FileChunkSource source = new FileChunkSource(path.toFile(), 10_000)) {
+			source.chunk(2).writeTo(new ByteArrayOutputStream());
+			source.chunk(1).writeTo(new ByteArrayOutputStream());
+			source.chunk(0).writeTo(new ByteArrayOutputStream());
+
+			// Any read to catch up would now hit the end of the file.
+			Files.write(path, new byte[0]);
+			String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+			assertEquals(expected, source.fileChecksum());
+		}
+	}
+}
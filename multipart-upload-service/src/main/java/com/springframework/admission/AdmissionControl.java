@@ -0,0 +1,99 @@
+package com.springframework.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Global budgets that keep a burst of uploads from exhausting threads, file
+ * descriptors and disk bandwidth: bytes being read or written by chunk
+ * requests, and upload sessions open at once. Work over budget is turned
+ * away with a {@code Retry-After} hint instead of queueing on the server.
+ */
+@Component
+public class AdmissionControl {
+
+	private final long maxInFlightBytes;
+	private final int maxSessions;
+	private final long defaultRequestBytes;
+	private final int retryAfterSeconds;
+	private final AtomicLong inFlightBytes = new AtomicLong();
+	private final AtomicInteger openSessions = new AtomicInteger();
+
+	public AdmissionControl(@Value("${admission.max-in-flight-bytes:268435456}") long maxInFlightBytes,
+			@Value("${admission.max-sessions:256}") int maxSessions,
+			@Value("${admission.default-request-bytes:5242880}") long defaultRequestBytes,
+			@Value("${admission.retry-after-seconds:1}") int retryAfterSeconds) {
+		this.maxInFlightBytes = maxInFlightBytes;
+		this.maxSessions = maxSessions;
+		this.defaultRequestBytes = defaultRequestBytes;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	/**
+	 * Reserves {@code bytes} of the in-flight budget, or a default chunk's worth
+	 * if the size is unknown. Returns the bytes reserved, to be passed to
+	 * {@link #release}, or -1 if the budget is spent. A request is always let in
+	 * when nothing else is in flight, however large it is.
+	 */
+	public long tryAcquire(long bytes) {
+		long charge = bytes >= 0 ? bytes : defaultRequestBytes;
+		while (true) {
+			long current = inFlightBytes.get();
+			if (current > 0 && current + charge > maxInFlightBytes) {
+				return -1;
+			}
+			if (inFlightBytes.compareAndSet(current, current + charge)) {
+				return charge;
+			}
+		}
+	}
+
+	public void release(long reserved) {
+		inFlightBytes.addAndGet(-reserved);
+	}
+
+	/**
+	 * Reserves a slot for a new upload session, or returns false if every slot
+	 * is taken. Checking and taking the slot are one step, so concurrent first
+	 * chunks cannot all get past a budget that has room for one of them. The
+	 * slot is given back with {@link #sessionClosed}.
+	 */
+	public boolean tryOpenSession() {
+		while (true) {
+			int current = openSessions.get();
+			if (current >= maxSessions) {
+				return false;
+			}
+			if (openSessions.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Takes a slot for a session that was admitted before, e.g. one reloaded
+	 * after it went idle, even if the budget is spent meanwhile.
+	 */
+	public void sessionOpened() {
+		openSessions.incrementAndGet();
+	}
+
+	public void sessionClosed() {
+		openSessions.decrementAndGet();
+	}
+
+	public int openSessions() {
+		return openSessions.get();
+	}
+
+	public long inFlightBytes() {
+		return inFlightBytes.get();
+	}
+
+	public int retryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
@@ -0,0 +1,66 @@
+package com.springframework.admission;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Charges chunk, batch and delta uploads and downloads against the in-flight
+ * byte budget before they reach a controller, so an over-budget multipart
+ * request is rejected before it is parsed or spooled. Uploads are charged
+ * their {@code Content-Length}, or a default chunk's worth when it is not
+ * known up front, as for deltas; downloads a default chunk's worth.
+ */
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+
+	private static final AntPathMatcher PATHS = new AntPathMatcher();
+
+	private final AdmissionControl admission;
+
+	public AdmissionFilter(AdmissionControl admission) {
+		this.admission = admission;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		String method = request.getMethod();
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		return !(("POST".equals(method) && (path.equals("/api/upload/chunk") || path.equals("/api/upload/batch")))
+				|| ("PUT".equals(method) && (PATHS.match("/api/upload/*/chunks/*", path)
+						|| PATHS.match("/api/upload/*/delta", path)))
+				|| ("POST".equals(method) && path.equals("/files/chunkWithMeta"))
+				|| path.equals("/files/stream"));
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		long bytes = request.getRequestURI().contains("/api/upload/") ? request.getContentLengthLong() : -1;
+		long reserved = admission.tryAcquire(bytes);
+		if (reserved < 0) {
+			response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+			response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(admission.retryAfterSeconds()));
+			response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+			response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+			response.getWriter().write("❌ Server is busy, retry later.");
+			return;
+		}
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			admission.release(reserved);
+		}
+	}
+}
@@ -1,137 +1,646 @@
 package com.springframework.controller;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.security.MessageDigest;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 import org.apache.tomcat.util.http.fileupload.FileUtils;
-import org.apache.tomcat.util.http.fileupload.IOUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.springframework.admission.AdmissionControl;
+import com.springframework.dto.BatchUploadResponse;
+import com.springframework.dto.FinalizationJobResponse;
+import com.springframework.dto.UploadStatusResponse;
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChecksumAlgorithm.Hasher;
+import com.springframework.protocol.ChunkCodec;
+import com.springframework.service.BatchUploadService;
+import com.springframework.service.ChunkSizePolicy;
+import com.springframework.service.ChunkStore;
+import com.springframework.service.CompressionStats;
+import com.springframework.service.DeltaService;
+import com.springframework.service.FinalizationJob;
+import com.springframework.service.FinalizationService;
+import com.springframework.service.TransferMetrics;
+import com.springframework.service.TransferMetrics.Phase;
+import com.springframework.service.UploadSession;
+import com.springframework.service.UploadSessionRegistry;
+import com.springframework.storage.StorageBackend;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping("/api/upload")
 public class ChunkedUploadController {
 
-    private final String baseDir = "/tmp/uploads/";
-//    private final S3Client s3Client = S3Client.create();
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long JOB_EVENTS_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final String CHUNK_CHECKSUM_HEADER = "X-Chunk-Checksum";
+
+    private final UploadSessionRegistry sessions;
+    private final ChunkStore chunkStore;
+    private final CompressionStats compressionStats;
+    private final boolean compression;
+    private final StorageBackend storage;
+    private final FinalizationService finalization;
+    private final AdmissionControl admission;
+    private final ChunkSizePolicy chunkSizes;
+    private final TransferMetrics metrics;
+    private final BatchUploadService batches;
+    private final DeltaService deltas;
+
+    public ChunkedUploadController(UploadSessionRegistry sessions, ChunkStore chunkStore,
+            CompressionStats compressionStats, @Value("${chunk.compression.enabled:true}") boolean compression,
+            StorageBackend storage, FinalizationService finalization, AdmissionControl admission,
+            ChunkSizePolicy chunkSizes, TransferMetrics metrics, BatchUploadService batches,
+            DeltaService deltas) {
+        this.sessions = sessions;
+        this.batches = batches;
+        this.deltas = deltas;
+        this.metrics = metrics;
+        this.chunkSizes = chunkSizes;
+        this.admission = admission;
+        this.storage = storage;
+        this.finalization = finalization;
+        this.chunkStore = chunkStore;
+        this.compressionStats = compressionStats;
+        this.compression = compression;
+    }
+
+    /**
+     * Starts an upload of a known size. The target file is preallocated so every
+     * chunk can be written straight to its final offset, and the storage backend
+     * is told about the upload so it can take chunks as they arrive. New uploads
+     * get 429 while the session budget is spent. The
+     * {@code Accept-Encoding} response header lists the codings chunks may be sent in.
+     * {@code chunkSize} is a request: the size granted, which every chunk but the
+     * last must have, comes back in {@code X-Chunk-Size}. So is
+     * {@code checksumAlgorithm}, the algorithm of the chunk checksums: the one the
+     * upload uses comes back in {@code X-Chunk-Checksum-Algorithm}, and SHA-256
+     * stands in for any the service does not support.
+     */
+    @PostMapping("/init")
+    public ResponseEntity<String> initUpload(
+            @RequestParam String uploadId,
+            @RequestParam String fileName,
+            @RequestParam long fileSize,
+            @RequestParam(defaultValue = "" + UploadSessionRegistry.DEFAULT_CHUNK_SIZE) int chunkSize,
+            @RequestParam(required = false) String bucketName,
+            @RequestParam(required = false) String checksumAlgorithm
+    ) throws Exception {
+        if (fileSize < 0 || chunkSize <= 0) {
+            return ResponseEntity.badRequest().body("❌ Invalid file or chunk size.");
+        }
+        int grantedChunkSize;
+        try {
+            grantedChunkSize = chunkSizes.negotiate(chunkSize, storage.minChunkSize(fileSize));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().headers(chunkSizes.headers()).body("❌ " + e.getMessage());
+        }
+        ChecksumAlgorithm requestedAlgorithm = ChecksumAlgorithm.forToken(checksumAlgorithm);
+        UploadSession session = sessions.start(uploadId, fileName, fileSize, grantedChunkSize,
+                requestedAlgorithm != null ? requestedAlgorithm : ChecksumAlgorithm.SHA_256);
+        if (session == null) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.retryAfterSeconds()))
+                    .body("❌ Too many uploads in progress, retry later.");
+        }
+        try {
+            storage.initiate(session, bucketName);
+        } catch (IllegalArgumentException e) {
+            sessions.remove(uploadId);
+            FileUtils.deleteDirectory(session.getDir());
+            return ResponseEntity.badRequest().body("❌ " + e.getMessage());
+        }
+        return ResponseEntity.ok()
+                .headers(acceptedEncodings())
+                .headers(chunkSizes.headers())
+                .header(ChunkSizePolicy.CHUNK_SIZE_HEADER, String.valueOf(session.getChunkSize()))
+                .headers(checksumAlgorithms(session))
+                .body("✅ Upload " + uploadId + " started.");
+    }
 
     /**
-     * Uploads a single chunk. Skips writing if chunk already exists (for retry support).
+     * Reports which chunks of an upload are still missing so a client can resume
+     * it. {@code totalChunks} is only needed for uploads started without {@code /init}.
+     */
+    @GetMapping("/{uploadId}/status")
+    public ResponseEntity<UploadStatusResponse> uploadStatus(
+            @PathVariable String uploadId,
+            @RequestParam(required = false) Integer totalChunks
+    ) {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        int total = session.getTotalChunks() >= 0 ? session.getTotalChunks()
+                : totalChunks != null ? totalChunks : session.receivedCount();
+
+        UploadStatusResponse status = new UploadStatusResponse();
+        status.setUploadId(uploadId);
+        status.setFileName(session.getFileName());
+        status.setFileSize(session.getFileSize());
+        status.setChunkSize(session.getChunkSize());
+        status.setTotalChunks(total);
+        status.setReceivedChunks(session.receivedCount());
+        status.setMissingRanges(session.missingRanges(total));
+        return ResponseEntity.ok()
+                .headers(acceptedEncodings())
+                .headers(chunkSizes.headers())
+                .header(ChunkSizePolicy.CHUNK_SIZE_HEADER, String.valueOf(session.getChunkSize()))
+                .headers(checksumAlgorithms(session))
+                .body(status);
+    }
+
+    private HttpHeaders acceptedEncodings() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_ENCODING, compression ? ChunkCodec.advertised() : ChunkCodec.IDENTITY.token());
+        return headers;
+    }
+
+    private static HttpHeaders checksumAlgorithms(UploadSession session) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(ChecksumAlgorithm.ADVERTISED_HEADER, ChecksumAlgorithm.advertised());
+        headers.set(ChecksumAlgorithm.CHUNK_HEADER, session.getChecksumAlgorithm().token());
+        return headers;
+    }
+
+    /**
+     * Uploads a single chunk into its place in the target file. Skips writing if
+     * the chunk already arrived intact (for retry support). A {@code chunkEncoding}
+     * other than identity is decoded on the way to disk; the checksum is always
+     * over the decoded bytes.
      */
     @PostMapping("/chunk")
     public ResponseEntity<String> uploadChunk(
             @RequestParam("file") MultipartFile file,
             @RequestParam String uploadId,
             @RequestParam int chunkIndex,
-            @RequestParam String chunkChecksum // client-calculated checksum
+            @RequestParam String chunkChecksum, // client-calculated checksum
+            @RequestParam(defaultValue = "identity") String chunkEncoding
+    ) throws Exception {
+        try (InputStream in = file.getInputStream()) {
+            return receiveChunk(uploadId, chunkIndex, in, file.getSize(), chunkEncoding, chunkChecksum);
+        }
+    }
+
+    /**
+     * Uploads a single chunk as a raw request body, which is read straight from
+     * the socket into its place in the target file: no multipart parsing and no
+     * temp file. A {@code Content-Encoding} other than identity is decoded on the
+     * way. {@code X-Chunk-Checksum} is optional; the digest of what was written is
+     * always returned in the same header so the client can compare it.
+     */
+    @PutMapping(value = "/{uploadId}/chunks/{chunkIndex}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<String> putChunk(
+            @PathVariable String uploadId,
+            @PathVariable int chunkIndex,
+            @RequestHeader(value = CHUNK_CHECKSUM_HEADER, required = false) String chunkChecksum,
+            @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, defaultValue = "identity") String contentEncoding,
+            HttpServletRequest request
     ) throws Exception {
+        try (InputStream in = request.getInputStream()) {
+            return receiveChunk(uploadId, chunkIndex, in, request.getContentLengthLong(), contentEncoding,
+                    chunkChecksum);
+        }
+    }
 
-        File dir = new File(baseDir + uploadId);
-        if (!dir.exists()) dir.mkdirs();
+    /**
+     * Writes a chunk body at the chunk's offset, hashing it on the way. Without
+     * an expected checksum the chunk is accepted as it is and its digest returned.
+     * A chunk that would open a session while the session budget is spent gets
+     * 503 with {@code Retry-After}.
+     *
+     * @param wireLength length of the body as sent, or -1 if unknown
+     */
+    private ResponseEntity<String> receiveChunk(String uploadId, int chunkIndex, InputStream body, long wireLength,
+            String chunkEncoding, String chunkChecksum) throws Exception {
 
-        File chunkFile = new File(dir, "chunk-" + chunkIndex);
+        ChunkCodec codec = ChunkCodec.forToken(chunkEncoding);
+        if (codec == null || (!compression && codec != ChunkCodec.IDENTITY)) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                    .headers(acceptedEncodings())
+                    .body("❌ Unsupported chunk encoding: " + chunkEncoding);
+        }
 
-        // Retry-safe: if chunk already exists, validate checksum
-        if (chunkFile.exists()) {
-            String existingChecksum = calculateChecksum(chunkFile, "SHA-256");
-            if (existingChecksum.equalsIgnoreCase(chunkChecksum)) {
-                return ResponseEntity.ok("Chunk " + chunkIndex + " already uploaded and verified.");
-            } else {
-                // Delete corrupted file and re-upload
-                chunkFile.delete();
+        // Chunks sent without /init open a session too, so they count against the same budget.
+        UploadSession session = sessions.getOrCreate(uploadId);
+        if (session == null) {
+            return serverBusy();
+        }
+        if (!validChunkIndex(session, chunkIndex)) {
+            return ResponseEntity.badRequest().body("❌ Invalid chunk index: " + chunkIndex);
+        }
+        long expectedLength = session.expectedLength(chunkIndex);
+        if (expectedLength == 0
+                || (codec == ChunkCodec.IDENTITY && expectedLength > 0 && wireLength >= 0
+                        && wireLength != expectedLength)) {
+            return ResponseEntity.badRequest().body("❌ Chunk " + chunkIndex + " has the wrong size.");
+        }
+        // Decoded chunks are checked as they are written, so a bad one cannot spill past its slot.
+        long maxLength = expectedLength > 0 ? expectedLength : session.getChunkSize();
+
+        // Retry-safe: a chunk that already arrived is compared by its recorded digest, not re-read
+        byte[] existingDigest = session.digest(chunkIndex);
+        if (existingDigest != null) {
+            if (HexFormat.of().formatHex(existingDigest).equalsIgnoreCase(chunkChecksum)) {
+                return ResponseEntity.ok()
+                        .header(CHUNK_CHECKSUM_HEADER, chunkChecksum.toLowerCase())
+                        .body("Chunk " + chunkIndex + " already uploaded and verified.");
             }
+            metrics.chunkRetried();
+            session.clearReceived(chunkIndex);
+            releaseChunk(session, existingDigest);
         }
 
-        // Save new chunk
-        try (InputStream in = file.getInputStream();
-             OutputStream out = new FileOutputStream(chunkFile)) {
-            IOUtils.copy(in, out);
+        // Write chunk at its offset, hashing the bytes as they go by
+        FileChannel channel = session.channel();
+        Hasher digest = session.getChecksumAlgorithm().newHasher();
+        long start = session.offset(chunkIndex);
+        long written = 0;
+        long receiveStarted = System.nanoTime();
+        long hashNanos = 0;
+        long writeNanos = 0;
+        try (InputStream in = codec.decode(body)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int read;
+            while ((read = in.read(buffer.array())) != -1) {
+                if (written + read > maxLength) {
+                    return ResponseEntity.badRequest().body("❌ Chunk " + chunkIndex + " has the wrong size.");
+                }
+                long hashStarted = System.nanoTime();
+                digest.update(buffer.array(), 0, read);
+                long writeStarted = System.nanoTime();
+                hashNanos += writeStarted - hashStarted;
+                buffer.clear().limit(read);
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, start + written);
+                }
+                writeNanos += System.nanoTime() - writeStarted;
+            }
+        } finally {
+            metrics.record(Phase.RECEIVE, System.nanoTime() - receiveStarted);
+            metrics.record(Phase.HASH, hashNanos);
+            metrics.record(Phase.WRITE, writeNanos);
+        }
+        if (expectedLength > 0 && written != expectedLength) {
+            return ResponseEntity.badRequest().body("❌ Chunk " + chunkIndex + " has the wrong size.");
         }
+        compressionStats.recordUpload(written, wireLength >= 0 ? wireLength : written);
 
         // Verify chunk integrity
-        String actualChecksum = calculateChecksum(chunkFile, "SHA-256");
-        if (!actualChecksum.equalsIgnoreCase(chunkChecksum)) {
-            chunkFile.delete();
-            return ResponseEntity.badRequest().body("❌ Chunk " + chunkIndex + " checksum mismatch.");
+        byte[] actualDigest = digest.digest();
+        String actualChecksum = HexFormat.of().formatHex(actualDigest);
+        if (chunkChecksum != null && !actualChecksum.equalsIgnoreCase(chunkChecksum)) {
+            metrics.chunkMismatch();
+            return ResponseEntity.badRequest()
+                    .header(CHUNK_CHECKSUM_HEADER, actualChecksum)
+                    .body("❌ Chunk " + chunkIndex + " checksum mismatch.");
         }
 
-        return ResponseEntity.ok("✅ Chunk " + chunkIndex + " uploaded and verified.");
+        long pushStarted = System.nanoTime();
+        storage.chunkStored(session, chunkIndex, written);
+        metrics.record(Phase.PUSH, System.nanoTime() - pushStarted);
+        session.markReceived(chunkIndex, actualDigest);
+        // Only counted here; finalization adds the bytes to the store, off the chunk path.
+        if (dedups(session)) {
+            chunkStore.retain(actualChecksum, written);
+        }
+        return ResponseEntity.ok()
+                .header(CHUNK_CHECKSUM_HEADER, actualChecksum)
+                .body("✅ Chunk " + chunkIndex + (chunkChecksum != null ? " uploaded and verified." : " uploaded."));
+    }
+
+    /**
+     * Returns the subset of the given chunk hashes the chunk store already holds,
+     * so a client only has to send the others.
+     */
+    @PostMapping("/chunks/lookup")
+    public List<String> lookupChunks(@RequestBody List<String> hashes) {
+        return chunkStore.present(hashes);
     }
 
     /**
-     * Called after all chunks are uploaded. Merges, validates, and uploads to S3.
+     * Fills a chunk of an upload from the chunk store instead of the network.
+     * Answers 404 if the chunk is not stored, in which case the client sends it.
+     * The store is addressed by SHA-256, so only uploads with SHA-256 chunk
+     * checksums can refer to it.
+     */
+    @PostMapping("/{uploadId}/chunks/{chunkIndex}/ref")
+    public ResponseEntity<String> referenceChunk(
+            @PathVariable String uploadId,
+            @PathVariable int chunkIndex,
+            @RequestParam String hash
+    ) throws Exception {
+        UploadSession session = sessions.getOrCreate(uploadId);
+        if (session == null) {
+            return serverBusy();
+        }
+        if (!validChunkIndex(session, chunkIndex)) {
+            return ResponseEntity.badRequest().body("❌ Invalid chunk index: " + chunkIndex);
+        }
+        if (session.getChecksumAlgorithm() != ChecksumAlgorithm.SHA_256) {
+            return ResponseEntity.badRequest().body("❌ Upload " + uploadId + " does not use SHA-256 chunk checksums.");
+        }
+        byte[] existingDigest = session.digest(chunkIndex);
+        if (existingDigest != null) {
+            if (HexFormat.of().formatHex(existingDigest).equalsIgnoreCase(hash)) {
+                return ResponseEntity.ok("Chunk " + chunkIndex + " already uploaded and verified.");
+            }
+            session.clearReceived(chunkIndex);
+            releaseChunk(session, existingDigest);
+        }
+
+        // Sized before anything is written, so a stored chunk cannot spill into the next slot.
+        long storedSize = chunkStore.size(hash);
+        if (storedSize < 0) {
+            return ResponseEntity.notFound().build();
+        }
+        long expectedLength = session.expectedLength(chunkIndex);
+        long maxLength = expectedLength >= 0 ? expectedLength : session.getChunkSize();
+        if (expectedLength == 0 || storedSize > maxLength || (expectedLength > 0 && storedSize != expectedLength)) {
+            return ResponseEntity.badRequest().body("❌ Chunk " + chunkIndex + " has the wrong size.");
+        }
+        long copied = chunkStore.copyTo(hash, session.channel(), session.offset(chunkIndex), storedSize);
+        if (copied < 0) {
+            return ResponseEntity.notFound().build();
+        }
+
+        long pushStarted = System.nanoTime();
+        storage.chunkStored(session, chunkIndex, copied);
+        metrics.record(Phase.PUSH, System.nanoTime() - pushStarted);
+        session.markReceived(chunkIndex, HexFormat.of().parseHex(hash));
+        chunkStore.retain(hash, copied);
+        return ResponseEntity.ok("✅ Chunk " + chunkIndex + " filled from the chunk store.");
+    }
+
+    /**
+     * Called after all chunks are uploaded. Answers {@code 202 Accepted} with a
+     * job right away; verifying the assembled file and handing it to the storage
+     * backend run in the background, and the job's progress can be polled at
+     * {@code /jobs/{jobId}} or followed at {@code /jobs/{jobId}/events}.
+     * <p>
+     * {@code expectedChecksum} is over the whole file in {@code checksumAlgorithm},
+     * which must be a cryptographic one; {@code sha-256-tree} lets the service
+     * verify it on every core. {@code manifestChecksum} is only taken for uploads
+     * whose chunk checksums are cryptographic, since it is built from them, and
+     * whose size was declared at {@code /init}: the manifest covers neither the
+     * chunk lengths nor the file size, and only then was every chunk held to its
+     * length on arrival. {@code totalChunks} must match the declared size.
      */
     @PostMapping("/complete")
-    public ResponseEntity<String> completeUpload(
+    public ResponseEntity<?> completeUpload(
             @RequestParam String uploadId,
             @RequestParam int totalChunks,
             @RequestParam String fileName,
-            @RequestParam String expectedChecksum,
-            @RequestParam String bucketName
-    ) throws Exception {
+            @RequestParam(required = false) String expectedChecksum,
+            @RequestParam(required = false) String manifestChecksum,
+            @RequestParam String bucketName,
+            @RequestParam(defaultValue = "sha-256") String checksumAlgorithm
+    ) {
+        ChecksumAlgorithm fileAlgorithm = ChecksumAlgorithm.forToken(checksumAlgorithm);
+        if (fileAlgorithm == null || !fileAlgorithm.isCryptographic()) {
+            return ResponseEntity.badRequest()
+                    .header(ChecksumAlgorithm.ADVERTISED_HEADER, ChecksumAlgorithm.advertised())
+                    .body("❌ Unsupported file checksum algorithm: " + checksumAlgorithm);
+        }
 
-        File uploadDir = new File(baseDir + uploadId);
-        File mergedFile = new File(uploadDir, fileName);
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            return ResponseEntity.badRequest().body("❌ Unknown upload: " + uploadId);
+        }
 
-        try (OutputStream out = new FileOutputStream(mergedFile)) {
-            for (int i = 0; i < totalChunks; i++) {
-                File chunk = new File(uploadDir, "chunk-" + i);
-                if (!chunk.exists()) {
-                    return ResponseEntity.badRequest().body("❌ Missing chunk: " + i);
-                }
+        if (session.getTotalChunks() >= 0 && totalChunks != session.getTotalChunks()) {
+            return ResponseEntity.badRequest().body(
+                    "❌ Upload " + uploadId + " has " + session.getTotalChunks() + " chunks, not " + totalChunks + ".");
+        }
+        int missing = session.firstMissing(totalChunks);
+        if (missing >= 0) {
+            return ResponseEntity.badRequest().body("❌ Missing chunk: " + missing);
+        }
+        if (!session.getChecksumAlgorithm().isCryptographic() || session.getFileSize() < 0) {
+            manifestChecksum = null;
+        }
+        if (manifestChecksum == null && expectedChecksum == null) {
+            return ResponseEntity.badRequest().body("❌ No checksum to verify against.");
+        }
 
-                try (InputStream in = new FileInputStream(chunk)) {
-                    IOUtils.copy(in, out);
+        FinalizationJob job;
+        try {
+            job = finalization.submit(session, new FinalizationService.Request(uploadId, fileName, bucketName,
+                    totalChunks, expectedChecksum, fileAlgorithm, manifestChecksum));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.retryAfterSeconds()))
+                    .body("❌ Too many uploads are being finalized, try again shortly.");
+        }
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/upload/jobs/" + job.getJobId()))
+                .body(FinalizationJobResponse.of(job));
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<FinalizationJobResponse> jobStatus(@PathVariable String jobId) {
+        FinalizationJob job = finalization.get(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(FinalizationJobResponse.of(job));
+    }
+
+    /**
+     * Streams the job's stage as server-sent events until it completes or fails.
+     */
+    @GetMapping(value = "/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> jobEvents(@PathVariable String jobId) {
+        FinalizationJob job = finalization.get(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        SseEmitter emitter = new SseEmitter(JOB_EVENTS_TIMEOUT_MILLIS);
+        Consumer<FinalizationJob> listener = new Consumer<>() {
+            @Override
+            public void accept(FinalizationJob update) {
+                try {
+                    emitter.send(SseEmitter.event().name("stage").data(FinalizationJobResponse.of(update)));
+                    if (update.getStage().isTerminal()) {
+                        emitter.complete();
+                    }
+                } catch (Exception e) {
+                    // The client went away; stop telling it about the job.
+                    update.unsubscribe(this);
                 }
             }
+        };
+        emitter.onCompletion(() -> job.unsubscribe(listener));
+        emitter.onTimeout(() -> job.unsubscribe(listener));
+        job.subscribe(listener);
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Stores a batch of small files sent as one streamed body in the format
+     * described on {@link BatchUploadService}, and answers with a result per
+     * file. 400 means the body was cut short or malformed; files before that
+     * point still have their results and may have been stored.
+     */
+    @PostMapping(value = "/batch", consumes = BatchUploadService.MEDIA_TYPE)
+    public ResponseEntity<BatchUploadResponse> uploadBatch(
+            @RequestParam String bucketName,
+            HttpServletRequest request
+    ) throws Exception {
+        BatchUploadResponse response;
+        try (InputStream in = request.getInputStream()) {
+            response = batches.receive(in, bucketName);
         }
+        return response.getError() == null ? ResponseEntity.ok(response)
+                : ResponseEntity.badRequest().body(response);
+    }
 
-        // Verify final merged checksum
-        String actualChecksum = calculateChecksum(mergedFile, "SHA-256");
-        if (!actualChecksum.equalsIgnoreCase(expectedChecksum)) {
-            return ResponseEntity.badRequest().body("❌ Final file checksum mismatch.");
+    /**
+     * Block signature of the stored {@code bucketName/fileName}, for a client
+     * about to upload a new version of it as a delta. The format is described
+     * on {@link DeltaService}; {@code blockSize} defaults to about the square
+     * root of the stored file's size. 404 if nothing is stored under the name.
+     */
+    @GetMapping("/signature")
+    public void signature(
+            @RequestParam String bucketName,
+            @RequestParam String fileName,
+            @RequestParam(required = false) Integer blockSize,
+            HttpServletResponse response
+    ) throws Exception {
+        if (blockSize != null && (blockSize < DeltaService.MIN_BLOCK_SIZE || blockSize > DeltaService.MAX_BLOCK_SIZE)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid block size: " + blockSize);
+            return;
+        }
+        FileChannel base;
+        try {
+            base = storage.openStored(bucketName, fileName);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (base == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No stored version of " + fileName);
+            return;
         }
+        try (base) {
+            long size = base.size();
+            int block = blockSize != null ? blockSize : DeltaService.defaultBlockSize(size);
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            response.setContentLengthLong(12 + size / block * (4 + DeltaService.STRONG_LENGTH));
+            deltas.writeSignature(base, size, block, response.getOutputStream());
+        }
+    }
+
+    /**
+     * Fills an upload started with {@code /init} from a delta against the stored
+     * {@code bucketName/fileName} instead of from chunks. The whole file is
+     * rebuilt in one pass, and the upload is then finished with
+     * {@code /complete}, which verifies the file checksum as usual. A delta can
+     * be sent again if this fails part way.
+     */
+    @PutMapping(value = "/{uploadId}/delta", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<String> putDelta(
+            @PathVariable String uploadId,
+            @RequestParam String bucketName,
+            HttpServletRequest request
+    ) throws Exception {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null || session.getFileSize() < 0) {
+            return ResponseEntity.badRequest().body("❌ Unknown upload: " + uploadId);
+        }
+        FileChannel base;
+        try {
+            base = storage.openStored(bucketName, session.getFileName());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("❌ " + e.getMessage());
+        }
+        if (base == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body("❌ No stored version of " + session.getFileName());
+        }
+        long receiveStarted = System.nanoTime();
+        try (base; InputStream in = request.getInputStream()) {
+            long copied = deltas.apply(session, base, in);
+            return ResponseEntity.ok("✅ Rebuilt " + session.getFileSize() + " bytes, " + copied
+                    + " of them from the stored version.");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("❌ " + e.getMessage());
+        } finally {
+            metrics.record(Phase.RECEIVE, System.nanoTime() - receiveStarted);
+        }
+    }
 
-        // Upload to S3
-        try (InputStream in = new FileInputStream(mergedFile)) {
-//            s3Client.putObject(
-//                    PutObjectRequest.builder()
-//                            .bucket(bucketName)
-//                            .key(fileName)
-//                            .build(),
-//                    RequestBody.fromInputStream(in, mergedFile.length()));
-        	System.out.println("file uploded to s3");
+    /**
+     * Abandons an upload: the storage backend drops what it holds, and the part
+     * file and the session's references into the chunk store are released.
+     */
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<String> abortUpload(@PathVariable String uploadId) throws Exception {
+        UploadSession session = sessions.get(uploadId);
+        if (session == null) {
+            return ResponseEntity.notFound().build();
         }
+        sessions.abort(session);
+        return ResponseEntity.ok("🗑️ Upload " + uploadId + " aborted.");
+    }
 
-        // Cleanup
-        FileUtils.deleteDirectory(uploadDir);
+    /**
+     * Whether the upload's chunks are counted in the chunk store, which is
+     * addressed by SHA-256.
+     */
+    private boolean dedups(UploadSession session) {
+        return chunkStore.isEnabled() && session.getChecksumAlgorithm() == ChecksumAlgorithm.SHA_256;
+    }
 
-        return ResponseEntity.ok("✅ File uploaded successfully to S3.");
+    /**
+     * Whether the index names a chunk of the upload: never negative, and within
+     * the declared size when there is one.
+     */
+    private static boolean validChunkIndex(UploadSession session, int chunkIndex) {
+        return chunkIndex >= 0 && (session.getTotalChunks() < 0 || chunkIndex < session.getTotalChunks());
     }
 
-    private String calculateChecksum(File file, String algorithm) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance(algorithm);
-        try (InputStream fis = new FileInputStream(file)) {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                digest.update(buffer, 0, bytesRead);
-            }
-        }
+    /**
+     * 503 for a chunk that would open a session while the session budget is spent.
+     */
+    private ResponseEntity<String> serverBusy() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.retryAfterSeconds()))
+                .body("❌ Too many uploads in progress, retry later.");
+    }
 
-        byte[] hashBytes = digest.digest();
-        StringBuilder sb = new StringBuilder();
-        for (byte b : hashBytes) {
-            sb.append(String.format("%02x", b));
+    /**
+     * Drops the upload's reference to a chunk it no longer holds.
+     */
+    private void releaseChunk(UploadSession session, byte[] digest) {
+        if (dedups(session)) {
+            chunkStore.release(HexFormat.of().formatHex(digest));
         }
-        return sb.toString();
     }
 }
@@ -1,106 +1,254 @@
 package com.springframework.controller;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.security.MessageDigest;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
 
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.springframework.dto.ChunkDownloadRequest;
-
+import com.springframework.dto.DownloadManifestResponse;
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChunkCodec;
+import com.springframework.service.ChecksumCache;
+import com.springframework.service.ChunkCache;
+import com.springframework.service.ChunkSizePolicy;
+import com.springframework.service.CompressionStats;
+import com.springframework.service.TransferMetrics;
+import com.springframework.service.TransferMetrics.Phase;
+import com.springframework.service.UploadSessionRegistry;
+
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping("/files")
 public class DownloadController {
 
-	private static final String BASE_PATH = "D:\\Documents\\StudyMaterial\\course-presentation-master-spring-and-spring-boot.pdf"; // change
-	private static final int CHUNK_SIZE = 5 * 1024 * 1024; // 5 MB
+	private final String basePath;
+	private final ChecksumCache checksums;
+	private final CompressionStats compressionStats;
+	private final boolean compression;
+	private final ChunkSizePolicy chunkSizes;
+	private final TransferMetrics metrics;
+	private final ChunkCache chunkCache;
+
+	public DownloadController(
+			@Value("${download.base-path:D:\\Documents\\StudyMaterial\\course-presentation-master-spring-and-spring-boot.pdf}") String basePath,
+			ChecksumCache checksums, CompressionStats compressionStats,
+			@Value("${chunk.compression.enabled:true}") boolean compression, ChunkSizePolicy chunkSizes,
+			TransferMetrics metrics, ChunkCache chunkCache) {
+		this.basePath = basePath;
+		this.chunkCache = chunkCache;
+		this.metrics = metrics;
+		this.chunkSizes = chunkSizes;
+		this.checksums = checksums;
+		this.compressionStats = compressionStats;
+		this.compression = compression;
+	}
 
-	@PostMapping("/stream")
-	public ResponseEntity<InputStreamResource> uploadAndStreamBack(@RequestParam("fileName") String fileName)
-			throws FileNotFoundException {
+	/**
+	 * Starts hashing the served file at startup so the first client does not wait for it.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void warmChecksums() {
+		checksums.prefetch(new File(basePath), ChecksumAlgorithm.SHA_256_TREE, ChecksumAlgorithm.SHA_256);
+	}
 
-		File file = new File(BASE_PATH + fileName);
+	/**
+	 * Streams a file, honouring standard {@code Range} requests (single or multiple ranges).
+	 * The {@code ETag} is the file's SHA-256 once it is known, and a request
+	 * whose {@code If-None-Match} or {@code If-Modified-Since} still holds gets a 304.
+	 */
+	@RequestMapping(value = "/stream", method = { RequestMethod.GET, RequestMethod.POST })
+	public void uploadAndStreamBack(@RequestParam("fileName") String fileName,
+			@RequestParam(required = false) String checksumAlgorithm, HttpServletRequest request,
+			HttpServletResponse response) throws Exception {
+
+		File file = new File(basePath + fileName);
 
 		if (!file.exists() || file.isDirectory()) {
-			return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
 		}
 
-		InputStreamResource resource = new InputStreamResource(new BufferedInputStream(new FileInputStream(file)));
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + file.getName());
+		ChecksumAlgorithm algorithm = fileAlgorithm(checksumAlgorithm);
+		String checksum = checksums.getIfReady(file, algorithm);
+		if (checksum != null) {
+			response.setHeader("X-Expected-Checksum", checksum);
+			response.setHeader(ChecksumAlgorithm.FILE_HEADER, algorithm.token());
+		}
+		String sha256 = algorithm == ChecksumAlgorithm.SHA_256 ? checksum
+				: checksums.getIfReady(file, ChecksumAlgorithm.SHA_256);
+		if (Validators.notModified(request, response, sha256 != null ? Validators.etag(sha256) : null,
+				file.lastModified())) {
+			return;
+		}
+		FileRegionWriter.writeRanges(request, response, file);
+	}
+
+	/**
+	 * The requested algorithm for a file checksum, or SHA-256 if there is no
+	 * request or the algorithm is unknown.
+	 */
+	private static ChecksumAlgorithm fileAlgorithm(String token) {
+		ChecksumAlgorithm algorithm = ChecksumAlgorithm.forToken(token);
+		return algorithm != null ? algorithm : ChecksumAlgorithm.SHA_256;
+	}
 
-		return ResponseEntity.ok().header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + file.getName())
-				.header(HttpHeaders.CONTENT_LENGTH, String.valueOf(file.length()))
-				.contentType(MediaType.APPLICATION_OCTET_STREAM).body(resource);
+	/**
+	 * Bytes saved so far by chunk compression, per direction.
+	 */
+	@GetMapping("/compression-stats")
+	public Map<String, Long> compressionStats() {
+		return compressionStats.snapshot();
 	}
 
+	/**
+	 * Serves one chunk of the requested {@code length}, at {@code offset} or by
+	 * index. The size actually used is in {@code X-Chunk-Size}, and the range of
+	 * sizes allowed in {@code X-Chunk-Size-Min} and {@code X-Chunk-Size-Max}. A
+	 * {@code Range} header, if present, takes precedence and is answered like
+	 * {@code /stream}. If the client accepts a compressing coding and the chunk
+	 * compresses, it is sent coded with its decoded size in {@code X-Chunk-Length}.
+	 * The file's checksum in {@code X-Expected-Checksum} is in the requested
+	 * {@code checksumAlgorithm}, or SHA-256, as named in {@code X-Checksum-Algorithm}.
+	 * Once {@link #manifest} has computed the chunk validators for this chunk
+	 * size, the chunk's {@code ETag} is its SHA-256 and {@code If-None-Match}
+	 * is answered with 304.
+	 */
 	@PostMapping("/chunkWithMeta")
-	public void downloadChunkByIndex(@RequestBody ChunkDownloadRequest request, HttpServletResponse response) {
+	public void downloadChunkByIndex(@RequestBody ChunkDownloadRequest request, HttpServletRequest httpRequest,
+			HttpServletResponse response) {
 		try {
 //			String bucket = request.getBucket();
 			String key = request.getKey();
-			int chunkIndex = request.getChunkIndex();
-			long offset = (long) chunkIndex * CHUNK_SIZE;
+			int chunkSize = chunkSizes.negotiate(request.getLength() != null ? request.getLength()
+					: UploadSessionRegistry.DEFAULT_CHUNK_SIZE);
+			long offset = request.getOffset() != null ? request.getOffset()
+					: (long) request.getChunkIndex() * chunkSize;
 
-			File localFile = new File(BASE_PATH);
+			File localFile = new File(basePath);
 
 			long fileSize = localFile.length();
+			if (offset < 0 || (offset >= fileSize && !(offset == 0 && fileSize == 0))) {
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
 			long remaining = fileSize - offset;
-			long sizeToRead = Math.min(CHUNK_SIZE, remaining);
+			long sizeToRead = Math.min(chunkSize, remaining);
+
+			response.setHeader("X-File-Size", String.valueOf(fileSize));
+			response.setHeader(ChunkSizePolicy.CHUNK_SIZE_HEADER, String.valueOf(chunkSize));
+			response.setHeader(ChunkSizePolicy.MIN_HEADER, String.valueOf(chunkSizes.min()));
+			response.setHeader(ChunkSizePolicy.MAX_HEADER, String.valueOf(chunkSizes.max()));
+			response.setHeader("X-File-Name", key);
+
+			// Any chunk carries the checksum once it is cached; the last one waits for it.
+			ChecksumAlgorithm algorithm = fileAlgorithm(request.getChecksumAlgorithm());
+			String checksum = offset + sizeToRead >= fileSize ? checksums.checksum(localFile, algorithm).get()
+					: checksums.getIfReady(localFile, algorithm);
+			if (checksum != null) {
+				response.setHeader("X-Expected-Checksum", checksum);
+				response.setHeader(ChecksumAlgorithm.FILE_HEADER, algorithm.token());
+			}
 
-			try (RandomAccessFile raf = new RandomAccessFile(localFile, "r")) {
-				raf.seek(offset);
-				byte[] buffer = new byte[(int) sizeToRead];
-				int bytesRead = raf.read(buffer);
+			if (httpRequest.getHeader(HttpHeaders.RANGE) != null) {
+				FileRegionWriter.writeRanges(httpRequest, response, localFile);
+				return;
+			}
 
-				response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
-				response.setContentLength(bytesRead);
-				response.setHeader("X-File-Size", String.valueOf(fileSize));
-				response.setHeader("X-File-Name", key);
+			List<String> chunkChecksums = offset % chunkSize == 0
+					? checksums.chunkChecksumsIfReady(localFile, chunkSize)
+					: null;
+			String chunkEtag = chunkChecksums != null && offset / chunkSize < chunkChecksums.size()
+					? Validators.etag(chunkChecksums.get((int) (offset / chunkSize)))
+					: null;
+			if (Validators.notModified(httpRequest, response, chunkEtag, localFile.lastModified())) {
+				return;
+			}
 
-				if (offset + sizeToRead >= fileSize) {
-					String checksum = calculateChecksum(localFile);
-					response.setHeader("X-Expected-Checksum", checksum);
+			// A chunk is just a range of the file.
+			response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+			response.setHeader("X-Chunk-Length", String.valueOf(sizeToRead));
+			long serveStarted = System.nanoTime();
+			ChunkCodec codec = compression ? ChunkCodec.negotiate(httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING))
+					: ChunkCodec.IDENTITY;
+			// Plain chunks that can go by sendfile already come from the page cache without a copy;
+			// only chunks on the chunk size grid are cached.
+			ChunkCache.Chunk cached = chunkCache.enabled() && offset % chunkSize == 0
+					&& (codec != ChunkCodec.IDENTITY || !FileRegionWriter.sendfile(httpRequest, sizeToRead))
+							? chunkCache.get(localFile, chunkSize, offset / chunkSize, codec)
+							: null;
+			if (cached != null) {
+				ByteBuffer data = cached.data();
+				if (cached.codec() != ChunkCodec.IDENTITY) {
+					response.setHeader(HttpHeaders.CONTENT_ENCODING, cached.codec().token());
+					response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
 				}
-
-				response.getOutputStream().write(buffer, 0, bytesRead);
-				response.getOutputStream().flush();
+				long wireBytes = data.remaining();
+				FileRegionWriter.writeBuffer(response, data);
+				compressionStats.recordDownload(sizeToRead, wireBytes);
+			} else if (codec != ChunkCodec.IDENTITY
+					&& FileRegionWriter.compressible(localFile, offset, sizeToRead)) {
+				long wireBytes = FileRegionWriter.writeEncodedRegion(response, localFile, offset, sizeToRead, codec);
+				compressionStats.recordDownload(sizeToRead, wireBytes);
+			} else {
+				FileRegionWriter.writeRegion(httpRequest, response, localFile, offset, sizeToRead);
+				compressionStats.recordDownload(sizeToRead, sizeToRead);
 			}
+			metrics.record(Phase.SERVE, System.nanoTime() - serveStarted);
 
 		} catch (Exception e) {
 			e.printStackTrace();
 			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 		}
 	}
-	
-	
-	 private static String calculateChecksum(File file) throws Exception {
-	        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-	        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
-	            byte[] buffer = new byte[8192];
-	            int read;
-	            while ((read = is.read(buffer)) != -1) {
-	                digest.update(buffer, 0, read);
-	            }
-	        }
-	        StringBuilder hex = new StringBuilder();
-	        for (byte b : digest.digest()) {
-	            hex.append(String.format("%02x", b));
-	        }
-	        return hex.toString();
-	    }
 
+	/**
+	 * Validators of the served file, for a client that keeps a copy of it: the
+	 * file's SHA-256, which is also its {@code ETag}, and the SHA-256 of every
+	 * chunk at the negotiated chunk size. A client whose copy is current sends
+	 * its {@code ETag} in {@code If-None-Match} and gets a bodiless 304; one
+	 * whose copy is stale compares chunk checksums and fetches only the chunks
+	 * that changed.
+	 */
+	@GetMapping("/manifest")
+	public ResponseEntity<DownloadManifestResponse> manifest(@RequestParam String key,
+			@RequestParam(required = false) Integer chunkSize, HttpServletRequest request,
+			HttpServletResponse response) throws Exception {
+		File localFile = new File(basePath);
+		if (!localFile.isFile()) {
+			return ResponseEntity.notFound().build();
+		}
+		int size = chunkSizes.negotiate(chunkSize != null ? chunkSize : UploadSessionRegistry.DEFAULT_CHUNK_SIZE);
+		String checksum = checksums.checksum(localFile, ChecksumAlgorithm.SHA_256).get();
+		if (Validators.notModified(request, response, Validators.etag(checksum), localFile.lastModified())) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+		}
+
+		DownloadManifestResponse manifest = new DownloadManifestResponse();
+		manifest.setFileName(key);
+		manifest.setFileSize(localFile.length());
+		manifest.setChunkSize(size);
+		manifest.setChecksum(checksum);
+		manifest.setChunkChecksums(checksums.chunkChecksums(localFile, size).get());
+		response.setHeader(ChunkSizePolicy.CHUNK_SIZE_HEADER, String.valueOf(size));
+		return ResponseEntity.ok(manifest);
+	}
 }
@@ -0,0 +1,290 @@
+package com.springframework.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+
+import com.springframework.protocol.ChunkCodec;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Writes byte ranges of a file to a servlet response without pulling the data
+ * through the Java heap. A single region is handed to Tomcat's sendfile when
+ * the connector supports it; otherwise it goes through
+ * {@link FileChannel#transferTo}, which only uses a small reusable buffer.
+ */
+final class FileRegionWriter {
+
+	// Request attributes understood by Tomcat's NIO connector (see org.apache.catalina.Globals).
+	private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	/** Below this size sendfile setup costs more than a plain copy (Tomcat's own default threshold). */
+	private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+	private FileRegionWriter() {
+	}
+
+	/**
+	 * Answers a request for {@code file}, honouring its {@code Range} header.
+	 * With no range the whole file is sent with 200; one range gives a 206 with
+	 * {@code Content-Range}, several give a {@code multipart/byteranges} 206, and
+	 * unsatisfiable ones a 416. Ranges that together cover the whole file get it
+	 * with 200. A malformed header is ignored, as RFC 9110
+	 * asks, and the whole file sent.
+	 */
+	static void writeRanges(HttpServletRequest request, HttpServletResponse response, File file) throws IOException {
+		long fileSize = file.length();
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+		List<long[]> regions;
+		try {
+			regions = parseRanges(request.getHeader(HttpHeaders.RANGE), fileSize);
+		} catch (IllegalArgumentException e) {
+			response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+			response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return;
+		}
+
+		if (regions.isEmpty()) {
+			response.setStatus(HttpServletResponse.SC_OK);
+			response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+			writeRegion(request, response, file, 0, fileSize);
+		} else if (regions.size() == 1) {
+			long[] region = regions.get(0);
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+			response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(region, fileSize));
+			writeRegion(request, response, file, region[0], region[1]);
+		} else {
+			writeMultipart(response, file, regions, fileSize);
+		}
+	}
+
+	/**
+	 * Sends {@code length} bytes of {@code file} starting at {@code offset} as the
+	 * response body. Status and content type must already be set.
+	 */
+	static void writeRegion(HttpServletRequest request, HttpServletResponse response, File file, long offset,
+			long length) throws IOException {
+		response.setContentLengthLong(length);
+		if (sendfile(request, length)) {
+			// Tomcat streams the region with sendfile once the handler returns.
+			request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+			request.setAttribute(SENDFILE_START, offset);
+			request.setAttribute(SENDFILE_END, offset + length);
+			return;
+		}
+		ServletOutputStream out = response.getOutputStream();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			transfer(channel, offset, length, Channels.newChannel(out));
+		}
+		out.flush();
+	}
+
+	/**
+	 * Whether {@link #writeRegion} would hand a region of this length to sendfile.
+	 */
+	static boolean sendfile(HttpServletRequest request, long length) {
+		return length >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED));
+	}
+
+	/**
+	 * Sends the remaining bytes of {@code data} as the response body. Tomcat
+	 * copies them from the buffer straight into its socket buffer, so an
+	 * off-heap buffer never passes through a heap array.
+	 */
+	static void writeBuffer(HttpServletResponse response, ByteBuffer data) throws IOException {
+		response.setContentLengthLong(data.remaining());
+		ServletOutputStream out = response.getOutputStream();
+		if (out instanceof CoyoteOutputStream coyote) {
+			coyote.write(data);
+		} else {
+			WritableByteChannel channel = Channels.newChannel(out);
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Whether a sample from the start of the region compresses well enough to
+	 * be worth giving up sendfile and sending the region coded.
+	 */
+	static boolean compressible(File file, long offset, long length) throws IOException {
+		int sampleLength = (int) Math.min(ChunkCodec.SAMPLE_SIZE, length);
+		ByteBuffer sample = ByteBuffer.allocate(sampleLength);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			while (sample.hasRemaining() && channel.read(sample, offset + sample.position()) > 0) {
+			}
+		}
+		return ChunkCodec.worthCompressing(sample.array(), sample.position());
+	}
+
+	/**
+	 * Sends a region of {@code file} in the given content coding. The length is
+	 * not known up front, so the response is chunked.
+	 *
+	 * @return the number of coded bytes written
+	 */
+	static long writeEncodedRegion(HttpServletResponse response, File file, long offset, long length,
+			ChunkCodec codec) throws IOException {
+		response.setHeader(HttpHeaders.CONTENT_ENCODING, codec.token());
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		long[] wireBytes = new long[1];
+		OutputStream counting = new OutputStream() {
+			private final ServletOutputStream out = response.getOutputStream();
+
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				wireBytes[0]++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				wireBytes[0] += len;
+			}
+
+			@Override
+			public void flush() throws IOException {
+				out.flush();
+			}
+		};
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				OutputStream encoded = codec.encode(counting)) {
+			ByteBuffer buffer = ByteBuffer.allocate(ChunkCodec.SAMPLE_SIZE);
+			long position = offset;
+			long end = offset + length;
+			while (position < end) {
+				buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					throw new IOException("File ended at " + position + " while sending up to " + end);
+				}
+				encoded.write(buffer.array(), 0, read);
+				position += read;
+			}
+		}
+		return wireBytes[0];
+	}
+
+	private static void writeMultipart(HttpServletResponse response, File file, List<long[]> regions, long fileSize)
+			throws IOException {
+		String boundary = UUID.randomUUID().toString().replace("-", "");
+		List<byte[]> partHeaders = new ArrayList<>();
+		long contentLength = 0;
+		for (long[] region : regions) {
+			byte[] header = ("\r\n--" + boundary + "\r\n" + HttpHeaders.CONTENT_TYPE + ": "
+					+ MediaType.APPLICATION_OCTET_STREAM_VALUE + "\r\n" + HttpHeaders.CONTENT_RANGE + ": "
+					+ contentRange(region, fileSize) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+			partHeaders.add(header);
+			contentLength += header.length + region[1];
+		}
+		byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		contentLength += trailer.length;
+
+		response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		response.setContentType("multipart/byteranges; boundary=" + boundary);
+		response.setContentLengthLong(contentLength);
+
+		ServletOutputStream out = response.getOutputStream();
+		WritableByteChannel target = Channels.newChannel(out);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			for (int i = 0; i < regions.size(); i++) {
+				out.write(partHeaders.get(i));
+				transfer(channel, regions.get(i)[0], regions.get(i)[1], target);
+			}
+		}
+		out.write(trailer);
+		out.flush();
+	}
+
+	private static void transfer(FileChannel channel, long offset, long length, WritableByteChannel target)
+			throws IOException {
+		long position = offset;
+		long end = offset + length;
+		while (position < end) {
+			long sent = channel.transferTo(position, end - position, target);
+			if (sent <= 0) {
+				throw new IOException("File ended at " + position + " while sending up to " + end);
+			}
+			position += sent;
+		}
+	}
+
+	/**
+	 * Parses a {@code Range} header into {offset, length} pairs of the ranges
+	 * that overlap the file, in file order, with overlapping and adjacent ranges
+	 * merged so no byte is sent twice. Empty when there is no header, it is
+	 * malformed or the ranges cover the whole file, which all mean the whole file.
+	 *
+	 * @throws IllegalArgumentException if no range overlaps the file
+	 */
+	static List<long[]> parseRanges(String header, long fileSize) {
+		List<long[]> regions = new ArrayList<>();
+		if (header == null || header.isBlank()) {
+			return regions;
+		}
+		List<HttpRange> ranges;
+		try {
+			ranges = HttpRange.parseRanges(header);
+		} catch (IllegalArgumentException e) {
+			return regions;
+		}
+		if (ranges.isEmpty()) {
+			return regions;
+		}
+		for (HttpRange range : ranges) {
+			long start = range.getRangeStart(fileSize);
+			long end = range.getRangeEnd(fileSize);
+			// A set of ranges is satisfiable if any of them is; the others are left out.
+			if (start < fileSize && end >= start) {
+				regions.add(new long[] { start, end - start + 1 });
+			}
+		}
+		if (regions.isEmpty()) {
+			throw new IllegalArgumentException("No range of " + header + " is inside a file of " + fileSize + " bytes");
+		}
+		regions.sort(Comparator.comparingLong(region -> region[0]));
+		List<long[]> merged = new ArrayList<>();
+		for (long[] region : regions) {
+			long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (last != null && region[0] <= last[0] + last[1]) {
+				last[1] = Math.max(last[1], region[0] + region[1] - last[0]);
+			} else {
+				merged.add(region);
+			}
+		}
+		if (merged.size() == 1 && merged.get(0)[1] == fileSize) {
+			merged.clear();
+		}
+		return merged;
+	}
+
+	private static String contentRange(long[] region, long fileSize) {
+		return "bytes " + region[0] + "-" + (region[0] + region[1] - 1) + "/" + fileSize;
+	}
+}
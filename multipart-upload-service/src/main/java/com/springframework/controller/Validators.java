@@ -0,0 +1,80 @@
+package com.springframework.controller;
+
+import org.springframework.http.HttpHeaders;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Validators for conditional downloads. A file's entity tag is its SHA-256
+ * and a chunk's is the SHA-256 of its decoded bytes, both strong; a client
+ * holding those bytes can ask whether they are still current and get a
+ * {@code 304} instead of the data.
+ */
+final class Validators {
+
+	private Validators() {
+	}
+
+	static String etag(String sha256) {
+		return "\"" + sha256 + "\"";
+	}
+
+	/**
+	 * Sets {@code ETag} (if known) and {@code Last-Modified}, and answers
+	 * {@code 304 Not Modified} if the request's validators still match. As
+	 * RFC 9110 has it, {@code If-None-Match} is used when present and
+	 * {@code If-Modified-Since} only otherwise. Download endpoints answered by
+	 * {@code POST} only read, so they get a 304 too rather than a 412.
+	 *
+	 * @return true if the 304 was sent and nothing else should be written
+	 */
+	static boolean notModified(HttpServletRequest request, HttpServletResponse response, String etag,
+			long lastModified) {
+		if (etag != null) {
+			response.setHeader(HttpHeaders.ETAG, etag);
+		}
+		response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+		String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			if (etag != null && matches(ifNoneMatch, etag)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return true;
+			}
+			return false;
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		// HTTP dates have whole seconds.
+		if (ifModifiedSince >= 0 && lastModified / 1000 * 1000 <= ifModifiedSince) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Weak comparison against a list of entity tags, the one RFC 9110 asks
+	 * for with {@code If-None-Match}.
+	 */
+	private static boolean matches(String header, String etag) {
+		for (String candidate : header.split(",")) {
+			String tag = candidate.trim();
+			if (tag.equals("*")) {
+				return true;
+			}
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,76 @@
+package com.springframework.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchUploadResponse {
+	/** One result per file, in the order the files were sent. */
+	private List<FileResult> files = new ArrayList<>();
+	/** Why the batch stopped before its end marker, or null if it was read to the end. */
+	private String error;
+
+	public List<FileResult> getFiles() {
+		return files;
+	}
+
+	public void setFiles(List<FileResult> files) {
+		this.files = files;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	public static class FileResult {
+		private String fileName;
+		/** STORED, CHECKSUM_MISMATCH, REJECTED or FAILED. A mismatch or failure is worth sending again. */
+		private String status;
+		private String location;
+		private String message;
+
+		public static FileResult of(String fileName, String status, String location, String message) {
+			FileResult result = new FileResult();
+			result.setFileName(fileName);
+			result.setStatus(status);
+			result.setLocation(location);
+			result.setMessage(message);
+			return result;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		public void setFileName(String fileName) {
+			this.fileName = fileName;
+		}
+
+		public String getStatus() {
+			return status;
+		}
+
+		public void setStatus(String status) {
+			this.status = status;
+		}
+
+		public String getLocation() {
+			return location;
+		}
+
+		public void setLocation(String location) {
+			this.location = location;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public void setMessage(String message) {
+			this.message = message;
+		}
+	}
+}
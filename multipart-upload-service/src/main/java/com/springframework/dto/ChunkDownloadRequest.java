@@ -4,6 +4,12 @@ public class ChunkDownloadRequest {
 	private String bucket;
 	private String key;
 	private int chunkIndex;
+	/** Byte offset of the chunk; if absent it is {@code chunkIndex * length}. */
+	private Long offset;
+	/** Requested chunk size; the service's default if absent. */
+	private Integer length;
+	/** Algorithm for the file checksum, e.g. {@code sha-256-tree}; SHA-256 if absent. */
+	private String checksumAlgorithm;
 
 	public String getBucket() {
 		return bucket;
@@ -29,6 +35,30 @@ public class ChunkDownloadRequest {
 		this.chunkIndex = chunkIndex;
 	}
 
+	public Long getOffset() {
+		return offset;
+	}
+
+	public void setOffset(Long offset) {
+		this.offset = offset;
+	}
+
+	public Integer getLength() {
+		return length;
+	}
+
+	public void setLength(Integer length) {
+		this.length = length;
+	}
+
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	public void setChecksumAlgorithm(String checksumAlgorithm) {
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
 	// Getters and setters
 
 }
@@ -0,0 +1,53 @@
+package com.springframework.dto;
+
+import java.util.List;
+
+public class DownloadManifestResponse {
+	private String fileName;
+	private long fileSize;
+	private int chunkSize;
+	/** Hex SHA-256 of the whole file, also its entity tag. */
+	private String checksum;
+	/** Hex SHA-256 of each chunk, in order: the per-chunk validators. */
+	private List<String> chunkChecksums;
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public String getChecksum() {
+		return checksum;
+	}
+
+	public void setChecksum(String checksum) {
+		this.checksum = checksum;
+	}
+
+	public List<String> getChunkChecksums() {
+		return chunkChecksums;
+	}
+
+	public void setChunkChecksums(List<String> chunkChecksums) {
+		this.chunkChecksums = chunkChecksums;
+	}
+}
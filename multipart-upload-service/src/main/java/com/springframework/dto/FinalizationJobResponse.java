@@ -0,0 +1,63 @@
+package com.springframework.dto;
+
+import com.springframework.service.FinalizationJob;
+
+public class FinalizationJobResponse {
+	private String jobId;
+	private String uploadId;
+	/** QUEUED, VERIFYING, STORING, COMPLETED or FAILED. */
+	private String stage;
+	private String message;
+	private String location;
+
+	public static FinalizationJobResponse of(FinalizationJob job) {
+		FinalizationJobResponse response = new FinalizationJobResponse();
+		response.setJobId(job.getJobId());
+		response.setUploadId(job.getUploadId());
+		response.setStage(job.getStage().name());
+		response.setMessage(job.getMessage());
+		response.setLocation(job.getLocation());
+		return response;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	public void setUploadId(String uploadId) {
+		this.uploadId = uploadId;
+	}
+
+	public String getStage() {
+		return stage;
+	}
+
+	public void setStage(String stage) {
+		this.stage = stage;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public void setLocation(String location) {
+		this.location = location;
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.springframework.dto;
+
+import java.util.List;
+
+public class UploadStatusResponse {
+	private String uploadId;
+	private String fileName;
+	private long fileSize;
+	private int chunkSize;
+	private int totalChunks;
+	private int receivedChunks;
+	/** Inclusive [first, last] chunk index runs the server does not have yet. */
+	private List<int[]> missingRanges;
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	public void setUploadId(String uploadId) {
+		this.uploadId = uploadId;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public int getTotalChunks() {
+		return totalChunks;
+	}
+
+	public void setTotalChunks(int totalChunks) {
+		this.totalChunks = totalChunks;
+	}
+
+	public int getReceivedChunks() {
+		return receivedChunks;
+	}
+
+	public void setReceivedChunks(int receivedChunks) {
+		this.receivedChunks = receivedChunks;
+	}
+
+	public List<int[]> getMissingRanges() {
+		return missingRanges;
+	}
+
+	public void setMissingRanges(List<int[]> missingRanges) {
+		this.missingRanges = missingRanges;
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.springframework.entity;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Reference count of a chunk in the content-addressed chunk store.
+ */
+@Entity
+@Table(name = "stored_chunk")
+public class StoredChunkEntity {
+
+	/** Hex SHA-256 of the chunk bytes. */
+	@Id
+	@Column(length = 64)
+	private String hash;
+
+	private long size;
+
+	private long refCount;
+
+	private Instant createdAt;
+
+	public String getHash() {
+		return hash;
+	}
+
+	public void setHash(String hash) {
+		this.hash = hash;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	public long getRefCount() {
+		return refCount;
+	}
+
+	public void setRefCount(long refCount) {
+		this.refCount = refCount;
+	}
+
+	public Instant getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Instant createdAt) {
+		this.createdAt = createdAt;
+	}
+}
@@ -0,0 +1,66 @@
+package com.springframework.entity;
+
+import java.time.Instant;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+
+/**
+ * The chunks a stored file holds references to in the chunk store, so they
+ * can be given back when the file is overwritten.
+ */
+@Entity
+@Table(name = "stored_file")
+public class StoredFileEntity {
+
+	/** Hex SHA-256 of the file's name, which may be longer than a key can be. */
+	@Id
+	@Column(length = 64)
+	private String id;
+
+	/** {@code bucket/key}, with an empty bucket for the backend's default. */
+	@Column(length = 2048)
+	private String name;
+
+	/** SHA-256 of chunk i at bytes [32 * i, 32 * i + 32). */
+	@Lob
+	@Column(length = 64 * 1024 * 1024)
+	private byte[] chunkHashes;
+
+	private Instant updatedAt;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public byte[] getChunkHashes() {
+		return chunkHashes;
+	}
+
+	public void setChunkHashes(byte[] chunkHashes) {
+		this.chunkHashes = chunkHashes;
+	}
+
+	public Instant getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(Instant updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+}
@@ -0,0 +1,148 @@
+package com.springframework.entity;
+
+import java.time.Instant;
+
+import org.springframework.data.domain.Persistable;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
+
+/**
+ * Persisted form of an upload session, so a restarted service can tell a
+ * client which chunks it already has.
+ */
+@Entity
+@Table(name = "upload_session")
+public class UploadSessionEntity implements Persistable<String> {
+
+	@Id
+	@Column(length = 64)
+	private String uploadId;
+
+	private String fileName;
+
+	private long fileSize;
+
+	private int chunkSize;
+
+	/** Received chunks as {@link java.util.BitSet#toByteArray()}. */
+	@Lob
+	@Column(length = 1024 * 1024)
+	private byte[] receivedBitmap;
+
+	/**
+	 * Token of the algorithm of {@link #chunkDigests}; null in rows written
+	 * before it was recorded, which are SHA-256.
+	 */
+	@Column(length = 32)
+	private String checksumAlgorithm;
+
+	/** Checksum of chunk i at bytes [n * i, n * i + n) for an n-byte checksum; zeros where a chunk is missing. */
+	@Lob
+	@Column(length = 64 * 1024 * 1024)
+	private byte[] chunkDigests;
+
+	/** Backend-specific state of the upload, e.g. an object-store multipart upload id. */
+	@Column(length = 2048)
+	private String storageHandle;
+
+	private Instant updatedAt;
+
+	/** Lets new rows be inserted without the select that merge() would do for an assigned id. */
+	@Transient
+	private boolean isNew = true;
+
+	@Override
+	public String getId() {
+		return uploadId;
+	}
+
+	@Override
+	public boolean isNew() {
+		return isNew;
+	}
+
+	@PostLoad
+	@PostPersist
+	void markNotNew() {
+		this.isNew = false;
+	}
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	public void setUploadId(String uploadId) {
+		this.uploadId = uploadId;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	public void setChecksumAlgorithm(String checksumAlgorithm) {
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	public byte[] getReceivedBitmap() {
+		return receivedBitmap;
+	}
+
+	public void setReceivedBitmap(byte[] receivedBitmap) {
+		this.receivedBitmap = receivedBitmap;
+	}
+
+	public byte[] getChunkDigests() {
+		return chunkDigests;
+	}
+
+	public void setChunkDigests(byte[] chunkDigests) {
+		this.chunkDigests = chunkDigests;
+	}
+
+	public String getStorageHandle() {
+		return storageHandle;
+	}
+
+	public void setStorageHandle(String storageHandle) {
+		this.storageHandle = storageHandle;
+	}
+
+	public Instant getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(Instant updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+}
@@ -0,0 +1,15 @@
+package com.springframework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.springframework.entity.StoredChunkEntity;
+
+public interface StoredChunkRepository extends JpaRepository<StoredChunkEntity, String> {
+
+	@Modifying
+	@Query("update StoredChunkEntity c set c.refCount = c.refCount + :delta where c.hash = :hash")
+	int adjustRefCount(@Param("hash") String hash, @Param("delta") long delta);
+}
@@ -0,0 +1,8 @@
+package com.springframework.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.springframework.entity.StoredFileEntity;
+
+public interface StoredFileRepository extends JpaRepository<StoredFileEntity, String> {
+}
@@ -0,0 +1,13 @@
+package com.springframework.repository;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.springframework.entity.UploadSessionEntity;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSessionEntity, String> {
+
+	List<UploadSessionEntity> findByUpdatedAtBefore(Instant cutoff);
+}
@@ -0,0 +1,160 @@
+package com.springframework.service;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.springframework.dto.BatchUploadResponse;
+import com.springframework.dto.BatchUploadResponse.FileResult;
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.service.TransferMetrics.Phase;
+import com.springframework.storage.StorageBackend;
+
+/**
+ * Stores many small files sent in one request, so each costs a few bytes of
+ * framing instead of an {@code /init}, a chunk and a {@code /complete}. The
+ * body is a sequence of entries, each
+ * <pre>
+ *   name     writeUTF, i.e. 2-byte length and modified UTF-8
+ *   size     8 bytes, big-endian
+ *   content  size bytes
+ *   sha-256  32 bytes, over the content
+ * </pre>
+ * ended by an empty name. The checksum trails the content so a client can
+ * hash a file while it sends it.
+ * <p>
+ * Entries are read straight off the request in one pass: each is written to a
+ * part file of its own while it is hashed and handed to the storage backend as
+ * soon as its checksum matches. A bad entry only fails that file; the batch
+ * stops early only if its framing is broken, and whatever was stored by then
+ * stays stored.
+ */
+@Component
+public class BatchUploadService {
+
+	public static final String MEDIA_TYPE = "application/x-upload-batch";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int DIGEST_LENGTH = 32;
+
+	private final UploadSessionRegistry sessions;
+	private final StorageBackend storage;
+	private final ChunkStore chunkStore;
+	private final TransferMetrics metrics;
+	private final long maxFileSize;
+
+	public BatchUploadService(UploadSessionRegistry sessions, StorageBackend storage, ChunkStore chunkStore,
+			TransferMetrics metrics, @Value("${upload.batch.max-file-size:8388608}") long maxFileSize) {
+		this.sessions = sessions;
+		this.storage = storage;
+		this.chunkStore = chunkStore;
+		this.metrics = metrics;
+		this.maxFileSize = maxFileSize;
+	}
+
+	/**
+	 * Largest file a batch may carry; bigger ones are rejected and belong on
+	 * the chunked path.
+	 */
+	public long maxFileSize() {
+		return maxFileSize;
+	}
+
+	public BatchUploadResponse receive(InputStream body, String bucket) {
+		BatchUploadResponse response = new BatchUploadResponse();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(body, BUFFER_SIZE));
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try {
+			while (true) {
+				String name = in.readUTF();
+				if (name.isEmpty()) {
+					return response;
+				}
+				long size = in.readLong();
+				if (size < 0) {
+					response.setError("Negative size for " + name);
+					return response;
+				}
+				if (size > maxFileSize) {
+					in.skipNBytes(size + DIGEST_LENGTH);
+					response.getFiles().add(FileResult.of(name, "REJECTED", null,
+							"Larger than " + maxFileSize + " bytes, use a chunked upload."));
+					continue;
+				}
+				response.getFiles().add(receiveFile(in, name, size, bucket, buffer));
+			}
+		} catch (EOFException e) {
+			response.setError("Batch ended before its end marker.");
+		} catch (UTFDataFormatException e) {
+			response.setError("Malformed file name.");
+		} catch (IOException e) {
+			response.setError("Batch could not be read: " + e.getMessage());
+		}
+		return response;
+	}
+
+	/**
+	 * Reads one entry's content and checksum, and stores the file if they match.
+	 * Only failures to read the request escape; anything else fails the file alone.
+	 */
+	private FileResult receiveFile(DataInputStream in, String name, long size, String bucket, byte[] buffer)
+			throws IOException {
+		UploadSession session = sessions.detached(name, size);
+		try {
+			MessageDigest digest = ChecksumAlgorithm.sha256();
+			long receiveStarted = System.nanoTime();
+			FileChannel channel = session.channel();
+			long written = 0;
+			while (written < size) {
+				int read = in.read(buffer, 0, (int) Math.min(buffer.length, size - written));
+				if (read < 0) {
+					throw new EOFException();
+				}
+				digest.update(buffer, 0, read);
+				ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+				while (chunk.hasRemaining()) {
+					written += channel.write(chunk, written);
+				}
+			}
+			byte[] expected = new byte[DIGEST_LENGTH];
+			in.readFully(expected);
+			metrics.record(Phase.RECEIVE, System.nanoTime() - receiveStarted);
+
+			if (!MessageDigest.isEqual(expected, digest.digest())) {
+				metrics.fileMismatch();
+				return FileResult.of(name, "CHECKSUM_MISMATCH", null, "File checksum mismatch.");
+			}
+			return store(session, bucket, name);
+		} finally {
+			session.close();
+			FileUtils.deleteDirectory(session.getDir());
+		}
+	}
+
+	private FileResult store(UploadSession session, String bucket, String name) {
+		long mergeStarted = System.nanoTime();
+		try {
+			String location = storage.complete(session, bucket, name, 1);
+			// Not added to the chunk store, but it may replace a file that was.
+			chunkStore.replaceFile(bucket, name, List.of());
+			return FileResult.of(name, "STORED", location, null);
+		} catch (IllegalArgumentException e) {
+			return FileResult.of(name, "REJECTED", null, e.getMessage());
+		} catch (IOException e) {
+			return FileResult.of(name, "FAILED", null, "Could not be stored: " + e.getMessage());
+		} finally {
+			metrics.record(Phase.MERGE, System.nanoTime() - mergeStarted);
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package com.springframework.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChecksumAlgorithm.Hasher;
+import com.springframework.protocol.TreeHash;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Whole-file digests, computed once per file version and algorithm. Entries
+ * are keyed by path, size and modification time, so a changed file simply
+ * misses and the stale entry ages out. Tree hashes are computed on the
+ * fork/join common pool, on every core. The cache is bounded and evicts least recently
+ * used entries. Digests are computed on a small background pool, and
+ * concurrent callers for the same file share one computation.
+ * <p>
+ * The SHA-256 of every chunk of a file, for a given chunk size, is cached the
+ * same way; these are the per-chunk validators of conditional downloads.
+ */
+@Component
+public class ChecksumCache {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	public record FileKey(String path, long size, long lastModified) {
+
+		public static FileKey of(File file) {
+			return new FileKey(file.getAbsolutePath(), file.length(), file.lastModified());
+		}
+	}
+
+	private record Key(FileKey file, ChecksumAlgorithm algorithm) {
+	}
+
+	private record ChunksKey(FileKey file, int chunkSize) {
+	}
+
+	private final Map<Key, CompletableFuture<String>> entries;
+	private final Map<ChunksKey, CompletableFuture<List<String>>> chunkEntries;
+	private final ExecutorService executor;
+
+	public ChecksumCache(@Value("${checksum.cache.max-entries:1024}") int maxEntries,
+			@Value("${checksum.cache.threads:2}") int threads) {
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CompletableFuture<String>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		this.chunkEntries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ChunksKey, CompletableFuture<List<String>>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+		AtomicInteger counter = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "checksum-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * The SHA-256 of the file's current version, computing it in the background if needed.
+	 */
+	public CompletableFuture<String> checksum(File file) {
+		return checksum(file, ChecksumAlgorithm.SHA_256);
+	}
+
+	/**
+	 * The digest of the file's current version in the given algorithm, computing
+	 * it in the background if needed.
+	 */
+	public CompletableFuture<String> checksum(File file, ChecksumAlgorithm algorithm) {
+		Key key = new Key(FileKey.of(file), algorithm);
+		synchronized (entries) {
+			CompletableFuture<String> future = entries.get(key);
+			if (future == null) {
+				future = CompletableFuture.supplyAsync(() -> calculateChecksum(file, algorithm), executor);
+				future.whenComplete((checksum, error) -> {
+					if (error != null) {
+						invalidate(key);
+					}
+				});
+				entries.put(key, future);
+			}
+			return future;
+		}
+	}
+
+	/**
+	 * The digest if it is already known, otherwise null. Either way a computation
+	 * is started, so a later call is likely to find it.
+	 */
+	public String getIfReady(File file, ChecksumAlgorithm algorithm) {
+		CompletableFuture<String> future = checksum(file, algorithm);
+		return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+	}
+
+	/**
+	 * The hex SHA-256 of each {@code chunkSize} chunk of the file's current
+	 * version, in order, computing them in the background if needed.
+	 */
+	public CompletableFuture<List<String>> chunkChecksums(File file, int chunkSize) {
+		ChunksKey key = new ChunksKey(FileKey.of(file), chunkSize);
+		synchronized (chunkEntries) {
+			CompletableFuture<List<String>> future = chunkEntries.get(key);
+			if (future == null) {
+				future = CompletableFuture.supplyAsync(() -> calculateChunkChecksums(file, chunkSize), executor);
+				future.whenComplete((checksums, error) -> {
+					if (error != null) {
+						synchronized (chunkEntries) {
+							chunkEntries.remove(key);
+						}
+					}
+				});
+				chunkEntries.put(key, future);
+			}
+			return future;
+		}
+	}
+
+	/**
+	 * The chunk digests if they are already known, otherwise null. Unlike
+	 * {@link #getIfReady}, this does not start computing them: every chunk size
+	 * costs a read of the whole file, and clients pick their own sizes.
+	 */
+	public List<String> chunkChecksumsIfReady(File file, int chunkSize) {
+		CompletableFuture<List<String>> future;
+		synchronized (chunkEntries) {
+			future = chunkEntries.get(new ChunksKey(FileKey.of(file), chunkSize));
+		}
+		return future != null && future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+	}
+
+	/**
+	 * Starts computing the digests of a file that is likely to be requested soon.
+	 */
+	public void prefetch(File file, ChecksumAlgorithm... algorithms) {
+		if (file.isFile()) {
+			for (ChecksumAlgorithm algorithm : algorithms) {
+				checksum(file, algorithm);
+			}
+		}
+	}
+
+	private void invalidate(Key key) {
+		synchronized (entries) {
+			CompletableFuture<String> future = entries.get(key);
+			if (future != null && future.isCompletedExceptionally()) {
+				entries.remove(key);
+			}
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private static String calculateChecksum(File file, ChecksumAlgorithm algorithm) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (algorithm == ChecksumAlgorithm.SHA_256_TREE) {
+				return HexFormat.of().formatHex(TreeHash.parallel(channel, channel.size()));
+			}
+			Hasher digest = algorithm.newHasher();
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			while (channel.read(buffer.clear()) != -1) {
+				digest.update(buffer.flip());
+			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static List<String> calculateChunkChecksums(File file, int chunkSize) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			List<String> checksums = new ArrayList<>();
+			Hasher digest = ChecksumAlgorithm.SHA_256.newHasher();
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			long size = channel.size();
+			for (long chunkStart = 0; chunkStart < size; chunkStart += chunkSize) {
+				long chunkEnd = Math.min(size, chunkStart + chunkSize);
+				for (long position = chunkStart; position < chunkEnd;) {
+					buffer.clear().limit((int) Math.min(BUFFER_SIZE, chunkEnd - position));
+					int read = channel.read(buffer, position);
+					if (read < 0) {
+						throw new IOException("File ended at " + position);
+					}
+					digest.update(buffer.flip());
+					position += read;
+				}
+				checksums.add(HexFormat.of().formatHex(digest.digest()));
+				digest = ChecksumAlgorithm.SHA_256.newHasher();
+			}
+			return checksums;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
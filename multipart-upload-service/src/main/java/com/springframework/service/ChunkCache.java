@@ -0,0 +1,285 @@
+package com.springframework.service;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.springframework.protocol.ChunkCodec;
+import com.springframework.service.ChecksumCache.FileKey;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Download chunks of popular files, kept as they go on the wire so a hit
+ * costs neither a disk read nor another pass of the compressor. Chunks live
+ * in direct buffers outside the heap and are written from there, so a large
+ * cache adds no garbage collection work.
+ * <p>
+ * The cache is bounded in bytes; each entry is charged {@link #ENTRY_COST}
+ * besides its data, so however small the chunks the number of entries is
+ * bounded too. Entries are kept in least recently used order, but a chunk
+ * only gets in if the {@link FrequencySketch} has seen it requested more
+ * often than every entry it would push out, in the manner of TinyLFU; a file
+ * read once from end to end cannot flush out the chunks everyone is asking
+ * for. That is decided before the chunk is read, and a chunk that does not
+ * get in is left to the caller to send from the file, so it costs no buffer.
+ * Entries are keyed by the file's path, size and modification time, the chunk
+ * size and the chunk's index, and a file seen with a new version drops all
+ * chunks of the old one.
+ */
+@Component
+public class ChunkCache {
+
+	/**
+	 * What an entry is charged besides its data: about its footprint on the heap.
+	 */
+	static final long ENTRY_COST = 256;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long TYPICAL_CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * A cached chunk: {@code data} in {@code codec}. A chunk asked for coded
+	 * that does not compress is kept as is, in {@link ChunkCodec#IDENTITY}.
+	 */
+	public record Chunk(ByteBuffer data, ChunkCodec codec) {
+
+		/**
+		 * A view of the bytes with its own position, for one response.
+		 */
+		@Override
+		public ByteBuffer data() {
+			return data.duplicate();
+		}
+
+		long cost() {
+			return data.capacity() + ENTRY_COST;
+		}
+	}
+
+	private record Key(FileKey file, int chunkSize, long chunkIndex, ChunkCodec codec) {
+	}
+
+	private final long maxBytes;
+	private final Map<Key, Chunk> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, FileKey> versions = new HashMap<>();
+	private final FrequencySketch sketch;
+	private long bytes;
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter evictions;
+	private final Counter rejections;
+
+	public ChunkCache(@Value("${download.cache.max-bytes:268435456}") long maxBytes, MeterRegistry registry) {
+		this.maxBytes = maxBytes;
+		this.sketch = new FrequencySketch((int) Math.min(1 << 16, Math.max(64, maxBytes / TYPICAL_CHUNK_SIZE)));
+		hits = Counter.builder("transfer.chunk.cache.requests")
+				.description("Download chunk lookups in the hot chunk cache")
+				.tag("result", "hit")
+				.register(registry);
+		misses = Counter.builder("transfer.chunk.cache.requests")
+				.tag("result", "miss")
+				.register(registry);
+		evictions = Counter.builder("transfer.chunk.cache.evictions")
+				.description("Chunks pushed out of the cache by more popular ones")
+				.register(registry);
+		rejections = Counter.builder("transfer.chunk.cache.rejections")
+				.description("Chunks not cached because what they would push out is requested more")
+				.register(registry);
+		Gauge.builder("transfer.chunk.cache.size", this, ChunkCache::size)
+				.description("Bytes charged to the chunk cache: chunk data outside the heap plus a fixed cost per entry")
+				.baseUnit("bytes")
+				.register(registry);
+	}
+
+	/**
+	 * Whether the cache holds anything at all; {@code download.cache.max-bytes=0} turns it off.
+	 */
+	public boolean enabled() {
+		return maxBytes > 0;
+	}
+
+	public synchronized long size() {
+		return bytes;
+	}
+
+	/**
+	 * Chunk {@code chunkIndex} of the file's current version cut into
+	 * {@code chunkSize} chunks, in {@code codec} if it compresses: from the
+	 * cache, or read now if it is requested often enough to earn a place.
+	 * Returns null if it is neither cached nor let in, in which case nothing
+	 * has been read and the caller sends it from the file.
+	 */
+	public Chunk get(File file, int chunkSize, long chunkIndex, ChunkCodec codec) throws IOException {
+		Key key = new Key(FileKey.of(file), chunkSize, chunkIndex, codec);
+		long offset = chunkIndex * chunkSize;
+		long length = Math.min(chunkSize, key.file().size() - offset);
+		if (length <= 0) {
+			return null;
+		}
+		synchronized (this) {
+			invalidateOldVersions(key.file());
+			sketch.increment(key);
+			Chunk cached = entries.get(key);
+			if (cached != null) {
+				hits.increment();
+				return cached;
+			}
+			misses.increment();
+			// Judged on the raw size, which a coded chunk only comes in under.
+			if (victims(key, length + ENTRY_COST) == null) {
+				rejections.increment();
+				return null;
+			}
+		}
+		// Read outside the lock; two requests missing together both read, which is harmless.
+		Chunk chunk = load(file, offset, length, codec);
+		admit(key, chunk);
+		return chunk;
+	}
+
+	/**
+	 * The entries to evict to make room for {@code cost}, or null if the new
+	 * chunk is not requested more than each of them.
+	 */
+	private List<Key> victims(Key key, long cost) {
+		if (cost > maxBytes) {
+			return null;
+		}
+		int frequency = sketch.frequency(key);
+		List<Key> victims = new ArrayList<>();
+		long freed = 0;
+		for (Iterator<Map.Entry<Key, Chunk>> it = entries.entrySet().iterator(); bytes - freed + cost > maxBytes;) {
+			Map.Entry<Key, Chunk> eldest = it.next();
+			if (sketch.frequency(eldest.getKey()) >= frequency) {
+				return null;
+			}
+			victims.add(eldest.getKey());
+			freed += eldest.getValue().cost();
+		}
+		return victims;
+	}
+
+	/**
+	 * Caches a chunk that was let in, unless the file changed or the cache
+	 * filled up with more popular chunks while it was read.
+	 */
+	private synchronized void admit(Key key, Chunk chunk) {
+		if (entries.containsKey(key) || !key.file().equals(versions.get(key.file().path()))) {
+			return;
+		}
+		List<Key> victims = victims(key, chunk.cost());
+		if (victims == null) {
+			rejections.increment();
+			return;
+		}
+		for (Key victim : victims) {
+			bytes -= entries.remove(victim).cost();
+			evictions.increment();
+		}
+		entries.put(key, chunk);
+		bytes += chunk.cost();
+	}
+
+	/**
+	 * Drops every chunk of a file once it is seen with another size or
+	 * modification time.
+	 */
+	private void invalidateOldVersions(FileKey current) {
+		FileKey previous = versions.put(current.path(), current);
+		if (previous == null || previous.equals(current)) {
+			return;
+		}
+		for (Iterator<Map.Entry<Key, Chunk>> it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Key, Chunk> entry = it.next();
+			if (entry.getKey().file().equals(previous)) {
+				bytes -= entry.getValue().cost();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Reads a chunk into a direct buffer, coding it straight into the buffer
+	 * if it compresses; a chunk whose coded form would not fit in its raw size
+	 * is kept raw in the same buffer.
+	 */
+	private static Chunk load(File file, long offset, long length, ChunkCodec codec) throws IOException {
+		ByteBuffer data = ByteBuffer.allocateDirect((int) length);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (codec != ChunkCodec.IDENTITY && encode(channel, offset, length, codec, data)) {
+				data.flip();
+				if (data.remaining() < data.capacity()) {
+					// Trimmed to size, since it is kept for as long as it is popular.
+					data = ByteBuffer.allocateDirect(data.remaining()).put(data).flip();
+				}
+				return new Chunk(data.asReadOnlyBuffer(), codec);
+			}
+			data.clear();
+			while (data.hasRemaining()) {
+				if (channel.read(data, offset + data.position()) < 0) {
+					throw new EOFException("File ended at " + (offset + data.position()));
+				}
+			}
+			return new Chunk(data.flip().asReadOnlyBuffer(), ChunkCodec.IDENTITY);
+		}
+	}
+
+	/**
+	 * Codes a region into {@code target}. Returns false, with {@code target}
+	 * left in any state, if a sample of the region does not compress or the
+	 * coded bytes would not fit.
+	 */
+	private static boolean encode(FileChannel channel, long offset, long length, ChunkCodec codec,
+			ByteBuffer target) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, length));
+		while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+		}
+		if (!ChunkCodec.worthCompressing(buffer.array(), buffer.position())) {
+			return false;
+		}
+		OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) {
+				target.put((byte) b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				target.put(b, off, len);
+			}
+		};
+		try (OutputStream encoded = codec.encode(out)) {
+			long position = offset;
+			long end = offset + length;
+			while (position < end) {
+				buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					throw new EOFException("File ended at " + position);
+				}
+				encoded.write(buffer.array(), 0, read);
+				position += read;
+			}
+		} catch (BufferOverflowException e) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,64 @@
+package com.springframework.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+/**
+ * The range of chunk sizes the service accepts, for uploads and downloads
+ * alike. Clients ask for a size and get the nearest one in range; the range is
+ * advertised in {@code X-Chunk-Size-Min} and {@code X-Chunk-Size-Max} so a
+ * client can adapt within it.
+ */
+@Component
+public class ChunkSizePolicy {
+
+	public static final String CHUNK_SIZE_HEADER = "X-Chunk-Size";
+	public static final String MIN_HEADER = "X-Chunk-Size-Min";
+	public static final String MAX_HEADER = "X-Chunk-Size-Max";
+
+	private final int min;
+	private final int max;
+
+	public ChunkSizePolicy(@Value("${upload.chunk-size.min:65536}") int min,
+			@Value("${upload.chunk-size.max:33554432}") int max) {
+		if (min <= 0 || min > max) {
+			throw new IllegalArgumentException("Invalid chunk size range " + min + ".." + max);
+		}
+		this.min = min;
+		this.max = max;
+	}
+
+	public int min() {
+		return min;
+	}
+
+	public int max() {
+		return max;
+	}
+
+	/**
+	 * The size to use when a client asks for {@code requested}, which must also
+	 * be at least {@code floor} (e.g. a storage backend's smallest part).
+	 *
+	 * @throws IllegalArgumentException if no size in range satisfies the floor
+	 */
+	public int negotiate(long requested, long floor) {
+		if (floor > max) {
+			throw new IllegalArgumentException("Chunks must be at least " + floor + " bytes, above the "
+					+ max + " byte limit");
+		}
+		return (int) Math.max(Math.max(min, floor), Math.min(max, requested));
+	}
+
+	public int negotiate(long requested) {
+		return negotiate(requested, min);
+	}
+
+	public HttpHeaders headers() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(MIN_HEADER, String.valueOf(min));
+		headers.set(MAX_HEADER, String.valueOf(max));
+		return headers;
+	}
+}
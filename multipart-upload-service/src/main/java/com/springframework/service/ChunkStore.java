@@ -0,0 +1,309 @@
+package com.springframework.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.springframework.entity.StoredChunkEntity;
+import com.springframework.entity.StoredFileEntity;
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.repository.StoredChunkRepository;
+import com.springframework.repository.StoredFileRepository;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Content-addressed store of chunk bytes, laid out as {@code <root>/<ab>/<sha256>}.
+ * A chunk that is already stored never has to be sent again: it is copied
+ * locally into the upload that references it. Off unless
+ * {@code upload.dedup.enabled} is set, since it keeps a second copy of every
+ * distinct chunk of the files stored while it is on. Chunks are added by
+ * finalization, from the verified file, not as they arrive; an upload holds a
+ * reference to each chunk it has received until it is completed or aborted,
+ * and a stored file one to each of its chunks. The file on disk is the source of
+ * truth for presence; reference counts are kept in the database and, like
+ * upload sessions, written behind so the chunk path never waits on them. Which
+ * chunks each stored file holds is recorded too, so overwriting a file gives
+ * the old version's references back.
+ */
+@Component
+public class ChunkStore {
+
+	private static final Logger log = LoggerFactory.getLogger(ChunkStore.class);
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+	private static final int HASH_LENGTH = 32;
+
+	private record PendingRefs(long size, AtomicLong delta) {
+	}
+
+	private final Path root;
+	private final boolean enabled;
+	private final StoredChunkRepository repository;
+	private final StoredFileRepository files;
+	private final TransactionTemplate transactions;
+	private final Map<String, PendingRefs> pending = new ConcurrentHashMap<>();
+
+	public ChunkStore(@Value("${upload.chunk-store.dir:/tmp/chunk-store/}") String root,
+			@Value("${upload.dedup.enabled:false}") boolean enabled, StoredChunkRepository repository,
+			StoredFileRepository files, TransactionTemplate transactions) {
+		this.root = Paths.get(root);
+		this.enabled = enabled;
+		this.repository = repository;
+		this.files = files;
+		this.transactions = transactions;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public boolean contains(String hash) {
+		return enabled && isValid(hash) && Files.isRegularFile(path(hash));
+	}
+
+	/**
+	 * The subset of {@code hashes} the store already holds.
+	 */
+	public List<String> present(Collection<String> hashes) {
+		List<String> present = new ArrayList<>();
+		for (String hash : hashes) {
+			if (contains(normalize(hash))) {
+				present.add(hash);
+			}
+		}
+		return present;
+	}
+
+	/**
+	 * Stores a verified chunk from a region of {@code source} unless it is already
+	 * present. The copy stays in the kernel via {@link FileChannel#transferTo}.
+	 */
+	public void put(String hash, FileChannel source, long offset, long length) throws IOException {
+		hash = normalize(hash);
+		if (!enabled || !isValid(hash) || contains(hash)) {
+			return;
+		}
+		Path target = path(hash);
+		Files.createDirectories(target.getParent());
+		Path tmp = root.resolve("tmp-" + UUID.randomUUID());
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			long position = offset;
+			long end = offset + length;
+			while (position < end) {
+				position += source.transferTo(position, end - position, out);
+			}
+		}
+		// Same content under the same name, so losing a race to another writer is harmless.
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Size of a stored chunk, or -1 if it is not stored.
+	 */
+	public long size(String hash) throws IOException {
+		hash = normalize(hash);
+		if (!contains(hash)) {
+			return -1;
+		}
+		try {
+			return Files.size(path(hash));
+		} catch (NoSuchFileException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Copies a stored chunk of {@code length} bytes into {@code target} at
+	 * {@code offset}. Never writes past {@code offset + length}: a stored chunk
+	 * of another size fails rather than spilling into whatever follows.
+	 *
+	 * @return the number of bytes copied, or -1 if the chunk is not stored
+	 */
+	public long copyTo(String hash, FileChannel target, long offset, long length) throws IOException {
+		hash = normalize(hash);
+		if (!contains(hash)) {
+			return -1;
+		}
+		// Positional writes: the target is shared by concurrent chunk writers and
+		// may still be shorter than offset, which transferFrom would not extend.
+		try (FileChannel in = FileChannel.open(path(hash), StandardOpenOption.READ)) {
+			if (in.size() != length) {
+				throw new IOException("Stored chunk " + hash + " is " + in.size() + " bytes, expected " + length);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			long position = offset;
+			long end = offset + length;
+			while (position < end) {
+				buffer.clear().limit((int) Math.min(BUFFER_SIZE, end - position));
+				if (in.read(buffer, position - offset) < 0) {
+					throw new IOException("Stored chunk " + hash + " ended at " + (position - offset));
+				}
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					position += target.write(buffer, position);
+				}
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * Records one more upload referencing the chunk.
+	 */
+	public void retain(String hash, long size) {
+		adjust(normalize(hash), size, 1);
+	}
+
+	/**
+	 * Drops a reference; the chunk is deleted once nothing references it.
+	 */
+	public void release(String hash) {
+		adjust(normalize(hash), 0, -1);
+	}
+
+	/**
+	 * Records {@code hashes} as the chunks of the file just stored as
+	 * {@code bucket/key}, whose references the caller has already taken, and
+	 * drops the references of the version it replaced. Called with no hashes
+	 * for a file stored without going through the store.
+	 *
+	 * @param bucket bucket, or null for the backend's default
+	 */
+	public synchronized void replaceFile(String bucket, String key, List<String> hashes) {
+		if (!enabled) {
+			return;
+		}
+		String name = (bucket != null ? bucket : "") + "/" + key;
+		String id = HexFormat.of().formatHex(ChecksumAlgorithm.sha256().digest(name.getBytes(StandardCharsets.UTF_8)));
+		List<String> replaced = new ArrayList<>();
+		transactions.executeWithoutResult(status -> {
+			StoredFileEntity file = files.findById(id).orElse(null);
+			if (file != null) {
+				byte[] previous = file.getChunkHashes();
+				for (int i = 0; i + HASH_LENGTH <= previous.length; i += HASH_LENGTH) {
+					replaced.add(HexFormat.of().formatHex(previous, i, i + HASH_LENGTH));
+				}
+			}
+			if (hashes.isEmpty()) {
+				if (file != null) {
+					files.delete(file);
+				}
+				return;
+			}
+			if (file == null) {
+				file = new StoredFileEntity();
+				file.setId(id);
+				file.setName(name);
+			}
+			byte[] packed = new byte[HASH_LENGTH * hashes.size()];
+			for (int i = 0; i < hashes.size(); i++) {
+				System.arraycopy(HexFormat.of().parseHex(hashes.get(i)), 0, packed, HASH_LENGTH * i, HASH_LENGTH);
+			}
+			file.setChunkHashes(packed);
+			file.setUpdatedAt(Instant.now());
+			files.save(file);
+		});
+		// Only once the new version is on record, so a rolled-back replace gives nothing back.
+		replaced.forEach(this::release);
+	}
+
+	private void adjust(String hash, long size, long delta) {
+		if (enabled && isValid(hash)) {
+			// compute() keeps the increment atomic with flush() taking the entry away
+			pending.compute(hash, (h, refs) -> {
+				PendingRefs updated = refs != null ? refs : new PendingRefs(size, new AtomicLong());
+				updated.delta().addAndGet(delta);
+				return updated;
+			});
+		}
+	}
+
+	/**
+	 * Writes pending reference counts. Synchronized: the deltas stay pending
+	 * until committed, so two flushes at once would both write them.
+	 */
+	@Scheduled(fixedDelayString = "${upload.session.flush-interval-ms:500}")
+	@PreDestroy
+	public synchronized void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+		Map<String, PendingRefs> snapshot = new HashMap<>();
+		pending.forEach((hash, refs) -> snapshot.put(hash, new PendingRefs(refs.size(),
+				new AtomicLong(refs.delta().get()))));
+		List<String> unreferenced = new ArrayList<>();
+		// A rolled-back flush leaves pending as it was, to be tried again on the next run.
+		transactions.executeWithoutResult(status -> save(snapshot, unreferenced));
+		// Only what was written is taken out; references added meanwhile stay pending.
+		snapshot.forEach((hash, written) -> pending.computeIfPresent(hash,
+				(h, refs) -> refs.delta().addAndGet(-written.delta().get()) == 0 ? null : refs));
+		for (String hash : unreferenced) {
+			try {
+				Files.deleteIfExists(path(hash));
+			} catch (IOException e) {
+				log.warn("Could not delete unreferenced chunk {}: {}", hash, e.getMessage());
+			}
+		}
+	}
+
+	private void save(Map<String, PendingRefs> snapshot, List<String> unreferenced) {
+		snapshot.forEach((hash, refs) -> {
+			long delta = refs.delta().get();
+			if (delta == 0) {
+				return;
+			}
+			if (repository.adjustRefCount(hash, delta) == 0 && delta > 0) {
+				StoredChunkEntity entity = new StoredChunkEntity();
+				entity.setHash(hash);
+				entity.setSize(refs.size());
+				entity.setRefCount(delta);
+				entity.setCreatedAt(Instant.now());
+				repository.save(entity);
+			} else if (delta < 0) {
+				repository.findById(hash).filter(entity -> entity.getRefCount() <= 0).ifPresent(entity -> {
+					repository.delete(entity);
+					unreferenced.add(hash);
+				});
+			}
+		});
+	}
+
+	private Path path(String hash) {
+		return root.resolve(hash.substring(0, 2)).resolve(hash);
+	}
+
+	private static String normalize(String hash) {
+		return hash == null ? null : hash.toLowerCase(Locale.ROOT);
+	}
+
+	private static boolean isValid(String hash) {
+		return hash != null && SHA256_HEX.matcher(hash).matches();
+	}
+}
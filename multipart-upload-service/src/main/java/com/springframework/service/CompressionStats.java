@@ -0,0 +1,64 @@
+package com.springframework.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Running totals of chunk bytes before and after coding, per direction.
+ */
+@Component
+public class CompressionStats {
+
+	private final AtomicLong uploadRawBytes = new AtomicLong();
+	private final AtomicLong uploadWireBytes = new AtomicLong();
+	private final AtomicLong downloadRawBytes = new AtomicLong();
+	private final AtomicLong downloadWireBytes = new AtomicLong();
+
+	public void recordUpload(long rawBytes, long wireBytes) {
+		uploadRawBytes.addAndGet(rawBytes);
+		uploadWireBytes.addAndGet(wireBytes);
+	}
+
+	public void recordDownload(long rawBytes, long wireBytes) {
+		downloadRawBytes.addAndGet(rawBytes);
+		downloadWireBytes.addAndGet(wireBytes);
+	}
+
+	public long uploadRawBytes() {
+		return uploadRawBytes.get();
+	}
+
+	public long uploadWireBytes() {
+		return uploadWireBytes.get();
+	}
+
+	public long downloadRawBytes() {
+		return downloadRawBytes.get();
+	}
+
+	public long downloadWireBytes() {
+		return downloadWireBytes.get();
+	}
+
+	public long uploadSavedBytes() {
+		return uploadRawBytes.get() - uploadWireBytes.get();
+	}
+
+	public long downloadSavedBytes() {
+		return downloadRawBytes.get() - downloadWireBytes.get();
+	}
+
+	public Map<String, Long> snapshot() {
+		Map<String, Long> snapshot = new LinkedHashMap<>();
+		snapshot.put("uploadRawBytes", uploadRawBytes.get());
+		snapshot.put("uploadWireBytes", uploadWireBytes.get());
+		snapshot.put("uploadSavedBytes", uploadSavedBytes());
+		snapshot.put("downloadRawBytes", downloadRawBytes.get());
+		snapshot.put("downloadWireBytes", downloadWireBytes.get());
+		snapshot.put("downloadSavedBytes", downloadSavedBytes());
+		return snapshot;
+	}
+}
@@ -0,0 +1,223 @@
+package com.springframework.service;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import org.springframework.stereotype.Component;
+
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChecksumAlgorithm.Hasher;
+import com.springframework.protocol.RollingChecksum;
+import com.springframework.storage.StorageBackend;
+
+/**
+ * Delta uploads in the manner of rsync, for new versions of files the service
+ * already stores. A client fetches the {@link #writeSignature signature} of
+ * the stored version, finds the blocks it still has at any offset of the new
+ * file, and sends only a delta: references to old blocks and the literal bytes
+ * between them. The service {@link #apply rebuilds} the new file from the two.
+ * <p>
+ * A signature is the block size (4 bytes), the size of the stored file
+ * (8 bytes) and, for every whole block, its {@link RollingChecksum} (4 bytes)
+ * and the first {@value #STRONG_LENGTH} bytes of its SHA-256. A delta is a
+ * sequence of operations, each a one-byte code:
+ * <pre>
+ *   'C' first block (4 bytes), block count (4 bytes)   copy old blocks
+ *   'L' length (4 bytes), length bytes                 literal bytes
+ *   'E'                                                end of the delta
+ * </pre>
+ * Truncated strong hashes keep the signature small; a collision would still
+ * be caught by the whole-file checksum on {@code /complete}.
+ */
+@Component
+public class DeltaService {
+
+	public static final int STRONG_LENGTH = 16;
+	public static final int MIN_BLOCK_SIZE = 512;
+	public static final int MAX_BLOCK_SIZE = 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final StorageBackend storage;
+	private final ChunkStore chunkStore;
+
+	public DeltaService(StorageBackend storage, ChunkStore chunkStore) {
+		this.storage = storage;
+		this.chunkStore = chunkStore;
+	}
+
+	/**
+	 * Block size for a file of this size when the client does not ask for one:
+	 * about its square root, as rsync picks it, between 2 KiB and 128 KiB.
+	 */
+	public static int defaultBlockSize(long fileSize) {
+		long root = (long) Math.sqrt((double) fileSize);
+		long rounded = (root + 1023) / 1024 * 1024;
+		return (int) Math.max(2 * 1024, Math.min(128 * 1024, rounded));
+	}
+
+	/**
+	 * Writes the signature of the first {@code size} bytes of {@code base}.
+	 */
+	public void writeSignature(FileChannel base, long size, int blockSize, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(blockSize);
+		data.writeLong(size);
+		ByteBuffer block = ByteBuffer.allocate(blockSize);
+		MessageDigest strong = ChecksumAlgorithm.sha256();
+		for (long position = 0; position + blockSize <= size; position += blockSize) {
+			block.clear();
+			while (block.hasRemaining()) {
+				if (base.read(block, position + block.position()) < 0) {
+					throw new EOFException("Stored file ended at " + (position + block.position()));
+				}
+			}
+			data.writeInt(RollingChecksum.of(block.array(), 0, blockSize));
+			strong.update(block.array(), 0, blockSize);
+			data.write(strong.digest(), 0, STRONG_LENGTH);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Rebuilds the session's file from {@code base} and a delta, writing it from
+	 * the start. Every chunk is hashed, handed to the storage backend and marked
+	 * received as soon as it is complete, as if it had been uploaded, so the
+	 * upload is finished with {@code /complete} like any other. With the chunk
+	 * store on, the session takes a reference to each rebuilt chunk and drops
+	 * the one it held to any chunk it replaces, as {@code /chunk} does.
+	 *
+	 * @return bytes taken from {@code base}
+	 * @throws IllegalArgumentException if the delta is malformed or does not
+	 * rebuild a file of the session's size
+	 */
+	public long apply(UploadSession session, FileChannel base, InputStream delta) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(delta, BUFFER_SIZE));
+		ChunkWriter out = new ChunkWriter(session);
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		int blockSize = in.readInt();
+		if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Invalid block size: " + blockSize);
+		}
+		long baseSize = base.size();
+		long copied = 0;
+		while (true) {
+			int op = in.read();
+			switch (op) {
+				case 'C' -> {
+					long offset = (long) in.readInt() * blockSize;
+					long length = (long) in.readInt() * blockSize;
+					if (offset < 0 || length <= 0 || offset + length > baseSize) {
+						throw new IllegalArgumentException("Block reference outside the stored file");
+					}
+					out.checkRoom(length);
+					for (long done = 0; done < length;) {
+						buffer.clear().limit((int) Math.min(BUFFER_SIZE, length - done));
+						int read = base.read(buffer, offset + done);
+						if (read < 0) {
+							throw new EOFException("Stored file ended at " + (offset + done));
+						}
+						out.write(buffer.array(), read);
+						done += read;
+					}
+					copied += length;
+				}
+				case 'L' -> {
+					int length = in.readInt();
+					if (length <= 0) {
+						throw new IllegalArgumentException("Invalid literal length: " + length);
+					}
+					out.checkRoom(length);
+					for (int done = 0; done < length;) {
+						int read = in.read(buffer.array(), 0, Math.min(BUFFER_SIZE, length - done));
+						if (read < 0) {
+							throw new EOFException("Delta ended inside a literal");
+						}
+						out.write(buffer.array(), read);
+						done += read;
+					}
+				}
+				case 'E' -> {
+					out.finish();
+					return copied;
+				}
+				case -1 -> throw new EOFException("Delta ended before its end marker");
+				default -> throw new IllegalArgumentException("Unknown delta operation: " + op);
+			}
+		}
+	}
+
+	/**
+	 * Writes the rebuilt file front to back and completes chunks as it crosses
+	 * their boundaries.
+	 */
+	private final class ChunkWriter {
+
+		private final UploadSession session;
+		private final FileChannel channel;
+		private final long fileSize;
+		private final boolean dedups;
+		private long written;
+		private int chunkIndex;
+		private long chunkWritten;
+		private Hasher digest;
+
+		ChunkWriter(UploadSession session) throws IOException {
+			this.session = session;
+			this.channel = session.channel();
+			this.fileSize = session.getFileSize();
+			this.dedups = chunkStore.isEnabled() && session.getChecksumAlgorithm() == ChecksumAlgorithm.SHA_256;
+			this.digest = session.getChecksumAlgorithm().newHasher();
+		}
+
+		void checkRoom(long length) {
+			if (written + length > fileSize) {
+				throw new IllegalArgumentException("Delta rebuilds more than " + fileSize + " bytes");
+			}
+		}
+
+		void write(byte[] bytes, int length) throws IOException {
+			int offset = 0;
+			while (offset < length) {
+				int take = (int) Math.min(length - offset, session.expectedLength(chunkIndex) - chunkWritten);
+				digest.update(bytes, offset, take);
+				ByteBuffer slice = ByteBuffer.wrap(bytes, offset, take);
+				while (slice.hasRemaining()) {
+					written += channel.write(slice, written);
+				}
+				offset += take;
+				chunkWritten += take;
+				if (chunkWritten == session.expectedLength(chunkIndex)) {
+					byte[] chunkDigest = digest.digest();
+					byte[] replaced = session.digest(chunkIndex);
+					storage.chunkStored(session, chunkIndex, chunkWritten);
+					session.markReceived(chunkIndex, chunkDigest);
+					if (dedups) {
+						if (replaced != null) {
+							chunkStore.release(HexFormat.of().formatHex(replaced));
+						}
+						chunkStore.retain(HexFormat.of().formatHex(chunkDigest), chunkWritten);
+					}
+					digest = session.getChecksumAlgorithm().newHasher();
+					chunkIndex++;
+					chunkWritten = 0;
+				}
+			}
+		}
+
+		void finish() {
+			if (written != fileSize) {
+				throw new IllegalArgumentException("Delta rebuilt " + written + " of " + fileSize + " bytes");
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.springframework.service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Progress of one {@code /complete} call: verifying the assembled file and
+ * handing it to storage. Observers are told about every stage change.
+ */
+public class FinalizationJob {
+
+	public enum Stage {
+		QUEUED, VERIFYING, STORING, COMPLETED, FAILED;
+
+		public boolean isTerminal() {
+			return this == COMPLETED || this == FAILED;
+		}
+	}
+
+	private final String jobId;
+	private final String uploadId;
+	private final List<Consumer<FinalizationJob>> listeners = new CopyOnWriteArrayList<>();
+	private Stage stage = Stage.QUEUED;
+	private String message;
+	private String location;
+	private Instant updatedAt = Instant.now();
+
+	FinalizationJob(String jobId, String uploadId) {
+		this.jobId = jobId;
+		this.uploadId = uploadId;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	public synchronized Stage getStage() {
+		return stage;
+	}
+
+	/**
+	 * Why the job failed, or null.
+	 */
+	public synchronized String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Where the file was stored, once the job has completed.
+	 */
+	public synchronized String getLocation() {
+		return location;
+	}
+
+	public synchronized Instant getUpdatedAt() {
+		return updatedAt;
+	}
+
+	/**
+	 * Calls {@code listener} now and on every later stage change, until the job ends.
+	 */
+	public void subscribe(Consumer<FinalizationJob> listener) {
+		listeners.add(listener);
+		listener.accept(this);
+		if (getStage().isTerminal()) {
+			listeners.remove(listener);
+		}
+	}
+
+	public void unsubscribe(Consumer<FinalizationJob> listener) {
+		listeners.remove(listener);
+	}
+
+	void advance(Stage stage) {
+		update(stage, null, null);
+	}
+
+	void complete(String location) {
+		update(Stage.COMPLETED, null, location);
+	}
+
+	void fail(String message) {
+		update(Stage.FAILED, message, null);
+	}
+
+	private void update(Stage stage, String message, String location) {
+		synchronized (this) {
+			this.stage = stage;
+			this.message = message;
+			this.location = location;
+			this.updatedAt = Instant.now();
+		}
+		for (Consumer<FinalizationJob> listener : listeners) {
+			listener.accept(this);
+		}
+		if (stage.isTerminal()) {
+			listeners.clear();
+		}
+	}
+}
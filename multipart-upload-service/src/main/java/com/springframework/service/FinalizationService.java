@@ -0,0 +1,283 @@
+package com.springframework.service;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChecksumAlgorithm.Hasher;
+import com.springframework.protocol.ChunkManifest;
+import com.springframework.protocol.TreeHash;
+import com.springframework.service.FinalizationJob.Stage;
+import com.springframework.service.TransferMetrics.Phase;
+import com.springframework.storage.StorageBackend;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs {@code /complete} off the request threads. Jobs wait in a bounded
+ * priority queue and the cheapest go first: a file verified from its chunk
+ * manifest is done in milliseconds, while one that has to be re-read costs
+ * time in proportion to its size, so a few big files cannot hold up every
+ * small one behind them.
+ */
+@Component
+public class FinalizationService {
+
+	private static final Logger log = LoggerFactory.getLogger(FinalizationService.class);
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * What {@code /complete} was asked to do. {@code expectedChecksum} is in
+	 * {@code checksumAlgorithm}.
+	 */
+	public record Request(String uploadId, String fileName, String bucketName, int totalChunks,
+			String expectedChecksum, ChecksumAlgorithm checksumAlgorithm, String manifestChecksum) {
+	}
+
+	private final UploadSessionRegistry sessions;
+	private final StorageBackend storage;
+	private final ChunkStore chunkStore;
+	private final TransferMetrics metrics;
+	private final int queueCapacity;
+	private final Duration retention;
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final Map<String, FinalizationJob> jobs = new ConcurrentHashMap<>();
+	private final Map<String, FinalizationJob> activeByUpload = new ConcurrentHashMap<>();
+
+	public FinalizationService(UploadSessionRegistry sessions, StorageBackend storage, ChunkStore chunkStore,
+			TransferMetrics metrics,
+			@Value("${finalize.threads:2}") int threads,
+			@Value("${finalize.queue-capacity:100}") int queueCapacity,
+			@Value("${finalize.job-retention-ms:3600000}") long retentionMillis) {
+		this.sessions = sessions;
+		this.storage = storage;
+		this.chunkStore = chunkStore;
+		this.metrics = metrics;
+		this.queueCapacity = queueCapacity;
+		this.retention = Duration.ofMillis(retentionMillis);
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<>(queueCapacity, Comparator.comparing((Runnable task) -> (Task) task,
+						Comparator.comparingLong(Task::cost).thenComparingLong(Task::sequence))),
+				runnable -> {
+					Thread thread = new Thread(runnable, "finalize-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Queues finalization of an upload whose chunks have all arrived. A second
+	 * call for an upload that is still being finalized returns the running job.
+	 *
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public FinalizationJob submit(UploadSession session, Request request) {
+		return submit(session, request, null);
+	}
+
+	/**
+	 * Like {@link #submit(UploadSession, Request)}, with {@code listener}
+	 * subscribed to the job before it can start, so it sees every stage.
+	 */
+	public FinalizationJob submit(UploadSession session, Request request, Consumer<FinalizationJob> listener) {
+		AtomicBoolean subscribed = new AtomicBoolean();
+		FinalizationJob job = activeByUpload.computeIfAbsent(request.uploadId(), uploadId -> {
+			if (queued.get() >= queueCapacity) {
+				throw new RejectedExecutionException("Finalization queue is full");
+			}
+			FinalizationJob created = new FinalizationJob(UUID.randomUUID().toString(), uploadId);
+			jobs.put(created.getJobId(), created);
+			queued.incrementAndGet();
+			long cost = request.manifestChecksum() != null ? 0 : session.getPartFile().length();
+			// Not unloaded as idle however long it waits in the queue.
+			session.pin();
+			if (listener != null) {
+				created.subscribe(listener);
+				subscribed.set(true);
+			}
+			executor.execute(new Task(cost, sequence.incrementAndGet(), () -> run(created, session, request)));
+			return created;
+		});
+		// A job that was already running replays its current stage.
+		if (listener != null && !subscribed.get()) {
+			job.subscribe(listener);
+		}
+		return job;
+	}
+
+	public FinalizationJob get(String jobId) {
+		return jobs.get(jobId);
+	}
+
+	private void run(FinalizationJob job, UploadSession session, Request request) {
+		queued.decrementAndGet();
+		try {
+			job.advance(Stage.VERIFYING);
+			long verifyStarted = System.nanoTime();
+			String failure = verify(session, request);
+			metrics.record(Phase.VERIFY, System.nanoTime() - verifyStarted);
+			if (failure != null) {
+				metrics.fileMismatch();
+				job.fail(failure);
+				return;
+			}
+
+			job.advance(Stage.STORING);
+			boolean dedup = chunkStore.isEnabled() && session.getChecksumAlgorithm() == ChecksumAlgorithm.SHA_256;
+			long fileSize = session.channel().size();
+			if (dedup) {
+				addToChunkStore(session, request.totalChunks(), fileSize);
+			}
+			long mergeStarted = System.nanoTime();
+			String location = storage.complete(session, request.bucketName(), request.fileName(),
+					request.totalChunks());
+			metrics.record(Phase.MERGE, System.nanoTime() - mergeStarted);
+			log.info("Upload {} stored at {}", request.uploadId(), location);
+			if (dedup) {
+				transferChunkReferences(session, request, fileSize);
+			} else {
+				chunkStore.replaceFile(request.bucketName(), request.fileName(), List.of());
+			}
+
+			// Cleanup
+			sessions.remove(request.uploadId());
+			FileUtils.deleteDirectory(session.getDir());
+			job.complete(location);
+		} catch (IllegalArgumentException e) {
+			job.fail(e.getMessage());
+		} catch (Exception e) {
+			log.error("Finalization of upload {} failed", request.uploadId(), e);
+			job.fail("Finalization failed: " + e.getMessage());
+		} finally {
+			session.unpin();
+			activeByUpload.remove(request.uploadId(), job);
+		}
+	}
+
+	/**
+	 * Adds the chunks of the verified part file to the chunk store before the
+	 * backend takes the file away. Should storing then fail, the chunks stay
+	 * unreferenced until a later upload of the same content references them.
+	 */
+	private void addToChunkStore(UploadSession session, int totalChunks, long fileSize) throws Exception {
+		FileChannel channel = session.channel();
+		byte[][] digests = session.digests(totalChunks);
+		for (int i = 0; i < totalChunks; i++) {
+			if (digests[i] != null) {
+				chunkStore.put(HexFormat.of().formatHex(digests[i]), channel, session.offset(i),
+						chunkLength(session, i, fileSize));
+			}
+		}
+	}
+
+	/**
+	 * The stored file takes a reference to each of its chunks, the version it
+	 * replaced gives its references back and the upload drops the ones it held
+	 * while it was in flight.
+	 */
+	private void transferChunkReferences(UploadSession session, Request request, long fileSize) {
+		byte[][] digests = session.digests(request.totalChunks());
+		List<String> hashes = new ArrayList<>();
+		for (int i = 0; i < digests.length; i++) {
+			if (digests[i] != null) {
+				String hash = HexFormat.of().formatHex(digests[i]);
+				chunkStore.retain(hash, chunkLength(session, i, fileSize));
+				hashes.add(hash);
+			}
+		}
+		chunkStore.replaceFile(request.bucketName(), request.fileName(), hashes);
+		session.receivedDigests().forEach(digest -> chunkStore.release(HexFormat.of().formatHex(digest)));
+	}
+
+	private static long chunkLength(UploadSession session, int chunkIndex, long fileSize) {
+		return Math.max(0, Math.min(session.getChunkSize(), fileSize - session.offset(chunkIndex)));
+	}
+
+	/**
+	 * Checks the assembled file against the client's checksums; returns why it
+	 * does not match, or null if it does. With a manifest the file is verified
+	 * from the chunk digests recorded on arrival and never re-read.
+	 */
+	private String verify(UploadSession session, Request request) throws Exception {
+		FileChannel channel = session.channel();
+		channel.force(false);
+		if (request.manifestChecksum() != null) {
+			String actualManifest = ChunkManifest.compose(session.digests(request.totalChunks()));
+			return actualManifest.equalsIgnoreCase(request.manifestChecksum()) ? null
+					: "Final file manifest mismatch.";
+		}
+		String actualChecksum = calculateChecksum(channel, channel.size(), request.checksumAlgorithm());
+		return actualChecksum.equalsIgnoreCase(request.expectedChecksum()) ? null : "Final file checksum mismatch.";
+	}
+
+	private static String calculateChecksum(FileChannel channel, long length, ChecksumAlgorithm algorithm)
+			throws Exception {
+		if (algorithm == ChecksumAlgorithm.SHA_256_TREE) {
+			return HexFormat.of().formatHex(TreeHash.parallel(channel, length));
+		}
+		Hasher digest = algorithm.newHasher();
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = 0;
+		while (position < length) {
+			buffer.clear().limit((int) Math.min(BUFFER_SIZE, length - position));
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				break;
+			}
+			buffer.flip();
+			digest.update(buffer);
+			position += read;
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Forgets finished jobs once clients have had time to read their outcome.
+	 */
+	@Scheduled(fixedDelayString = "${finalize.job-retention-ms:3600000}")
+	public void evictFinishedJobs() {
+		Instant cutoff = Instant.now().minus(retention);
+		jobs.values().removeIf(job -> job.getStage().isTerminal() && job.getUpdatedAt().isBefore(cutoff));
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+	}
+
+	private record Task(long cost, long sequence, Runnable work) implements Runnable {
+
+		@Override
+		public void run() {
+			work.run();
+		}
+	}
+}
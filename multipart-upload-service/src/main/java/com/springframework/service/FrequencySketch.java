@@ -0,0 +1,73 @@
+package com.springframework.service;
+
+/**
+ * Approximate access counts for TinyLFU admission: a count-min sketch of four
+ * rows of counters that saturate at 15. Once the sketch has seen ten times
+ * its width in accesses every counter is halved, so popularity decays and a
+ * chunk that was hot yesterday does not keep its place forever.
+ */
+final class FrequencySketch {
+
+	private static final int ROWS = 4;
+	private static final int MAX_COUNT = 15;
+	private static final int[] SEEDS = { 0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+
+	private final byte[][] counters;
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	/**
+	 * @param expectedEntries about how many distinct keys the cache holds
+	 */
+	FrequencySketch(int expectedEntries) {
+		int width = Integer.highestOneBit(Math.max(16, expectedEntries * 4) - 1) << 1;
+		this.counters = new byte[ROWS][width];
+		this.mask = width - 1;
+		this.sampleSize = 10 * width;
+	}
+
+	void increment(Object key) {
+		int hash = key.hashCode();
+		int min = frequency(hash);
+		if (min >= MAX_COUNT) {
+			return;
+		}
+		// Conservative update: only the counters at the minimum grow, which keeps collisions from inflating counts.
+		for (int row = 0; row < ROWS; row++) {
+			int index = index(hash, row);
+			if (counters[row][index] == min) {
+				counters[row][index]++;
+			}
+		}
+		if (++additions >= sampleSize) {
+			halve();
+		}
+	}
+
+	int frequency(Object key) {
+		return frequency(key.hashCode());
+	}
+
+	private int frequency(int hash) {
+		int min = MAX_COUNT;
+		for (int row = 0; row < ROWS; row++) {
+			min = Math.min(min, counters[row][index(hash, row)]);
+		}
+		return min;
+	}
+
+	private int index(int hash, int row) {
+		int h = hash * SEEDS[row];
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private void halve() {
+		for (byte[] row : counters) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] >>= 1;
+			}
+		}
+		additions /= 2;
+	}
+}
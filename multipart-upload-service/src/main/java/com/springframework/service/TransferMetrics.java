@@ -0,0 +1,116 @@
+package com.springframework.service;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import com.springframework.admission.AdmissionControl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Micrometer meters for the transfer pipeline, exposed at
+ * {@code /actuator/prometheus}. Every phase of a chunk's life has a timer
+ * under {@code transfer.phase}, so where the time goes shows up per phase
+ * rather than as one request latency.
+ */
+@Component
+public class TransferMetrics {
+
+	public enum Phase {
+		/** A whole chunk request: network read, hashing and disk write. */
+		RECEIVE,
+		/** Hashing a received chunk. */
+		HASH,
+		/** Writing a received chunk at its offset. */
+		WRITE,
+		/** Handing a verified chunk to the storage backend. */
+		PUSH,
+		/** Verifying the assembled file on {@code /complete}. */
+		VERIFY,
+		/** Publishing the file: moving it into place, or stitching S3 parts together. */
+		MERGE,
+		/** Sending one download chunk. */
+		SERVE;
+
+		String tag() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	private final Map<Phase, Timer> timers = new EnumMap<>(Phase.class);
+	private final Counter chunkRetries;
+	private final Counter chunkMismatches;
+	private final Counter fileMismatches;
+
+	public TransferMetrics(MeterRegistry registry, CompressionStats compressionStats,
+			UploadSessionRegistry sessions, AdmissionControl admission) {
+		for (Phase phase : Phase.values()) {
+			timers.put(phase, Timer.builder("transfer.phase")
+					.description("Time spent in one phase of a chunk or file transfer")
+					.tag("phase", phase.tag())
+					.register(registry));
+		}
+		chunkRetries = Counter.builder("transfer.chunk.retries")
+				.description("Chunks sent again for a chunk that had already arrived")
+				.tag("direction", "upload")
+				.register(registry);
+		chunkMismatches = Counter.builder("transfer.checksum.mismatches")
+				.tag("scope", "chunk")
+				.register(registry);
+		fileMismatches = Counter.builder("transfer.checksum.mismatches")
+				.tag("scope", "file")
+				.register(registry);
+
+		// Byte totals come from the compression counters; rate() over them gives bytes/sec.
+		FunctionCounter.builder("transfer.bytes", compressionStats, CompressionStats::uploadRawBytes)
+				.description("Chunk bytes after decoding")
+				.baseUnit("bytes")
+				.tag("direction", "upload")
+				.register(registry);
+		FunctionCounter.builder("transfer.bytes", compressionStats, CompressionStats::downloadRawBytes)
+				.baseUnit("bytes")
+				.tag("direction", "download")
+				.register(registry);
+		FunctionCounter.builder("transfer.wire.bytes", compressionStats, CompressionStats::uploadWireBytes)
+				.description("Chunk bytes as sent, after coding")
+				.baseUnit("bytes")
+				.tag("direction", "upload")
+				.register(registry);
+		FunctionCounter.builder("transfer.wire.bytes", compressionStats, CompressionStats::downloadWireBytes)
+				.baseUnit("bytes")
+				.tag("direction", "download")
+				.register(registry);
+
+		Gauge.builder("upload.sessions.active", sessions, UploadSessionRegistry::openCount)
+				.description("Upload sessions open in memory")
+				.register(registry);
+		Gauge.builder("admission.inflight.bytes", admission, AdmissionControl::inFlightBytes)
+				.description("Bytes of chunk requests currently admitted")
+				.baseUnit("bytes")
+				.register(registry);
+	}
+
+	public void record(Phase phase, long nanos) {
+		timers.get(phase).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void chunkRetried() {
+		chunkRetries.increment();
+	}
+
+	public void chunkMismatch() {
+		chunkMismatches.increment();
+	}
+
+	public void fileMismatch() {
+		fileMismatches.increment();
+	}
+}
@@ -0,0 +1,279 @@
+package com.springframework.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.springframework.entity.UploadSessionEntity;
+import com.springframework.protocol.ChecksumAlgorithm;
+
+/**
+ * State of one chunked upload. Chunks are written in place into a single
+ * {@code .part} file at {@code chunkIndex * chunkSize}, so completing the
+ * upload is a rename rather than a merge. Which chunks arrived, and their
+ * digests, are tracked here and written behind to the database by
+ * {@link UploadSessionRegistry}.
+ */
+public class UploadSession {
+
+	private final String uploadId;
+	private final File dir;
+	private final String fileName;
+	private final long fileSize;
+	private final int chunkSize;
+	private final ChecksumAlgorithm checksumAlgorithm;
+	private final BitSet received = new BitSet();
+	private final Map<Integer, byte[]> digests = new HashMap<>();
+	private String storageHandle;
+	private boolean dirty;
+	private FileChannel channel;
+	private long lastAccessMillis = System.currentTimeMillis();
+	private int pins;
+
+	UploadSession(String uploadId, File dir, String fileName, long fileSize, int chunkSize,
+			ChecksumAlgorithm checksumAlgorithm) {
+		this.uploadId = uploadId;
+		this.dir = dir;
+		this.fileName = fileName;
+		this.fileSize = fileSize;
+		this.chunkSize = chunkSize;
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Declared file size, or -1 for sessions started implicitly by a chunk.
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * What chunk checksums of this upload are, and so what {@link #digest} returns.
+	 */
+	public ChecksumAlgorithm getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	/**
+	 * Number of chunks implied by the declared size, or -1 if no size was declared.
+	 */
+	public int getTotalChunks() {
+		return fileSize < 0 ? -1 : (int) ((fileSize + chunkSize - 1) / chunkSize);
+	}
+
+	public File getPartFile() {
+		return new File(dir, "upload.part");
+	}
+
+	public long offset(int chunkIndex) {
+		return (long) chunkIndex * chunkSize;
+	}
+
+	/**
+	 * Expected length of a chunk, or -1 if it cannot be known because the file size was not declared.
+	 */
+	public long expectedLength(int chunkIndex) {
+		if (fileSize < 0) {
+			return -1;
+		}
+		return Math.max(0, Math.min(chunkSize, fileSize - offset(chunkIndex)));
+	}
+
+	/**
+	 * State the storage backend keeps for this upload, or null if it keeps none.
+	 */
+	public synchronized String getStorageHandle() {
+		return storageHandle;
+	}
+
+	public synchronized void setStorageHandle(String storageHandle) {
+		this.storageHandle = storageHandle;
+		dirty = true;
+	}
+
+	public synchronized boolean isReceived(int chunkIndex) {
+		return received.get(chunkIndex);
+	}
+
+	public synchronized int receivedCount() {
+		return received.cardinality();
+	}
+
+	/**
+	 * Checksum recorded when the chunk was received, or null if it has not arrived.
+	 */
+	public synchronized byte[] digest(int chunkIndex) {
+		return digests.get(chunkIndex);
+	}
+
+	public synchronized void markReceived(int chunkIndex, byte[] digest) {
+		received.set(chunkIndex);
+		digests.put(chunkIndex, digest);
+		dirty = true;
+	}
+
+	public synchronized void clearReceived(int chunkIndex) {
+		received.clear(chunkIndex);
+		digests.remove(chunkIndex);
+		dirty = true;
+	}
+
+	/**
+	 * Recorded digests of chunks 0..totalChunks-1; every one of them must have arrived.
+	 */
+	public synchronized byte[][] digests(int totalChunks) {
+		byte[][] result = new byte[totalChunks][];
+		for (int i = 0; i < totalChunks; i++) {
+			result[i] = digests.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Digests of every chunk that has arrived, in no particular order.
+	 */
+	public synchronized List<byte[]> receivedDigests() {
+		return new ArrayList<>(digests.values());
+	}
+
+	/**
+	 * First chunk below {@code totalChunks} that has not arrived, or -1 if all have.
+	 */
+	public synchronized int firstMissing(int totalChunks) {
+		int missing = received.nextClearBit(0);
+		return missing < totalChunks ? missing : -1;
+	}
+
+	/**
+	 * Runs of chunks below {@code totalChunks} that have not arrived, as inclusive {start, end} pairs.
+	 */
+	public synchronized List<int[]> missingRanges(int totalChunks) {
+		List<int[]> ranges = new ArrayList<>();
+		int start = received.nextClearBit(0);
+		while (start < totalChunks) {
+			int end = Math.min(received.nextSetBit(start) < 0 ? totalChunks : received.nextSetBit(start),
+					totalChunks);
+			ranges.add(new int[] { start, end - 1 });
+			start = received.nextClearBit(end);
+		}
+		return ranges;
+	}
+
+	/**
+	 * Shared channel on the part file; positional writes from concurrent requests are safe.
+	 */
+	public synchronized FileChannel channel() throws IOException {
+		if (channel == null || !channel.isOpen()) {
+			dir.mkdirs();
+			channel = FileChannel.open(getPartFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.READ);
+		}
+		return channel;
+	}
+
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	synchronized void touch() {
+		lastAccessMillis = System.currentTimeMillis();
+	}
+
+	synchronized long lastAccessMillis() {
+		return lastAccessMillis;
+	}
+
+	/**
+	 * Keeps the session in memory, with its part file open, until {@link #unpin}
+	 * however long it goes without requests, e.g. while it is being finalized.
+	 */
+	public synchronized void pin() {
+		pins++;
+	}
+
+	public synchronized void unpin() {
+		pins--;
+		lastAccessMillis = System.currentTimeMillis();
+	}
+
+	synchronized boolean isPinned() {
+		return pins > 0;
+	}
+
+	synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	synchronized void markDirty() {
+		dirty = true;
+	}
+
+	/**
+	 * Copies the state into {@code entity} if it changed since the last call, and
+	 * returns whether it did.
+	 */
+	synchronized boolean flushTo(UploadSessionEntity entity) {
+		if (!dirty) {
+			return false;
+		}
+		entity.setUploadId(uploadId);
+		entity.setFileName(fileName);
+		entity.setFileSize(fileSize);
+		entity.setChunkSize(chunkSize);
+		entity.setChecksumAlgorithm(checksumAlgorithm.token());
+		entity.setReceivedBitmap(received.toByteArray());
+		int digestLength = checksumAlgorithm.digestLength();
+		byte[] packed = new byte[received.length() * digestLength];
+		digests.forEach((index, digest) -> System.arraycopy(digest, 0, packed, index * digestLength, digestLength));
+		entity.setChunkDigests(packed);
+		entity.setStorageHandle(storageHandle);
+		entity.setUpdatedAt(Instant.now());
+		dirty = false;
+		return true;
+	}
+
+	static UploadSession restore(UploadSessionEntity entity, File dir) {
+		// Rows from before checksums were negotiated are SHA-256.
+		ChecksumAlgorithm algorithm = entity.getChecksumAlgorithm() != null
+				? ChecksumAlgorithm.forToken(entity.getChecksumAlgorithm())
+				: ChecksumAlgorithm.SHA_256;
+		UploadSession session = new UploadSession(entity.getUploadId(), dir, entity.getFileName(),
+				entity.getFileSize(), entity.getChunkSize(), algorithm);
+		int digestLength = algorithm.digestLength();
+		session.storageHandle = entity.getStorageHandle();
+		BitSet bits = BitSet.valueOf(entity.getReceivedBitmap());
+		byte[] packed = entity.getChunkDigests();
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			session.received.set(i);
+			session.digests.put(i, Arrays.copyOfRange(packed, i * digestLength, (i + 1) * digestLength));
+		}
+		return session;
+	}
+}
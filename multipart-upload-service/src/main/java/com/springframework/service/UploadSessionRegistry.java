@@ -0,0 +1,286 @@
+package com.springframework.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.springframework.admission.AdmissionControl;
+import com.springframework.entity.UploadSessionEntity;
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.repository.UploadSessionRepository;
+import com.springframework.storage.StorageBackend;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Live upload sessions by uploadId. Sessions live in memory and are written
+ * behind to the database in batches, so the per-chunk path never waits on a
+ * database round trip. A session missing from memory, e.g. after a restart,
+ * is reloaded from its last flushed state.
+ * <p>
+ * A session with no requests for {@code upload.session.idle-timeout-ms} is
+ * unloaded, closing its part file, and reloaded when its client comes back.
+ * An upload can be resumed for {@code upload.session.retention-ms} after it
+ * last changed; after that it is aborted and its part file deleted.
+ * <p>
+ * Every session in memory holds one of the {@link AdmissionControl} session
+ * slots, taken as it comes in and given back as it goes.
+ */
+@Component
+public class UploadSessionRegistry {
+
+	public static final int DEFAULT_CHUNK_SIZE = 5 * 1024 * 1024;
+
+	private static final Logger log = LoggerFactory.getLogger(UploadSessionRegistry.class);
+
+	private final String baseDir;
+	private final long idleTimeoutMillis;
+	private final long retentionMillis;
+	private final UploadSessionRepository repository;
+	private final TransactionTemplate transactions;
+	private final StorageBackend storage;
+	private final ChunkStore chunkStore;
+	private final AdmissionControl admission;
+	private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+	private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+	public UploadSessionRegistry(@Value("${upload.base-dir:/tmp/uploads/}") String baseDir,
+			@Value("${upload.session.idle-timeout-ms:1800000}") long idleTimeoutMillis,
+			@Value("${upload.session.retention-ms:86400000}") long retentionMillis,
+			UploadSessionRepository repository, TransactionTemplate transactions, StorageBackend storage,
+			ChunkStore chunkStore, AdmissionControl admission) {
+		this.baseDir = baseDir;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.retentionMillis = retentionMillis;
+		this.repository = repository;
+		this.transactions = transactions;
+		this.storage = storage;
+		this.chunkStore = chunkStore;
+		this.admission = admission;
+	}
+
+	/**
+	 * Starts a session with a known size and preallocates its part file, so
+	 * chunks can be written at their offsets in any order. Returns null if the
+	 * session is new and the session budget is spent.
+	 */
+	public UploadSession start(String uploadId, String fileName, long fileSize, int chunkSize) throws IOException {
+		return start(uploadId, fileName, fileSize, chunkSize, ChecksumAlgorithm.SHA_256);
+	}
+
+	/**
+	 * Like {@link #start(String, String, long, int)}, with chunk checksums in
+	 * the given algorithm. A session that already exists keeps its own.
+	 */
+	public UploadSession start(String uploadId, String fileName, long fileSize, int chunkSize,
+			ChecksumAlgorithm checksumAlgorithm) throws IOException {
+		UploadSession existing = get(uploadId);
+		if (existing != null) {
+			return existing;
+		}
+		if (!admission.tryOpenSession()) {
+			return null;
+		}
+		UploadSession session = new UploadSession(uploadId, new File(baseDir, uploadId), fileName, fileSize,
+				chunkSize, checksumAlgorithm);
+		existing = sessions.putIfAbsent(uploadId, session);
+		if (existing != null) {
+			admission.sessionClosed();
+			return existing;
+		}
+		session.getDir().mkdirs();
+		try (RandomAccessFile raf = new RandomAccessFile(session.getPartFile(), "rw")) {
+			raf.setLength(fileSize);
+		}
+		session.markDirty();
+		return session;
+	}
+
+	/**
+	 * The session for this upload, creating one with the default chunk size and no
+	 * declared size for clients that send chunks without calling {@code /init}.
+	 * Returns null if a session would have to be created and the session budget
+	 * is spent.
+	 */
+	public UploadSession getOrCreate(String uploadId) {
+		UploadSession session = get(uploadId);
+		if (session != null) {
+			return session;
+		}
+		if (!admission.tryOpenSession()) {
+			return null;
+		}
+		UploadSession created = new UploadSession(uploadId, new File(baseDir, uploadId), null, -1,
+				DEFAULT_CHUNK_SIZE, ChecksumAlgorithm.SHA_256);
+		created.markDirty();
+		UploadSession existing = sessions.putIfAbsent(uploadId, created);
+		if (existing != null) {
+			admission.sessionClosed();
+			return existing;
+		}
+		return created;
+	}
+
+	/**
+	 * A one-chunk session for a file that arrives whole in a single request,
+	 * such as one entry of a batch. It is neither registered nor written to the
+	 * database: if the request fails the file is simply sent again.
+	 */
+	public UploadSession detached(String fileName, long fileSize) {
+		String uploadId = "batch-" + UUID.randomUUID();
+		return new UploadSession(uploadId, new File(baseDir, uploadId), fileName, fileSize,
+				(int) Math.min(Integer.MAX_VALUE, Math.max(1, fileSize)), ChecksumAlgorithm.SHA_256);
+	}
+
+	/**
+	 * The session from memory, or reloaded from the database; null if unknown.
+	 */
+	public UploadSession get(String uploadId) {
+		UploadSession session = sessions.get(uploadId);
+		if (session != null) {
+			session.touch();
+			return session;
+		}
+		if (removed.contains(uploadId)) {
+			return null;
+		}
+		return repository.findById(uploadId)
+				.map(entity -> sessions.computeIfAbsent(uploadId, id -> {
+					admission.sessionOpened();
+					return UploadSession.restore(entity, new File(baseDir, id));
+				}))
+				.orElse(null);
+	}
+
+	/**
+	 * Sessions currently held in memory, each with its part file open.
+	 */
+	public int openCount() {
+		return sessions.size();
+	}
+
+	public void remove(String uploadId) throws IOException {
+		removed.add(uploadId);
+		UploadSession session = sessions.remove(uploadId);
+		if (session != null) {
+			admission.sessionClosed();
+			session.close();
+		}
+	}
+
+	/**
+	 * Abandons an upload: the storage backend drops what it holds, and the
+	 * session, its part file and its references into the chunk store go away.
+	 */
+	public void abort(UploadSession session) throws IOException {
+		storage.abort(session);
+		remove(session.getUploadId());
+		if (chunkStore.isEnabled() && session.getChecksumAlgorithm() == ChecksumAlgorithm.SHA_256) {
+			session.receivedDigests().forEach(digest -> chunkStore.release(HexFormat.of().formatHex(digest)));
+		}
+		FileUtils.deleteDirectory(session.getDir());
+	}
+
+	/**
+	 * Unloads idle sessions and aborts uploads past the retention window. A
+	 * session is only unloaded once its state has been flushed, so nothing is
+	 * lost when it is reloaded, and never while it is pinned.
+	 */
+	@Scheduled(fixedDelayString = "${upload.session.sweep-interval-ms:60000}")
+	public void sweep() {
+		long now = System.currentTimeMillis();
+		for (UploadSession session : sessions.values()) {
+			// Holding the session's lock keeps a chunk from being recorded in it while it goes.
+			synchronized (session) {
+				if (session.isPinned() || session.isDirty()
+						|| now - session.lastAccessMillis() < idleTimeoutMillis) {
+					continue;
+				}
+				if (sessions.remove(session.getUploadId(), session)) {
+					admission.sessionClosed();
+				}
+				try {
+					session.close();
+				} catch (IOException e) {
+					log.warn("Could not close idle upload {}: {}", session.getUploadId(), e.getMessage());
+				}
+			}
+		}
+
+		for (UploadSessionEntity entity : repository.findByUpdatedAtBefore(Instant.ofEpochMilli(now - retentionMillis))) {
+			String uploadId = entity.getUploadId();
+			UploadSession expired = UploadSession.restore(entity, new File(baseDir, uploadId));
+			// Claiming the slot keeps a client that comes back right now from reloading it meanwhile.
+			if (removed.contains(uploadId) || sessions.putIfAbsent(uploadId, expired) != null) {
+				continue;
+			}
+			admission.sessionOpened();
+			try {
+				abort(expired);
+				log.info("Upload {} expired after {} ms unchanged", uploadId, retentionMillis);
+			} catch (IOException | RuntimeException e) {
+				if (sessions.remove(uploadId, expired)) {
+					admission.sessionClosed();
+				}
+				log.warn("Could not expire upload {}: {}", uploadId, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Writes every changed session and every removal in one transaction. Existing
+	 * rows are loaded with a single query and updated in JDBC batches.
+	 */
+	@Scheduled(fixedDelayString = "${upload.session.flush-interval-ms:500}")
+	@PreDestroy
+	public void flush() {
+		List<UploadSession> snapshot = sessions.values().stream().filter(UploadSession::isDirty).toList();
+		Set<String> deletions = new HashSet<>(removed);
+		if (snapshot.isEmpty() && deletions.isEmpty()) {
+			return;
+		}
+		try {
+			transactions.executeWithoutResult(status -> save(snapshot, deletions));
+		} catch (RuntimeException e) {
+			// Nothing was written; try again on the next run.
+			snapshot.forEach(UploadSession::markDirty);
+			throw e;
+		}
+		removed.removeAll(deletions);
+	}
+
+	private void save(List<UploadSession> snapshot, Set<String> deletions) {
+		Map<String, UploadSessionEntity> existing = repository
+				.findAllById(snapshot.stream().map(UploadSession::getUploadId).toList()).stream()
+				.collect(Collectors.toMap(UploadSessionEntity::getUploadId, Function.identity()));
+
+		List<UploadSessionEntity> changed = new ArrayList<>();
+		for (UploadSession session : snapshot) {
+			UploadSessionEntity entity = existing.getOrDefault(session.getUploadId(), new UploadSessionEntity());
+			if (session.flushTo(entity)) {
+				changed.add(entity);
+			}
+		}
+		repository.saveAll(changed);
+		repository.deleteAllById(deletions);
+	}
+}
@@ -0,0 +1,85 @@
+package com.springframework.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.springframework.service.UploadSession;
+
+/**
+ * Keeps completed uploads on the local filesystem as {@code <root>/<bucket>/<key>}.
+ * Completing is a rename of the part file, so nothing is copied.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "local", matchIfMissing = true)
+public class LocalStorageBackend implements StorageBackend {
+
+	private final Path root;
+
+	public LocalStorageBackend(@Value("${storage.local.dir:/tmp/storage/}") String root) {
+		this.root = Paths.get(root).toAbsolutePath().normalize();
+	}
+
+	@Override
+	public void initiate(UploadSession session, String bucket) {
+	}
+
+	@Override
+	public void chunkStored(UploadSession session, int chunkIndex, long length) {
+	}
+
+	@Override
+	public String complete(UploadSession session, String bucket, String key, int totalChunks) throws IOException {
+		Path target = resolve(bucket, key);
+		Files.createDirectories(target.getParent());
+
+		session.close();
+		Path part = session.getPartFile().toPath();
+		try {
+			Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			// Storage root on another filesystem than the upload dir.
+			Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return target.toString();
+	}
+
+	@Override
+	public void abort(UploadSession session) {
+	}
+
+	@Override
+	public FileChannel openStored(String bucket, String key) throws IOException {
+		Path stored = resolve(bucket, key);
+		if (!Files.isRegularFile(stored)) {
+			return null;
+		}
+		try {
+			return FileChannel.open(stored, StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	private Path resolve(String bucket, String key) {
+		if (bucket == null) {
+			throw new IllegalArgumentException("A bucket is required");
+		}
+		Path bucketDir = root.resolve(bucket).normalize();
+		Path target = bucketDir.resolve(key).normalize();
+		if (!root.equals(bucketDir.getParent()) || !target.startsWith(bucketDir) || target.equals(bucketDir)) {
+			throw new IllegalArgumentException("Invalid bucket or key: " + bucket + "/" + key);
+		}
+		return target;
+	}
+}
@@ -0,0 +1,224 @@
+package com.springframework.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.springframework.service.UploadSession;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.Part;
+
+/**
+ * Stores uploads in an S3-compatible object store. Each upload started with
+ * {@code /init} becomes a multipart upload, and every verified chunk is sent
+ * on as part {@code chunkIndex + 1} as soon as it arrives, so {@code /complete}
+ * only has to stitch the parts together. Part ETags are not kept: the part
+ * list is read back from the store on completion.
+ * <p>
+ * Uploads that skipped {@code /init} have no known key or bucket until
+ * {@code /complete}, so they are sent with one {@code putObject} at the end.
+ */
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "s3")
+public class S3StorageBackend implements StorageBackend {
+
+	/** S3 rejects parts below 5 MiB other than the last one. */
+	static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+	static final int MAX_PARTS = 10_000;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final S3Client s3;
+	private final String defaultBucket;
+
+	public S3StorageBackend(S3Client s3, @Value("${storage.s3.bucket:uploads}") String defaultBucket) {
+		this.s3 = s3;
+		this.defaultBucket = defaultBucket;
+	}
+
+	/**
+	 * Bucket, key and multipart upload id of an upload, kept as the session's
+	 * storage handle. Keys may contain anything, so the key goes last.
+	 */
+	record Handle(String bucket, String uploadId, String key) {
+
+		static Handle parse(String value) {
+			String[] parts = value.split("\n", 3);
+			return new Handle(parts[0], parts[1], parts[2]);
+		}
+
+		String format() {
+			return bucket + "\n" + uploadId + "\n" + key;
+		}
+	}
+
+	@Override
+	public long minChunkSize(long fileSize) {
+		// Every part but the last must be at least 5 MiB, and there can be at most 10000.
+		return Math.max(MIN_PART_SIZE, (fileSize + MAX_PARTS - 1) / MAX_PARTS);
+	}
+
+	@Override
+	public void initiate(UploadSession session, String bucket) {
+		synchronized (session) {
+			if (session.getStorageHandle() != null) {
+				return;
+			}
+			int totalChunks = session.getTotalChunks();
+			if (totalChunks > 1 && session.getChunkSize() < MIN_PART_SIZE) {
+				throw new IllegalArgumentException("Chunks must be at least " + MIN_PART_SIZE + " bytes for S3");
+			}
+			if (totalChunks > MAX_PARTS) {
+				throw new IllegalArgumentException("S3 allows at most " + MAX_PARTS + " parts");
+			}
+			String targetBucket = bucket != null ? bucket : defaultBucket;
+			String uploadId = s3.createMultipartUpload(b -> b.bucket(targetBucket).key(session.getFileName()))
+					.uploadId();
+			session.setStorageHandle(new Handle(targetBucket, uploadId, session.getFileName()).format());
+		}
+	}
+
+	@Override
+	public void chunkStored(UploadSession session, int chunkIndex, long length) {
+		String handle = session.getStorageHandle();
+		if (handle == null) {
+			return;
+		}
+		uploadPart(Handle.parse(handle), session, chunkIndex, length);
+	}
+
+	private String uploadPart(Handle handle, UploadSession session, int chunkIndex, long length) {
+		File partFile = session.getPartFile();
+		long offset = session.offset(chunkIndex);
+		// A provider rather than a stream, so the SDK can re-read the chunk when it retries.
+		RequestBody body = RequestBody.fromContentProvider(() -> new RegionInputStream(partFile, offset, length),
+				length, "application/octet-stream");
+		return s3.uploadPart(b -> b.bucket(handle.bucket()).key(handle.key()).uploadId(handle.uploadId())
+				.partNumber(chunkIndex + 1).contentLength(length), body).eTag();
+	}
+
+	@Override
+	public String complete(UploadSession session, String bucket, String key, int totalChunks) throws IOException {
+		String value = session.getStorageHandle();
+		if (value == null) {
+			session.channel().force(false);
+			File partFile = session.getPartFile();
+			s3.putObject(b -> b.bucket(bucket).key(key), RequestBody.fromFile(partFile));
+			return "s3://" + bucket + "/" + key;
+		}
+
+		Handle handle = Handle.parse(value);
+		if (!handle.bucket().equals(bucket) || !handle.key().equals(key)) {
+			throw new IllegalArgumentException("Upload was started for " + handle.bucket() + "/" + handle.key());
+		}
+
+		Map<Integer, String> etags = new HashMap<>();
+		for (Part part : s3.listPartsPaginator(
+				b -> b.bucket(handle.bucket()).key(handle.key()).uploadId(handle.uploadId())).parts()) {
+			etags.put(part.partNumber(), part.eTag());
+		}
+
+		List<CompletedPart> parts = new ArrayList<>(totalChunks);
+		for (int chunkIndex = 0; chunkIndex < totalChunks; chunkIndex++) {
+			String etag = etags.get(chunkIndex + 1);
+			if (etag == null) {
+				// Lost on the way, e.g. a crash between writing the chunk and forwarding it.
+				etag = uploadPart(handle, session, chunkIndex, session.expectedLength(chunkIndex));
+			}
+			parts.add(CompletedPart.builder().partNumber(chunkIndex + 1).eTag(etag).build());
+		}
+		s3.completeMultipartUpload(b -> b.bucket(handle.bucket()).key(handle.key()).uploadId(handle.uploadId())
+				.multipartUpload(CompletedMultipartUpload.builder().parts(parts).build()));
+		return "s3://" + handle.bucket() + "/" + handle.key();
+	}
+
+	@Override
+	public void abort(UploadSession session) {
+		String value = session.getStorageHandle();
+		if (value != null) {
+			Handle handle = Handle.parse(value);
+			s3.abortMultipartUpload(b -> b.bucket(handle.bucket()).key(handle.key()).uploadId(handle.uploadId()));
+		}
+	}
+
+	@Override
+	public FileChannel openStored(String bucket, String key) throws IOException {
+		String targetBucket = bucket != null ? bucket : defaultBucket;
+		Path copy = Files.createTempFile("s3-stored-", ".tmp");
+		try (InputStream in = s3.getObject(b -> b.bucket(targetBucket).key(key))) {
+			Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+			return FileChannel.open(copy, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+		} catch (NoSuchKeyException e) {
+			Files.deleteIfExists(copy);
+			return null;
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(copy);
+			throw e;
+		}
+	}
+
+	/**
+	 * A region of a file read with positional reads on a channel of its own.
+	 */
+	private static final class RegionInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+
+		RegionInputStream(File file, long offset, long length) {
+			try {
+				this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(Math.min(len, BUFFER_SIZE), end - position)),
+					position);
+			if (read < 0) {
+				throw new IOException("Part file ended at " + position + " before " + end);
+			}
+			position += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
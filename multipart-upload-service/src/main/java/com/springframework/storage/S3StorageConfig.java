@@ -0,0 +1,35 @@
+package com.springframework.storage;
+
+import java.net.URI;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+
+/**
+ * S3 client for {@link S3StorageBackend}. Credentials come from the default AWS
+ * provider chain. Set {@code storage.s3.endpoint} (and usually path-style
+ * access) for S3-compatible stores such as MinIO.
+ */
+@Configuration
+@ConditionalOnProperty(name = "storage.backend", havingValue = "s3")
+public class S3StorageConfig {
+
+	@Bean(destroyMethod = "close")
+	S3Client s3Client(@Value("${storage.s3.region:us-east-1}") String region,
+			@Value("${storage.s3.endpoint:}") String endpoint,
+			@Value("${storage.s3.path-style-access:false}") boolean pathStyleAccess) {
+		S3ClientBuilder builder = S3Client.builder()
+				.region(Region.of(region))
+				.forcePathStyle(pathStyleAccess);
+		if (!endpoint.isBlank()) {
+			builder.endpointOverride(URI.create(endpoint));
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,64 @@
+package com.springframework.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import com.springframework.service.UploadSession;
+
+/**
+ * Where completed uploads end up. Chunks are always written into the session's
+ * part file first; a backend sees each one once it is verified, so it can push
+ * it on while the rest of the file is still arriving, and is asked to publish
+ * the file once every chunk has arrived and the whole file checks out.
+ * Which backend is active is chosen with {@code storage.backend}.
+ */
+public interface StorageBackend {
+
+	/**
+	 * Prepares storage for an upload started with {@code /init}. Called again if
+	 * the client re-sends {@code /init}, so it must be idempotent.
+	 *
+	 * @param bucket target bucket, or null for the backend's default
+	 * @throws IllegalArgumentException if the backend cannot store this upload
+	 */
+	void initiate(UploadSession session, String bucket) throws IOException;
+
+	/**
+	 * The smallest chunk size this backend can store a file of {@code fileSize}
+	 * bytes with, so {@code /init} can steer clients to one that works.
+	 */
+	default long minChunkSize(long fileSize) {
+		return 1;
+	}
+
+	/**
+	 * Called after a chunk has been verified and written at its offset in the part
+	 * file, before it is marked as received. If this throws, the chunk counts as
+	 * not received and the client retries it.
+	 */
+	void chunkStored(UploadSession session, int chunkIndex, long length) throws IOException;
+
+	/**
+	 * Publishes the verified upload as {@code bucket/key}.
+	 *
+	 * @return where the file now lives, for the response
+	 * @throws IllegalArgumentException if the upload cannot be published under this name
+	 */
+	String complete(UploadSession session, String bucket, String key, int totalChunks) throws IOException;
+
+	/**
+	 * Releases whatever the backend holds for an abandoned upload.
+	 */
+	void abort(UploadSession session) throws IOException;
+
+	/**
+	 * Opens the stored {@code bucket/key} for reading, e.g. as the base of a delta
+	 * upload, or returns null if nothing is stored there. A backend that does
+	 * not keep files locally copies it first, and the copy goes away when the
+	 * channel is closed.
+	 *
+	 * @param bucket bucket, or null for the backend's default
+	 * @throws IllegalArgumentException if {@code bucket/key} is not a valid name
+	 */
+	FileChannel openStored(String bucket, String key) throws IOException;
+}
@@ -0,0 +1,45 @@
+package com.springframework.admission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class AdmissionControlTests {
+
+	@Test
+	void bytesOverBudgetAreRefusedUntilReleased() {
+		AdmissionControl admission = new AdmissionControl(100, 2, 40, 1);
+
+		long first = admission.tryAcquire(60);
+		assertEquals(60, first);
+		assertEquals(40, admission.tryAcquire(-1));
+		assertEquals(-1, admission.tryAcquire(1));
+
+		admission.release(first);
+		assertEquals(40, admission.inFlightBytes());
+		assertEquals(50, admission.tryAcquire(50));
+	}
+
+	@Test
+	void oversizedRequestIsAdmittedWhenNothingElseIsInFlight() {
+		AdmissionControl admission = new AdmissionControl(100, 2, 40, 1);
+
+		assertEquals(500, admission.tryAcquire(500));
+		assertEquals(-1, admission.tryAcquire(1));
+	}
+
+	@Test
+	void sessionSlotsAreTakenUntilGivenBack() {
+		AdmissionControl admission = new AdmissionControl(100, 2, 40, 1);
+
+		assertTrue(admission.tryOpenSession());
+		assertTrue(admission.tryOpenSession());
+		assertFalse(admission.tryOpenSession());
+
+		admission.sessionClosed();
+		assertTrue(admission.tryOpenSession());
+		assertEquals(2, admission.openSessions());
+	}
+}
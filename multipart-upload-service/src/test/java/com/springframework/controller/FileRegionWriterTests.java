@@ -0,0 +1,102 @@
+package com.springframework.controller;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class FileRegionWriterTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void parsesSingleSuffixAndMultipleRanges() {
+		assertRegions(List.of(new long[] { 10, 20 }), FileRegionWriter.parseRanges("bytes=10-29", 100));
+		assertRegions(List.of(new long[] { 90, 10 }), FileRegionWriter.parseRanges("bytes=90-", 100));
+		assertRegions(List.of(new long[] { 70, 30 }), FileRegionWriter.parseRanges("bytes=-30", 100));
+		// A suffix longer than the file is the whole file, and an end past it is cut at the end.
+		assertTrue(FileRegionWriter.parseRanges("bytes=-500", 100).isEmpty());
+		assertRegions(List.of(new long[] { 95, 5 }), FileRegionWriter.parseRanges("bytes=95-200", 100));
+		assertRegions(List.of(new long[] { 0, 5 }, new long[] { 50, 10 }),
+				FileRegionWriter.parseRanges("bytes=0-4, 50-59", 100));
+		assertTrue(FileRegionWriter.parseRanges(null, 100).isEmpty());
+	}
+
+	@Test
+	void unsatisfiableRangesAreLeftOutAndNoneSatisfiableIsAnError() {
+		assertRegions(List.of(new long[] { 0, 5 }), FileRegionWriter.parseRanges("bytes=0-4, 200-300", 100));
+		assertThrows(IllegalArgumentException.class, () -> FileRegionWriter.parseRanges("bytes=100-", 100));
+		assertThrows(IllegalArgumentException.class, () -> FileRegionWriter.parseRanges("bytes=-0", 100));
+		assertThrows(IllegalArgumentException.class, () -> FileRegionWriter.parseRanges("bytes=0-", 0));
+	}
+
+	@Test
+	void overlappingAndAdjacentRangesAreMergedInFileOrder() throws Exception {
+		assertRegions(List.of(new long[] { 0, 30 }, new long[] { 50, 10 }),
+				FileRegionWriter.parseRanges("bytes=50-59, 10-29, 0-14, 55-57", 100));
+		assertRegions(List.of(new long[] { 0, 20 }), FileRegionWriter.parseRanges("bytes=0-9, 10-19", 100));
+		assertTrue(FileRegionWriter.parseRanges("bytes=0-, 0-, 0-, 0-", 100).isEmpty());
+		assertTrue(FileRegionWriter.parseRanges("bytes=0-49, -60", 100).isEmpty());
+
+		byte[] content = new byte[100];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		File file = Files.write(tempDir.resolve("data.bin"), content).toFile();
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader(HttpHeaders.RANGE, "bytes=0-," + "0-,".repeat(98) + "0-");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		FileRegionWriter.writeRanges(request, response, file);
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(content, response.getContentAsByteArray());
+	}
+
+	@Test
+	void malformedRangesAreIgnored() {
+		for (String header : List.of("bytes=abc", "bytes=5-2", "items=0-4", "0-4", "bytes=")) {
+			assertTrue(FileRegionWriter.parseRanges(header, 100).isEmpty(), header);
+		}
+	}
+
+	@Test
+	void malformedRangeGetsTheWholeFileAndUnsatisfiableOneA416() throws Exception {
+		byte[] content = new byte[100];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		File file = Files.write(tempDir.resolve("data.bin"), content).toFile();
+
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader(HttpHeaders.RANGE, "bytes=5-2");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		FileRegionWriter.writeRanges(request, response, file);
+		assertEquals(200, response.getStatus());
+		assertArrayEquals(content, response.getContentAsByteArray());
+
+		request = new MockHttpServletRequest();
+		request.addHeader(HttpHeaders.RANGE, "bytes=100-");
+		response = new MockHttpServletResponse();
+		FileRegionWriter.writeRanges(request, response, file);
+		assertEquals(416, response.getStatus());
+		assertEquals("bytes */100", response.getHeader(HttpHeaders.CONTENT_RANGE));
+	}
+
+	private static void assertRegions(List<long[]> expected, List<long[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertArrayEquals(expected.get(i), actual.get(i));
+		}
+	}
+}
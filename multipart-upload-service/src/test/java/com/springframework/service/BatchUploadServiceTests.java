@@ -0,0 +1,78 @@
+package com.springframework.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.springframework.dto.BatchUploadResponse;
+import com.springframework.dto.BatchUploadResponse.FileResult;
+
+@SpringBootTest
+class BatchUploadServiceTests {
+
+	@Autowired
+	BatchUploadService batches;
+
+	@Test
+	void storesEachFileAndReportsBadOnesSeparately() throws Exception {
+		byte[] first = "first file".getBytes(StandardCharsets.UTF_8);
+		byte[] second = new byte[0];
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		entry(out, "batch/first.txt", first, sha256(first));
+		entry(out, "batch/corrupt.txt", first, new byte[32]);
+		entry(out, "batch/empty.txt", second, sha256(second));
+		out.writeUTF("");
+
+		BatchUploadResponse response = batches.receive(new ByteArrayInputStream(body.toByteArray()), "bucket");
+
+		assertNull(response.getError());
+		List<FileResult> files = response.getFiles();
+		assertEquals(List.of("STORED", "CHECKSUM_MISMATCH", "STORED"),
+				files.stream().map(FileResult::getStatus).toList());
+		assertArrayEquals(first, Files.readAllBytes(Path.of(files.get(0).getLocation())));
+		assertEquals(0, Files.size(Path.of(files.get(2).getLocation())));
+	}
+
+	@Test
+	void truncatedBatchKeepsWhatWasStored() throws Exception {
+		byte[] content = "whole".getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		entry(out, "batch/whole.txt", content, sha256(content));
+		entry(out, "batch/cut.txt", content, sha256(content));
+		byte[] truncated = Arrays.copyOf(body.toByteArray(), body.size() - 10);
+
+		BatchUploadResponse response = batches.receive(new ByteArrayInputStream(truncated), "bucket");
+
+		assertNotNull(response.getError());
+		assertEquals(1, response.getFiles().size());
+		assertEquals("STORED", response.getFiles().get(0).getStatus());
+	}
+
+	private static void entry(DataOutputStream out, String name, byte[] content, byte[] checksum) throws Exception {
+		out.writeUTF(name);
+		out.writeLong(content.length);
+		out.write(content);
+		out.write(checksum);
+	}
+
+	private static byte[] sha256(byte[] content) throws Exception {
+		return MessageDigest.getInstance("SHA-256").digest(content);
+	}
+}
@@ -0,0 +1,72 @@
+package com.springframework.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChecksumCacheTests {
+
+	@TempDir
+	Path tempDir;
+
+	private final ChecksumCache cache = new ChecksumCache(2, 1);
+
+	@AfterEach
+	void shutdown() {
+		cache.shutdown();
+	}
+
+	@Test
+	void concurrentCallersShareOneComputation() throws Exception {
+		File file = Files.write(tempDir.resolve("a.bin"), new byte[] { 1, 2, 3 }).toFile();
+
+		assertSame(cache.checksum(file), cache.checksum(file));
+		assertEquals(sha256(new byte[] { 1, 2, 3 }), cache.checksum(file).get());
+	}
+
+	@Test
+	void changedFileIsHashedAgain() throws Exception {
+		File file = Files.write(tempDir.resolve("a.bin"), new byte[] { 1, 2, 3 }).toFile();
+		String first = cache.checksum(file).get();
+
+		Files.write(file.toPath(), new byte[] { 4, 5, 6, 7 });
+		file.setLastModified(file.lastModified() + 2_000);
+
+		String second = cache.checksum(file).get();
+		assertNotEquals(first, second);
+		assertEquals(sha256(new byte[] { 4, 5, 6, 7 }), second);
+	}
+
+	@Test
+	void chunkChecksumsAreComputedOnlyWhenAskedFor() throws Exception {
+		byte[] content = new byte[10];
+		Arrays.fill(content, (byte) 7);
+		content[9] = 8;
+		File file = Files.write(tempDir.resolve("a.bin"), content).toFile();
+		assertNull(cache.chunkChecksumsIfReady(file, 4));
+
+		List<String> chunks = cache.chunkChecksums(file, 4).get();
+
+		assertEquals(List.of(sha256(Arrays.copyOfRange(content, 0, 4)), sha256(Arrays.copyOfRange(content, 4, 8)),
+				sha256(Arrays.copyOfRange(content, 8, 10))), chunks);
+		assertEquals(chunks, cache.chunkChecksumsIfReady(file, 4));
+		assertNull(cache.chunkChecksumsIfReady(file, 5));
+	}
+
+	private static String sha256(byte[] data) throws Exception {
+		return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+	}
+}
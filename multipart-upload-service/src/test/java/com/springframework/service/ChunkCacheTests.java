@@ -0,0 +1,105 @@
+package com.springframework.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.springframework.protocol.ChunkCodec;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ChunkCacheTests {
+
+	private static final int CHUNK = 1024;
+
+	@TempDir
+	Path tempDir;
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@Test
+	void servesRepeatedChunksFromMemoryUntilTheFileChanges() throws Exception {
+		ChunkCache cache = new ChunkCache(16 * CHUNK, registry);
+		File file = write("a.bin", 4 * CHUNK, 1);
+
+		ChunkCache.Chunk first = cache.get(file, CHUNK, 1, ChunkCodec.IDENTITY);
+		assertSame(first, cache.get(file, CHUNK, 1, ChunkCodec.IDENTITY));
+		assertEquals(1.0, registry.get("transfer.chunk.cache.requests").tag("result", "hit").counter().count());
+		assertEquals(ByteBuffer.wrap(Files.readAllBytes(file.toPath()), CHUNK, CHUNK), first.data());
+
+		write("a.bin", 5 * CHUNK, 2);
+		file.setLastModified(file.lastModified() + 2_000);
+		ChunkCache.Chunk changed = cache.get(file, CHUNK, 1, ChunkCodec.IDENTITY);
+		assertEquals(ByteBuffer.wrap(Files.readAllBytes(file.toPath()), CHUNK, CHUNK), changed.data());
+		assertEquals(CHUNK + ChunkCache.ENTRY_COST, cache.size());
+	}
+
+	@Test
+	void keepsPopularChunksAgainstOneOffReads() throws Exception {
+		ChunkCache cache = new ChunkCache(2 * (CHUNK + ChunkCache.ENTRY_COST), registry);
+		File file = write("b.bin", 8 * CHUNK, 3);
+		for (int i = 0; i < 3; i++) {
+			cache.get(file, CHUNK, 0, ChunkCodec.IDENTITY);
+			cache.get(file, CHUNK, 1, ChunkCodec.IDENTITY);
+		}
+
+		// A scan through the rest of the file is left to be sent from the file and does not displace them.
+		for (int chunk = 2; chunk < 8; chunk++) {
+			assertNull(cache.get(file, CHUNK, chunk, ChunkCodec.IDENTITY));
+		}
+		double hits = registry.get("transfer.chunk.cache.requests").tag("result", "hit").counter().count();
+		cache.get(file, CHUNK, 0, ChunkCodec.IDENTITY);
+		cache.get(file, CHUNK, 1, ChunkCodec.IDENTITY);
+
+		assertEquals(hits + 2, registry.get("transfer.chunk.cache.requests").tag("result", "hit").counter().count());
+		assertEquals(0.0, registry.get("transfer.chunk.cache.evictions").counter().count());
+	}
+
+	@Test
+	void keepsAChunkThatDoesNotCompressAsIs() throws Exception {
+		ChunkCache cache = new ChunkCache(16 * CHUNK, registry);
+		File file = write("c.bin", 2 * CHUNK, 4);
+
+		ChunkCache.Chunk chunk = cache.get(file, 2 * CHUNK, 0, ChunkCodec.DEFLATE);
+
+		assertEquals(ChunkCodec.IDENTITY, chunk.codec());
+		assertEquals(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), chunk.data());
+		assertSame(chunk, cache.get(file, 2 * CHUNK, 0, ChunkCodec.DEFLATE));
+	}
+
+	@Test
+	void codesCompressibleChunksIntoATrimmedBuffer() throws Exception {
+		ChunkCache cache = new ChunkCache(16 * CHUNK, registry);
+		File file = Files.write(tempDir.resolve("d.bin"), new byte[4 * CHUNK]).toFile();
+
+		ChunkCache.Chunk chunk = cache.get(file, 4 * CHUNK, 0, ChunkCodec.DEFLATE);
+
+		assertEquals(ChunkCodec.DEFLATE, chunk.codec());
+		assertTrue(chunk.data().capacity() < CHUNK);
+		byte[] coded = new byte[chunk.data().remaining()];
+		chunk.data().get(coded);
+		try (InputStream decoded = ChunkCodec.DEFLATE.decode(new ByteArrayInputStream(coded))) {
+			assertArrayEquals(new byte[4 * CHUNK], decoded.readAllBytes());
+		}
+		assertEquals(chunk.data().capacity() + ChunkCache.ENTRY_COST, cache.size());
+	}
+
+	private File write(String name, int size, long seed) throws Exception {
+		byte[] content = new byte[size];
+		new Random(seed).nextBytes(content);
+		return Files.write(tempDir.resolve(name), content).toFile();
+	}
+}
@@ -0,0 +1,159 @@
+package com.springframework.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.springframework.repository.StoredChunkRepository;
+import com.springframework.repository.StoredFileRepository;
+
+@SpringBootTest
+class ChunkStoreTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Autowired
+	StoredChunkRepository repository;
+
+	@Autowired
+	StoredFileRepository files;
+
+	@Autowired
+	TransactionTemplate transactions;
+
+	@Test
+	void storedChunkIsCopiedIntoAnotherFileAndDroppedWhenUnreferenced() throws Exception {
+		ChunkStore store = new ChunkStore(tempDir.resolve("store").toString(), true, repository, files, transactions);
+		byte[] content = "hello, chunk".getBytes(StandardCharsets.UTF_8);
+		String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+
+		Path source = tempDir.resolve("source.bin");
+		Files.write(source, concat(new byte[5], content));
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+			store.put(hash, in, 5, content.length);
+		}
+		store.retain(hash, content.length);
+		store.flush();
+		assertEquals(List.of(hash), store.present(List.of(hash, "00".repeat(32))));
+		assertEquals(1, repository.findById(hash).orElseThrow().getRefCount());
+
+		Path target = tempDir.resolve("target.bin");
+		try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			assertEquals(content.length, store.copyTo(hash, out, 3, content.length));
+			ByteBuffer copied = ByteBuffer.allocate(content.length);
+			out.read(copied, 3);
+			assertArrayEquals(content, copied.array());
+
+			// A stored chunk of the wrong size is refused before anything is written.
+			long before = out.size();
+			assertEquals(content.length, store.size(hash));
+			assertThrows(IOException.class, () -> store.copyTo(hash, out, 100, content.length - 1));
+			assertEquals(before, out.size());
+		}
+
+		store.release(hash);
+		store.flush();
+		assertFalse(store.contains(hash));
+		assertFalse(repository.existsById(hash));
+		assertTrue(store.present(List.of(hash)).isEmpty());
+	}
+
+	@Test
+	void referencesSurviveARolledBackFlush() throws Exception {
+		AtomicBoolean failing = new AtomicBoolean(true);
+		TransactionTemplate flaky = new TransactionTemplate(transactions.getTransactionManager()) {
+			@Override
+			public <T> T execute(TransactionCallback<T> action) {
+				return super.execute(status -> {
+					T result = action.doInTransaction(status);
+					if (failing.get()) {
+						throw new IllegalStateException("commit failed");
+					}
+					return result;
+				});
+			}
+		};
+		ChunkStore store = new ChunkStore(tempDir.resolve("store").toString(), true, repository, files, flaky);
+		String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+				.digest("rolled back".getBytes(StandardCharsets.UTF_8)));
+
+		store.retain(hash, 11);
+		store.retain(hash, 11);
+		assertThrows(IllegalStateException.class, store::flush);
+		assertFalse(repository.existsById(hash));
+
+		failing.set(false);
+		store.flush();
+		assertEquals(2, repository.findById(hash).orElseThrow().getRefCount());
+
+		store.release(hash);
+		store.release(hash);
+		store.flush();
+		assertFalse(repository.existsById(hash));
+	}
+
+	@Test
+	void overwrittenFileGivesItsChunksBack() throws Exception {
+		ChunkStore store = new ChunkStore(tempDir.resolve("store").toString(), true, repository, files, transactions);
+		String first = put(store, "first version");
+		String second = put(store, "second version");
+
+		store.retain(first, 13);
+		store.replaceFile("bucket", "same-key", List.of(first));
+		store.flush();
+		assertEquals(1, repository.findById(first).orElseThrow().getRefCount());
+
+		store.retain(second, 14);
+		store.replaceFile("bucket", "same-key", List.of(second));
+		store.flush();
+		assertFalse(store.contains(first));
+		assertFalse(repository.existsById(first));
+		assertEquals(1, repository.findById(second).orElseThrow().getRefCount());
+
+		// Overwritten by a file the store does not hold.
+		store.replaceFile("bucket", "same-key", List.of());
+		store.flush();
+		assertFalse(store.contains(second));
+		assertEquals(0, files.count());
+	}
+
+	private String put(ChunkStore store, String text) throws Exception {
+		byte[] content = text.getBytes(StandardCharsets.UTF_8);
+		String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+		Path source = Files.write(tempDir.resolve(hash), content);
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+			store.put(hash, in, 0, content.length);
+		}
+		return hash;
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] result = new byte[a.length + b.length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+}
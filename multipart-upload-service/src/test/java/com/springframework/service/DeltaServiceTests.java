@@ -0,0 +1,168 @@
+package com.springframework.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.springframework.protocol.RollingChecksum;
+import com.springframework.repository.StoredChunkRepository;
+
+@SpringBootTest
+class DeltaServiceTests {
+
+	private static final int BLOCK = 1024;
+
+	@Autowired
+	DeltaService deltas;
+
+	@Autowired
+	UploadSessionRegistry sessions;
+
+	@Autowired
+	ChunkStore chunkStore;
+
+	@Autowired
+	StoredChunkRepository chunks;
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void rebuildsFileFromStoredBlocksAndLiterals() throws Exception {
+		byte[] old = new byte[4 * BLOCK + 100];
+		new Random(21).nextBytes(old);
+		Path base = Files.write(dir.resolve("old.bin"), old);
+		byte[] literal = "inserted".getBytes();
+
+		// Blocks 0-1, a literal, then block 3: what a client sends after an insert and a removal.
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(old, 0, 2 * BLOCK);
+		expected.write(literal);
+		expected.write(old, 3 * BLOCK, BLOCK);
+		ByteArrayOutputStream delta = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(delta);
+		out.writeInt(BLOCK);
+		out.writeByte('C');
+		out.writeInt(0);
+		out.writeInt(2);
+		out.writeByte('L');
+		out.writeInt(literal.length);
+		out.write(literal);
+		out.writeByte('C');
+		out.writeInt(3);
+		out.writeInt(1);
+		out.writeByte('E');
+
+		UploadSession session = sessions.start(UUID.randomUUID().toString(), "new.bin", expected.size(), 1000);
+		try (FileChannel channel = FileChannel.open(base, StandardOpenOption.READ)) {
+			assertEquals(3L * BLOCK, deltas.apply(session, channel, new ByteArrayInputStream(delta.toByteArray())));
+		}
+
+		assertEquals(session.getTotalChunks(), session.receivedCount());
+		session.close();
+		assertArrayEquals(expected.toByteArray(), Files.readAllBytes(session.getPartFile().toPath()));
+		sessions.remove(session.getUploadId());
+	}
+
+	@Test
+	void signatureListsWholeBlocksAndRejectsReferencesPastThem() throws Exception {
+		byte[] old = new byte[2 * BLOCK + 10];
+		new Random(7).nextBytes(old);
+		Path base = Files.write(dir.resolve("old.bin"), old);
+
+		ByteArrayOutputStream signature = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(base, StandardOpenOption.READ)) {
+			deltas.writeSignature(channel, old.length, BLOCK, signature);
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(signature.toByteArray()));
+		assertEquals(BLOCK, in.readInt());
+		assertEquals(old.length, in.readLong());
+		assertEquals(RollingChecksum.of(old, 0, BLOCK), in.readInt());
+		assertEquals(12 + 2 * (4 + DeltaService.STRONG_LENGTH), signature.size());
+
+		ByteArrayOutputStream delta = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(delta);
+		out.writeInt(BLOCK);
+		out.writeByte('C');
+		out.writeInt(1);
+		out.writeInt(2);
+		UploadSession session = sessions.start(UUID.randomUUID().toString(), "new.bin", 2 * BLOCK, BLOCK);
+		try (FileChannel channel = FileChannel.open(base, StandardOpenOption.READ)) {
+			assertThrows(IllegalArgumentException.class,
+					() -> deltas.apply(session, channel, new ByteArrayInputStream(delta.toByteArray())));
+		}
+		sessions.remove(session.getUploadId());
+	}
+
+	@Test
+	void abortedDeltaUploadGivesBackOnlyTheReferencesItTook() throws Exception {
+		byte[] data = new byte[2 * BLOCK];
+		new Random(42).nextBytes(data);
+		Path base = Files.write(dir.resolve("old.bin"), new byte[BLOCK]);
+		MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+		sha256.update(data, 0, BLOCK);
+		String shared = HexFormat.of().formatHex(sha256.digest());
+		sha256.update(data, BLOCK, BLOCK);
+		String own = HexFormat.of().formatHex(sha256.digest());
+
+		// Another upload already holds the first chunk.
+		UploadSession other = sessions.start(UUID.randomUUID().toString(), "other.bin", BLOCK, BLOCK);
+		other.markReceived(0, HexFormat.of().parseHex(shared));
+		chunkStore.retain(shared, BLOCK);
+
+		ByteArrayOutputStream delta = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(delta);
+		out.writeInt(BLOCK);
+		out.writeByte('L');
+		out.writeInt(data.length);
+		out.write(data);
+		out.writeByte('E');
+		UploadSession session = sessions.start(UUID.randomUUID().toString(), "new.bin", data.length, BLOCK);
+		try (FileChannel channel = FileChannel.open(base, StandardOpenOption.READ)) {
+			deltas.apply(session, channel, new ByteArrayInputStream(delta.toByteArray()));
+		}
+		chunkStore.flush();
+		assertEquals(2, chunks.findById(shared).orElseThrow().getRefCount());
+		assertEquals(1, chunks.findById(own).orElseThrow().getRefCount());
+
+		sessions.abort(session);
+		chunkStore.flush();
+		assertEquals(1, chunks.findById(shared).orElseThrow().getRefCount());
+		assertFalse(chunks.existsById(own));
+
+		sessions.abort(other);
+		chunkStore.flush();
+	}
+
+	@Test
+	void rollingChecksumMatchesFreshChecksumAtEveryOffset() {
+		byte[] data = new byte[3 * BLOCK];
+		new Random(3).nextBytes(data);
+		Arrays.fill(data, BLOCK, BLOCK + 200, (byte) 0xff);
+		RollingChecksum rolling = new RollingChecksum(data, 0, BLOCK);
+		for (int offset = 1; offset + BLOCK <= data.length; offset++) {
+			rolling.roll(data[offset - 1], data[offset + BLOCK - 1]);
+			assertEquals(RollingChecksum.of(data, offset, BLOCK), rolling.value());
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.springframework.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.springframework.protocol.ChecksumAlgorithm;
+import com.springframework.protocol.ChunkManifest;
+import com.springframework.repository.StoredChunkRepository;
+import com.springframework.service.FinalizationJob.Stage;
+
+@SpringBootTest
+class FinalizationServiceTests {
+
+	@Autowired
+	UploadSessionRegistry sessions;
+
+	@Autowired
+	FinalizationService finalization;
+
+	@Autowired
+	ChunkStore chunkStore;
+
+	@Autowired
+	StoredChunkRepository storedChunks;
+
+	@Test
+	void verifiedUploadIsStoredAndReportsEveryStage() throws Exception {
+		byte[] content = "finalize me".getBytes(StandardCharsets.UTF_8);
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+		UploadSession session = sessions.start("finalize-ok", "done.txt", content.length, 1024);
+		session.channel().write(ByteBuffer.wrap(content), 0);
+		session.markReceived(0, digest);
+		chunkStore.retain(HexFormat.of().formatHex(digest), content.length);
+
+		Stages stages = new Stages();
+		FinalizationJob job = finalization.submit(session, new FinalizationService.Request("finalize-ok",
+				"done.txt", "bucket", 1, null, ChecksumAlgorithm.SHA_256,
+				ChunkManifest.compose(new byte[][] { digest })), stages);
+		stages.await();
+
+		assertEquals(List.of(Stage.QUEUED, Stage.VERIFYING, Stage.STORING, Stage.COMPLETED), stages.seen);
+		assertTrue(Files.exists(Path.of(job.getLocation())));
+		assertNull(sessions.get("finalize-ok"));
+		assertSame(job, finalization.get(job.getJobId()));
+
+		// The upload's reference to the chunk became the stored file's.
+		chunkStore.flush();
+		assertTrue(chunkStore.contains(HexFormat.of().formatHex(digest)));
+		assertEquals(1, storedChunks.findById(HexFormat.of().formatHex(digest)).orElseThrow().getRefCount());
+	}
+
+	@Test
+	void checksumMismatchFailsTheJobAndKeepsTheUpload() throws Exception {
+		UploadSession session = sessions.start("finalize-bad", "bad.txt", 3, 1024);
+		session.channel().write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 0);
+		session.markReceived(0, new byte[32]);
+
+		Stages stages = new Stages();
+		FinalizationJob job = finalization.submit(session,
+				new FinalizationService.Request("finalize-bad", "bad.txt", "bucket", 1, "00", ChecksumAlgorithm.SHA_256, null),
+				stages);
+		stages.await();
+
+		assertEquals(Stage.FAILED, job.getStage());
+		assertEquals("Final file checksum mismatch.", job.getMessage());
+		assertSame(session, sessions.get("finalize-bad"));
+	}
+
+	/**
+	 * Records every stage a job reports, from before it starts.
+	 */
+	private static class Stages implements Consumer<FinalizationJob> {
+
+		final List<Stage> seen = new CopyOnWriteArrayList<>();
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		@Override
+		public void accept(FinalizationJob job) {
+			seen.add(job.getStage());
+			if (job.getStage().isTerminal()) {
+				done.countDown();
+			}
+		}
+
+		void await() throws InterruptedException {
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.springframework.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.springframework.admission.AdmissionControl;
+import com.springframework.repository.UploadSessionRepository;
+import com.springframework.storage.StorageBackend;
+
+@SpringBootTest
+class UploadSessionRegistryTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Autowired
+	UploadSessionRepository repository;
+
+	@Autowired
+	TransactionTemplate transactions;
+
+	@Autowired
+	StorageBackend storage;
+
+	@Autowired
+	ChunkStore chunkStore;
+
+	@Test
+	void flushedSessionSurvivesRestart() throws Exception {
+		UploadSessionRegistry registry = registry(60_000, 3_600_000);
+		UploadSession session = registry.start("resume-me", "data.bin", 25, 10);
+		byte[] digest = new byte[32];
+		digest[0] = 7;
+		session.markReceived(1, digest);
+		registry.flush();
+
+		// A fresh registry has nothing in memory and must reload from the database.
+		UploadSessionRegistry restarted = registry(60_000, 3_600_000);
+		UploadSession restored = restarted.get("resume-me");
+
+		assertNotNull(restored);
+		assertEquals(3, restored.getTotalChunks());
+		assertFalse(restored.isReceived(0));
+		assertTrue(restored.isReceived(1));
+		assertArrayEquals(digest, restored.digest(1));
+
+		List<int[]> missing = restored.missingRanges(3);
+		assertEquals(2, missing.size());
+		assertArrayEquals(new int[] { 0, 0 }, missing.get(0));
+		assertArrayEquals(new int[] { 2, 2 }, missing.get(1));
+	}
+
+	@Test
+	void removedSessionIsDeletedOnFlush() throws Exception {
+		UploadSessionRegistry registry = registry(60_000, 3_600_000);
+		registry.start("done", "data.bin", 10, 10);
+		registry.flush();
+		assertTrue(repository.existsById("done"));
+
+		registry.remove("done");
+		assertNull(registry.get("done"));
+		registry.flush();
+		assertFalse(repository.existsById("done"));
+	}
+
+	@Test
+	void idleSessionIsUnloadedAndReloadedOnItsNextRequest() throws Exception {
+		UploadSessionRegistry registry = registry(0, 3_600_000);
+		UploadSession session = registry.start("idle", "data.bin", 10, 10);
+		session.channel();
+
+		// Unflushed state keeps it in memory.
+		registry.sweep();
+		assertEquals(1, registry.openCount());
+
+		registry.flush();
+		session.pin();
+		registry.sweep();
+		assertEquals(1, registry.openCount());
+
+		session.unpin();
+		registry.sweep();
+		assertEquals(0, registry.openCount());
+		UploadSession reloaded = registry.get("idle");
+		assertNotSame(session, reloaded);
+		assertEquals(10, reloaded.getFileSize());
+	}
+
+	@Test
+	void uploadPastTheRetentionWindowIsAborted() throws Exception {
+		UploadSessionRegistry registry = registry(0, 0);
+		UploadSession session = registry.start("abandoned", "data.bin", 10, 10);
+		File dir = session.getDir();
+		registry.flush();
+
+		Thread.sleep(5);
+		registry.sweep();
+		registry.flush();
+
+		assertEquals(0, registry.openCount());
+		assertFalse(dir.exists());
+		assertFalse(repository.existsById("abandoned"));
+		assertNull(registry.get("abandoned"));
+	}
+
+	@Test
+	void concurrentFirstChunksCannotOverrunTheSessionBudget() throws Exception {
+		AdmissionControl admission = new AdmissionControl(1024, 2, 1024, 1);
+		UploadSessionRegistry registry = registry(0, 3_600_000, admission);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Callable<UploadSession>> firstChunks = new ArrayList<>();
+			for (int i = 0; i < 32; i++) {
+				String uploadId = "budget-" + i;
+				firstChunks.add(() -> registry.getOrCreate(uploadId));
+			}
+			int opened = 0;
+			for (Future<UploadSession> session : executor.invokeAll(firstChunks)) {
+				opened += session.get() != null ? 1 : 0;
+			}
+			assertEquals(2, opened);
+			assertEquals(2, admission.openSessions());
+		} finally {
+			executor.shutdown();
+		}
+
+		// Idle sessions give their slots back as they are unloaded, and take one again when reloaded.
+		registry.flush();
+		registry.sweep();
+		assertEquals(0, admission.openSessions());
+		assertNotNull(registry.start("budget-new", "data.bin", 10, 10));
+		registry.flush();
+		registry.sweep();
+		assertNotNull(registry.get("budget-new"));
+		assertEquals(1, admission.openSessions());
+		registry.remove("budget-new");
+		assertEquals(0, admission.openSessions());
+	}
+
+	private UploadSessionRegistry registry(long idleTimeoutMillis, long retentionMillis) {
+		return registry(idleTimeoutMillis, retentionMillis, new AdmissionControl(1024, 256, 1024, 1));
+	}
+
+	private UploadSessionRegistry registry(long idleTimeoutMillis, long retentionMillis, AdmissionControl admission) {
+		return new UploadSessionRegistry(tempDir.toString(), idleTimeoutMillis, retentionMillis, repository,
+				transactions, storage, chunkStore, admission);
+	}
+}
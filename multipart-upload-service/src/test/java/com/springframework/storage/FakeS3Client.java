@@ -0,0 +1,120 @@
+package com.springframework.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.Part;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+/**
+ * In-memory object store covering the multipart calls {@link S3StorageBackend} makes.
+ */
+class FakeS3Client implements S3Client {
+
+	final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+	final Map<String, SortedMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+	int partUploads;
+
+	@Override
+	public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+		String uploadId = UUID.randomUUID().toString();
+		uploads.put(uploadId, new ConcurrentSkipListMap<>());
+		return CreateMultipartUploadResponse.builder().bucket(request.bucket()).key(request.key()).uploadId(uploadId)
+				.build();
+	}
+
+	@Override
+	public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+		byte[] bytes = read(body);
+		upload(request.uploadId()).put(request.partNumber(), bytes);
+		partUploads++;
+		return UploadPartResponse.builder().eTag(etag(bytes)).build();
+	}
+
+	@Override
+	public ListPartsResponse listParts(ListPartsRequest request) {
+		return ListPartsResponse.builder()
+				.parts(upload(request.uploadId()).entrySet().stream()
+						.map(e -> Part.builder().partNumber(e.getKey()).eTag(etag(e.getValue())).build()).toList())
+				.isTruncated(false).build();
+	}
+
+	@Override
+	public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+		SortedMap<Integer, byte[]> parts = uploads.remove(request.uploadId());
+		ByteArrayOutputStream object = new ByteArrayOutputStream();
+		for (CompletedPart part : request.multipartUpload().parts()) {
+			byte[] bytes = parts.get(part.partNumber());
+			if (bytes == null || !etag(bytes).equals(part.eTag())) {
+				throw new IllegalStateException("Bad part " + part.partNumber());
+			}
+			object.writeBytes(bytes);
+		}
+		objects.put(request.bucket() + "/" + request.key(), object.toByteArray());
+		return CompleteMultipartUploadResponse.builder().bucket(request.bucket()).key(request.key()).build();
+	}
+
+	@Override
+	public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+		uploads.remove(request.uploadId());
+		return AbortMultipartUploadResponse.builder().build();
+	}
+
+	@Override
+	public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+		objects.put(request.bucket() + "/" + request.key(), read(body));
+		return PutObjectResponse.builder().build();
+	}
+
+	private SortedMap<Integer, byte[]> upload(String uploadId) {
+		SortedMap<Integer, byte[]> parts = uploads.get(uploadId);
+		if (parts == null) {
+			throw NoSuchUploadException.builder().message(uploadId).build();
+		}
+		return parts;
+	}
+
+	private static byte[] read(RequestBody body) {
+		try (InputStream in = body.contentStreamProvider().newStream()) {
+			return in.readAllBytes();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String etag(byte[] bytes) {
+		return "\"" + Integer.toHexString(Arrays.hashCode(bytes)) + "\"";
+	}
+
+	@Override
+	public String serviceName() {
+		return "s3";
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,85 @@
+package com.springframework.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.springframework.admission.AdmissionControl;
+import com.springframework.repository.StoredChunkRepository;
+import com.springframework.repository.StoredFileRepository;
+import com.springframework.repository.UploadSessionRepository;
+import com.springframework.service.ChunkStore;
+import com.springframework.service.UploadSession;
+import com.springframework.service.UploadSessionRegistry;
+
+class S3StorageBackendTests {
+
+	private static final int CHUNK_SIZE = (int) S3StorageBackend.MIN_PART_SIZE;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void chunksBecomePartsAndCompleteStitchesThem() throws Exception {
+		FakeS3Client s3 = new FakeS3Client();
+		S3StorageBackend backend = new S3StorageBackend(s3, "default-bucket");
+		UploadSessionRegistry registry = registry(backend);
+
+		byte[] content = new byte[CHUNK_SIZE + 1000];
+		new Random(11).nextBytes(content);
+		UploadSession session = registry.start("s3-upload", "data.bin", content.length, CHUNK_SIZE);
+		backend.initiate(session, "bucket");
+		session.channel().write(ByteBuffer.wrap(content), 0);
+
+		// Chunk 0 is never forwarded, as if the service died right after writing it.
+		backend.chunkStored(session, 1, 1000);
+		assertEquals(1, s3.partUploads);
+
+		String location = backend.complete(session, "bucket", "data.bin", 2);
+
+		assertEquals("s3://bucket/data.bin", location);
+		assertEquals(2, s3.partUploads);
+		assertArrayEquals(content, s3.objects.get("bucket/data.bin"));
+		assertTrue(s3.uploads.isEmpty());
+	}
+
+	@Test
+	void smallChunksAreRejectedAndUnstartedUploadsArePutWhole() throws Exception {
+		FakeS3Client s3 = new FakeS3Client();
+		S3StorageBackend backend = new S3StorageBackend(s3, "default-bucket");
+		UploadSessionRegistry registry = registry(backend);
+
+		UploadSession tooSmall = registry.start("small-chunks", "data.bin", 3000, 1000);
+		assertThrows(IllegalArgumentException.class, () -> backend.initiate(tooSmall, null));
+
+		UploadSession implicit = registry.getOrCreate("no-init");
+		implicit.channel().write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), 0);
+		backend.chunkStored(implicit, 0, 3);
+		assertEquals(0, s3.partUploads);
+		backend.complete(implicit, "bucket", "small.bin", 1);
+		assertArrayEquals(new byte[] { 1, 2, 3 }, s3.objects.get("bucket/small.bin"));
+		assertTrue(Files.exists(implicit.getPartFile().toPath()));
+	}
+
+	/**
+	 * A registry that is never flushed, so its repository only has to find nothing.
+	 */
+	private UploadSessionRegistry registry(S3StorageBackend backend) {
+		TransactionTemplate transactions = new TransactionTemplate();
+		ChunkStore chunkStore = new ChunkStore(tempDir.resolve("chunks").toString(), false,
+				mock(StoredChunkRepository.class), mock(StoredFileRepository.class), transactions);
+		return new UploadSessionRegistry(tempDir.toString(), 60_000, 3_600_000, mock(UploadSessionRepository.class),
+				transactions, backend, chunkStore, new AdmissionControl(1024, 256, 1024, 1));
+	}
+}
@@ -0,0 +1,169 @@
+package com.springframework.protocol;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Checksums a client and the service can agree on, named by the tokens used on
+ * the wire. Chunks only need to catch corruption in transit, which CRC32C does
+ * at memory speed; a whole file is identified by a cryptographic digest.
+ * {@link #SHA_256_TREE} is a Merkle tree over {@link TreeHash#LEAF_SIZE}
+ * leaves, so a file on disk can be hashed on every core.
+ * <p>
+ * The service's chunk store is addressed by SHA-256, so deduplication only
+ * works for uploads whose chunks use {@link #SHA_256}.
+ */
+public enum ChecksumAlgorithm {
+
+	SHA_256("sha-256", 32, true), SHA_256_TREE("sha-256-tree", 32, true), CRC32C("crc32c", 4, false);
+
+	/** Response header listing the supported algorithms. */
+	public static final String ADVERTISED_HEADER = "X-Checksum-Algorithms";
+	/** Response header naming the algorithm of an upload's chunk checksums. */
+	public static final String CHUNK_HEADER = "X-Chunk-Checksum-Algorithm";
+	/** Response header naming the algorithm of a served file's checksum. */
+	public static final String FILE_HEADER = "X-Checksum-Algorithm";
+
+	/**
+	 * Incremental checksum computation; one instance per checksum.
+	 */
+	public interface Hasher {
+
+		void update(byte[] bytes, int offset, int length);
+
+		/**
+		 * Consumes the buffer's remaining bytes.
+		 */
+		void update(ByteBuffer buffer);
+
+		byte[] digest();
+	}
+
+	private final String token;
+	private final int digestLength;
+	private final boolean cryptographic;
+
+	ChecksumAlgorithm(String token, int digestLength, boolean cryptographic) {
+		this.token = token;
+		this.digestLength = digestLength;
+		this.cryptographic = cryptographic;
+	}
+
+	public String token() {
+		return token;
+	}
+
+	public int digestLength() {
+		return digestLength;
+	}
+
+	public boolean isCryptographic() {
+		return cryptographic;
+	}
+
+	/**
+	 * The algorithm for a token, or null if it is not supported.
+	 */
+	public static ChecksumAlgorithm forToken(String token) {
+		if (token == null) {
+			return null;
+		}
+		String normalized = token.trim().toLowerCase(Locale.ROOT);
+		for (ChecksumAlgorithm algorithm : values()) {
+			if (algorithm.token.equals(normalized)) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Every supported algorithm, as listed in {@code X-Checksum-Algorithms}.
+	 */
+	public static String advertised() {
+		StringBuilder tokens = new StringBuilder();
+		for (ChecksumAlgorithm algorithm : values()) {
+			tokens.append(tokens.isEmpty() ? "" : ", ").append(algorithm.token);
+		}
+		return tokens.toString();
+	}
+
+	/**
+	 * The algorithms in an {@code X-Checksum-Algorithms} header that are known
+	 * here too; empty for a service that does not send one.
+	 */
+	public static Set<ChecksumAlgorithm> parseAdvertised(String header) {
+		Set<ChecksumAlgorithm> algorithms = EnumSet.noneOf(ChecksumAlgorithm.class);
+		if (header != null) {
+			for (String token : header.split(",")) {
+				ChecksumAlgorithm algorithm = forToken(token);
+				if (algorithm != null) {
+					algorithms.add(algorithm);
+				}
+			}
+		}
+		return algorithms;
+	}
+
+	public Hasher newHasher() {
+		return switch (this) {
+			case SHA_256 -> new DigestHasher(sha256());
+			case SHA_256_TREE -> TreeHash.streaming();
+			case CRC32C -> new Crc32cHasher();
+		};
+	}
+
+	/**
+	 * A fresh SHA-256 digest.
+	 */
+	public static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private record DigestHasher(MessageDigest messageDigest) implements Hasher {
+
+		@Override
+		public void update(byte[] bytes, int offset, int length) {
+			messageDigest.update(bytes, offset, length);
+		}
+
+		@Override
+		public void update(ByteBuffer buffer) {
+			messageDigest.update(buffer);
+		}
+
+		@Override
+		public byte[] digest() {
+			return messageDigest.digest();
+		}
+	}
+
+	private static final class Crc32cHasher implements Hasher {
+
+		private final CRC32C crc = new CRC32C();
+
+		@Override
+		public void update(byte[] bytes, int offset, int length) {
+			crc.update(bytes, offset, length);
+		}
+
+		@Override
+		public void update(ByteBuffer buffer) {
+			crc.update(buffer);
+		}
+
+		@Override
+		public byte[] digest() {
+			return ByteBuffer.allocate(4).putInt((int) crc.getValue()).array();
+		}
+	}
+}
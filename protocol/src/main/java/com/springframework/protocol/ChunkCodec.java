@@ -0,0 +1,154 @@
+package com.springframework.protocol;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content codings a chunk can travel in, named by their HTTP tokens. Checksums
+ * are always over the decoded bytes, so the coding never changes what is
+ * verified. Encoders run at {@link Deflater#BEST_SPEED}: on a chunk path the
+ * ratio matters less than keeping up with the network.
+ */
+public enum ChunkCodec {
+
+	IDENTITY("identity"), DEFLATE("deflate"), GZIP("gzip");
+
+	/** Bytes sampled from the start of a chunk to decide whether it compresses. */
+	public static final int SAMPLE_SIZE = 64 * 1024;
+
+	/** A sample must shrink below this fraction for compression to be worth it. */
+	private static final double MIN_RATIO = 0.9;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String token;
+
+	ChunkCodec(String token) {
+		this.token = token;
+	}
+
+	public String token() {
+		return token;
+	}
+
+	/**
+	 * The codec for an HTTP coding token, or null if it is not supported.
+	 */
+	public static ChunkCodec forToken(String token) {
+		if (token == null || token.isBlank()) {
+			return IDENTITY;
+		}
+		String normalized = token.trim().toLowerCase(Locale.ROOT);
+		for (ChunkCodec codec : values()) {
+			if (codec.token.equals(normalized)) {
+				return codec;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The first compressing codec listed in an {@code Accept-Encoding} header,
+	 * skipping any refused with {@code q=0}; {@link #IDENTITY} if there is none.
+	 */
+	public static ChunkCodec negotiate(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return IDENTITY;
+		}
+		for (String entry : acceptEncoding.split(",")) {
+			String[] parts = entry.split(";");
+			if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?")) {
+				continue;
+			}
+			ChunkCodec codec = forToken(parts[0]);
+			if (codec != null && codec != IDENTITY) {
+				return codec;
+			}
+		}
+		return IDENTITY;
+	}
+
+	/**
+	 * The compressing codecs, as advertised in an {@code Accept-Encoding} header.
+	 */
+	public static String advertised() {
+		return DEFLATE.token + ", " + GZIP.token;
+	}
+
+	public InputStream decode(InputStream in) throws IOException {
+		return switch (this) {
+		case IDENTITY -> in;
+		case DEFLATE -> new InflaterInputStream(in);
+		case GZIP -> new GZIPInputStream(in, BUFFER_SIZE);
+		};
+	}
+
+	/**
+	 * Wraps {@code out} in this coding. Closing the returned stream finishes the
+	 * coding but leaves {@code out} open.
+	 */
+	public OutputStream encode(OutputStream out) throws IOException {
+		OutputStream target = new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+		return switch (this) {
+		case IDENTITY -> target;
+		case DEFLATE -> new DeflaterOutputStream(target, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					def.end();
+				}
+			}
+		};
+		case GZIP -> new GZIPOutputStream(target, BUFFER_SIZE) {
+			{
+				def.setLevel(Deflater.BEST_SPEED);
+			}
+		};
+		};
+	}
+
+	/**
+	 * Whether a sample of a chunk shrinks enough for compressing the chunk to pay off.
+	 */
+	public static boolean worthCompressing(byte[] sample, int length) {
+		if (length == 0) {
+			return false;
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(sample, 0, length);
+			deflater.finish();
+			byte[] out = new byte[BUFFER_SIZE];
+			long compressed = 0;
+			while (!deflater.finished()) {
+				compressed += deflater.deflate(out);
+				if (compressed >= length * MIN_RATIO) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			deflater.end();
+		}
+	}
+}
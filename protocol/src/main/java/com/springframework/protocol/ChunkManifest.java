@@ -0,0 +1,30 @@
+package com.springframework.protocol;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Whole-file checksum built from per-chunk digests: SHA-256 over the
+ * concatenated SHA-256 digests of chunks 0..n-1. The service takes each chunk
+ * digest as the chunk arrives and the client from the chunks it sent, so
+ * {@code /complete} can verify an upload without reading the file again.
+ */
+public final class ChunkManifest {
+
+	private ChunkManifest() {
+	}
+
+	public static String compose(byte[][] chunkDigests) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (byte[] chunkDigest : chunkDigests) {
+			digest.update(chunkDigest);
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+}
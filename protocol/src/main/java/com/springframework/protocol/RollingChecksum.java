@@ -0,0 +1,45 @@
+package com.springframework.protocol;
+
+/**
+ * The weak checksum rsync matches blocks with: for a window {@code x[k..l]},
+ * {@code a} is the sum of the bytes and {@code b} the sum of
+ * {@code (l - i + 1) * x[i]}, both mod 2^16, and the checksum is
+ * {@code a | b << 16}. Moving the window by one byte updates both sums in
+ * constant time, so a client can look for known blocks at every offset.
+ */
+public final class RollingChecksum {
+
+	private final int window;
+	private int a;
+	private int b;
+
+	/**
+	 * Checksum of {@code data[offset, offset + length)}, which is also the window size.
+	 */
+	public RollingChecksum(byte[] data, int offset, int length) {
+		this.window = length;
+		for (int i = 0; i < length; i++) {
+			int x = data[offset + i] & 0xff;
+			a += x;
+			b += (length - i) * x;
+		}
+	}
+
+	public static int of(byte[] data, int offset, int length) {
+		return new RollingChecksum(data, offset, length).value();
+	}
+
+	/**
+	 * Slides the window one byte: {@code out} leaves at the front, {@code in}
+	 * joins at the back.
+	 */
+	public void roll(byte out, byte in) {
+		int x = out & 0xff;
+		a += (in & 0xff) - x;
+		b += a - window * x;
+	}
+
+	public int value() {
+		return (a & 0xffff) | (b << 16);
+	}
+}
@@ -0,0 +1,175 @@
+package com.springframework.protocol;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * SHA-256 Merkle tree hash, shaped like the one in RFC 6962: a file is cut
+ * into {@link #LEAF_SIZE} leaves hashed as {@code SHA-256(0x00 || leaf)}, and
+ * a node over {@code n > 1} leaves splits them at the largest power of two
+ * below {@code n} and hashes {@code SHA-256(0x01 || left || right)}. An empty
+ * file is one empty leaf.
+ * <p>
+ * Subtrees do not depend on each other, so {@link #parallel} hashes a file on
+ * disk as fork/join tasks on the common pool, while {@link #streaming} gives
+ * the same digest for bytes that arrive in order.
+ */
+public final class TreeHash {
+
+	public static final int LEAF_SIZE = 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte LEAF_PREFIX = 0;
+	private static final byte NODE_PREFIX = 1;
+	private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+	private TreeHash() {
+	}
+
+	/**
+	 * Tree hash of the first {@code size} bytes of the channel, using positional
+	 * reads only, so the channel can be shared.
+	 */
+	public static byte[] parallel(FileChannel channel, long size) throws IOException {
+		try {
+			return ForkJoinPool.commonPool().invoke(new Subtree(channel, size, 0, leafCount(size)));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	static ChecksumAlgorithm.Hasher streaming() {
+		return new StreamingHasher();
+	}
+
+	private static int leafCount(long size) {
+		return size == 0 ? 1 : (int) ((size + LEAF_SIZE - 1) / LEAF_SIZE);
+	}
+
+	private static byte[] node(byte[] left, byte[] right) {
+		MessageDigest digest = ChecksumAlgorithm.sha256();
+		digest.update(NODE_PREFIX);
+		digest.update(left);
+		digest.update(right);
+		return digest.digest();
+	}
+
+	/**
+	 * Root over leaf digests {@code [from, to)}.
+	 */
+	private static byte[] root(List<byte[]> leaves, int from, int to) {
+		if (to - from == 1) {
+			return leaves.get(from);
+		}
+		int split = from + Integer.highestOneBit(to - from - 1);
+		return node(root(leaves, from, split), root(leaves, split, to));
+	}
+
+	private static final class Subtree extends RecursiveTask<byte[]> {
+
+		private final FileChannel channel;
+		private final long size;
+		private final int from;
+		private final int to;
+
+		Subtree(FileChannel channel, long size, int from, int to) {
+			this.channel = channel;
+			this.size = size;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected byte[] compute() {
+			if (to - from == 1) {
+				return leaf();
+			}
+			int split = from + Integer.highestOneBit(to - from - 1);
+			Subtree left = new Subtree(channel, size, from, split);
+			left.fork();
+			byte[] right = new Subtree(channel, size, split, to).compute();
+			return node(left.join(), right);
+		}
+
+		private byte[] leaf() {
+			MessageDigest digest = ChecksumAlgorithm.sha256();
+			digest.update(LEAF_PREFIX);
+			ByteBuffer buffer = BUFFERS.get();
+			long position = (long) from * LEAF_SIZE;
+			long end = Math.min(size, position + LEAF_SIZE);
+			try {
+				while (position < end) {
+					buffer.clear().limit((int) Math.min(BUFFER_SIZE, end - position));
+					int read = channel.read(buffer, position);
+					if (read < 0) {
+						throw new IOException("File ended at " + position + " before " + size);
+					}
+					digest.update(buffer.flip());
+					position += read;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return digest.digest();
+		}
+	}
+
+	private static final class StreamingHasher implements ChecksumAlgorithm.Hasher {
+
+		private final List<byte[]> leaves = new ArrayList<>();
+		private MessageDigest leaf = newLeaf();
+		private int inLeaf;
+
+		private static MessageDigest newLeaf() {
+			MessageDigest digest = ChecksumAlgorithm.sha256();
+			digest.update(LEAF_PREFIX);
+			return digest;
+		}
+
+		@Override
+		public void update(byte[] bytes, int offset, int length) {
+			while (length > 0) {
+				int take = Math.min(length, LEAF_SIZE - inLeaf);
+				leaf.update(bytes, offset, take);
+				offset += take;
+				length -= take;
+				advance(take);
+			}
+		}
+
+		@Override
+		public void update(ByteBuffer buffer) {
+			while (buffer.hasRemaining()) {
+				int take = Math.min(buffer.remaining(), LEAF_SIZE - inLeaf);
+				leaf.update(buffer.slice(buffer.position(), take));
+				buffer.position(buffer.position() + take);
+				advance(take);
+			}
+		}
+
+		private void advance(int bytes) {
+			inLeaf += bytes;
+			if (inLeaf == LEAF_SIZE) {
+				leaves.add(leaf.digest());
+				leaf = newLeaf();
+				inLeaf = 0;
+			}
+		}
+
+		@Override
+		public byte[] digest() {
+			if (inLeaf > 0 || leaves.isEmpty()) {
+				leaves.add(leaf.digest());
+			}
+			return root(leaves, 0, leaves.size());
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.springframework.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.springframework.protocol.ChecksumAlgorithm.Hasher;
+
+class ChecksumAlgorithmTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void crc32cIsBigEndian() {
+		Hasher crc = ChecksumAlgorithm.CRC32C.newHasher();
+		crc.update(ByteBuffer.wrap("123456789".getBytes(StandardCharsets.US_ASCII)));
+
+		assertEquals("e3069283", HexFormat.of().formatHex(crc.digest()));
+	}
+
+	@Test
+	void treeHashPrefixesLeavesAndNodes() throws Exception {
+		byte[] small = "abc".getBytes(StandardCharsets.US_ASCII);
+		assertArrayEquals(sha256(new byte[] { 0 }, small), streamingTreeHash(small));
+
+		byte[] twoLeaves = new byte[2 * TreeHash.LEAF_SIZE];
+		twoLeaves[TreeHash.LEAF_SIZE] = 1;
+		byte[] left = sha256(new byte[] { 0 }, new byte[TreeHash.LEAF_SIZE]);
+		byte[] right = sha256(new byte[] { 0 }, Arrays.copyOfRange(twoLeaves, TreeHash.LEAF_SIZE,
+				twoLeaves.length));
+		assertArrayEquals(sha256(new byte[] { 1 }, left, right), streamingTreeHash(twoLeaves));
+	}
+
+	@Test
+	void parallelTreeHashMatchesStreaming() throws Exception {
+		Random random = new Random(19);
+		for (int size : new int[] { 0, 1, TreeHash.LEAF_SIZE, 5 * TreeHash.LEAF_SIZE + 17 }) {
+			byte[] content = new byte[size];
+			random.nextBytes(content);
+			Path file = Files.write(tempDir.resolve("file-" + size), content);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				assertArrayEquals(streamingTreeHash(content), TreeHash.parallel(channel, size), "size " + size);
+			}
+		}
+	}
+
+	private static byte[] streamingTreeHash(byte[] content) {
+		Hasher tree = ChecksumAlgorithm.SHA_256_TREE.newHasher();
+		// Uneven pieces, so leaf boundaries fall inside updates.
+		for (int offset = 0; offset < content.length; offset += 100_000) {
+			tree.update(content, offset, Math.min(100_000, content.length - offset));
+		}
+		return tree.digest();
+	}
+
+	private static byte[] sha256(byte[]... parts) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		for (byte[] part : parts) {
+			digest.update(part);
+		}
+		return digest.digest();
+	}
+}
@@ -0,0 +1,49 @@
+package com.springframework.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ChunkCodecTests {
+
+	@Test
+	void codedBytesDecodeToTheOriginal() throws Exception {
+		byte[] text = "id,status\n1,200\n2,404\n".repeat(2000).getBytes(StandardCharsets.US_ASCII);
+		for (ChunkCodec codec : ChunkCodec.values()) {
+			ByteArrayOutputStream wire = new ByteArrayOutputStream();
+			try (OutputStream out = codec.encode(wire)) {
+				out.write(text);
+			}
+			try (InputStream in = codec.decode(new ByteArrayInputStream(wire.toByteArray()))) {
+				assertArrayEquals(text, in.readAllBytes(), codec.token());
+			}
+		}
+	}
+
+	@Test
+	void onlyCompressibleSamplesAreWorthCompressing() {
+		byte[] text = "2026-10-18,GET,/api/item,200\n".repeat(1000).getBytes(StandardCharsets.US_ASCII);
+		byte[] random = new byte[64 * 1024];
+		new Random(1).nextBytes(random);
+
+		assertTrue(ChunkCodec.worthCompressing(text, text.length));
+		assertFalse(ChunkCodec.worthCompressing(random, random.length));
+	}
+
+	@Test
+	void negotiationSkipsRefusedCodings() {
+		assertEquals(ChunkCodec.GZIP, ChunkCodec.negotiate("deflate;q=0, gzip"));
+		assertEquals(ChunkCodec.IDENTITY, ChunkCodec.negotiate("br"));
+		assertEquals(ChunkCodec.IDENTITY, ChunkCodec.negotiate(null));
+	}
+}